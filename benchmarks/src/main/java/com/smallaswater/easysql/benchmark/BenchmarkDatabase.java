@@ -0,0 +1,70 @@
+package com.smallaswater.easysql.benchmark;
+
+import com.smallaswater.easysql.mysql.BaseMySql;
+import com.smallaswater.easysql.mysql.data.SqlData;
+import com.smallaswater.easysql.mysql.data.SqlDataManager;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+import com.smallaswater.easysql.mysql.utils.UserData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基准测试使用的内存数据库
+ * 使用 H2 的 MySQL 兼容模式 不需要外部 MySQL 服务
+ *
+ * @author SmallasWater
+ */
+public class BenchmarkDatabase extends BaseMySql {
+
+    public static final String TABLE = "player";
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    public BenchmarkDatabase() {
+        super(null, new UserData("sa", "", "localhost", 3306, "bench"));
+        this.pool = new LoginPool("localhost", "sa", "bench" + COUNTER.incrementAndGet());
+        this.pool.dataSource.setDriverClassName("org.h2.Driver");
+        this.pool.dataSource.setUrl("jdbc:h2:mem:" + this.pool.hashCode() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        this.pool.dataSource.setUsername("sa");
+        this.pool.dataSource.setPassword("");
+        this.pool.dataSource.setInitialSize(4);
+        this.pool.dataSource.setMaxActive(16);
+        this.pool.dataSource.setPoolPreparedStatements(true);
+        this.pool.dataSource.setMaxPoolPreparedStatementPerConnectionSize(100);
+    }
+
+    /**
+     * 重建测试表并写入 rows 行数据
+     *
+     * @param rows 行数
+     */
+    public void reset(int rows) {
+        SqlDataManager.executeSql(this.pool, "DROP TABLE IF EXISTS " + TABLE);
+        SqlDataManager.executeSql(this.pool, "CREATE TABLE " + TABLE + " (" +
+                "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                "name VARCHAR(64) NOT NULL, " +
+                "money DOUBLE NOT NULL, " +
+                "level INT NOT NULL, " +
+                "config TEXT)");
+        SqlDataManager.executeSql(this.pool, "CREATE UNIQUE INDEX player_name ON " + TABLE + " (name)");
+        List<SqlData> datas = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            datas.add(row("player" + i, i));
+        }
+        SqlDataManager.insertBatch(this.pool, TABLE, datas);
+    }
+
+    public static SqlData row(String name, int i) {
+        return new SqlData("name", name)
+                .put("money", i * 1.5D)
+                .put("level", i % 100)
+                .put("config", "{\"lang\":\"zh_CN\",\"sound\":true}");
+    }
+
+    @Override
+    public void shutdown() {
+        this.pool.dataSource.close();
+    }
+}
@@ -0,0 +1,89 @@
+package com.smallaswater.easysql.benchmark;
+
+import com.smallaswater.easysql.mysql.data.SqlColumns;
+import com.smallaswater.easysql.mysql.data.SqlData;
+import com.smallaswater.easysql.mysql.data.SqlDataList;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SqlData / SqlDataList 的行构建与读取开销 不访问数据库
+ * 建议配合 -prof gc 查看每次操作的内存分配
+ *
+ * @author SmallasWater
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlDataBenchmark {
+
+    private static final String[] COLUMNS = {"id", "name", "money", "level", "config"};
+
+    @Param({"1000"})
+    public int rows;
+
+    private Object[][] values;
+
+    private SqlDataList<SqlData> list;
+
+    @Setup
+    public void setup() {
+        this.values = new Object[this.rows][];
+        for (int i = 0; i < this.rows; i++) {
+            this.values[i] = new Object[]{i, "player" + i, i * 1.5D, i % 100, "{}"};
+        }
+        this.list = this.materializeRows();
+    }
+
+    @Benchmark
+    public SqlDataList<SqlData> materializeRows() {
+        SqlColumns columns = SqlColumns.of(COLUMNS);
+        SqlDataList<SqlData> list = new SqlDataList<>("SELECT * FROM player");
+        for (Object[] row : this.values) {
+            list.add(new SqlData(columns, row.clone()));
+        }
+        return list;
+    }
+
+    @Benchmark
+    public SqlDataList<SqlData> materializeMaps() {
+        SqlDataList<SqlData> list = new SqlDataList<>("SELECT * FROM player");
+        for (Object[] row : this.values) {
+            SqlData data = new SqlData();
+            for (int i = 0; i < COLUMNS.length; i++) {
+                data.put(COLUMNS[i], row[i]);
+            }
+            list.add(data);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public void readByName(Blackhole blackhole) {
+        for (SqlData data : this.list) {
+            blackhole.consume(data.getInt("level"));
+            blackhole.consume(data.getDouble("money"));
+            blackhole.consume(data.getString("name"));
+        }
+    }
+
+    @Benchmark
+    public void readByIndex(Blackhole blackhole) {
+        for (SqlData data : this.list) {
+            blackhole.consume(data.getValue(3));
+            blackhole.consume(data.getColumn(3));
+        }
+    }
+
+    @Benchmark
+    public LinkedList<Object> valueList() {
+        return this.list.getValueList("money");
+    }
+
+}
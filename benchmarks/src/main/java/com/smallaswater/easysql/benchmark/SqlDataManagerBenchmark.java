@@ -0,0 +1,112 @@
+package com.smallaswater.easysql.benchmark;
+
+import com.smallaswater.easysql.mysql.data.SqlData;
+import com.smallaswater.easysql.mysql.data.SqlDataList;
+import com.smallaswater.easysql.mysql.data.SqlDataManager;
+import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SqlDataManager 常用路径的基准测试
+ * 吞吐量: -bm thrpt  延迟分布: -bm sample  每次操作的内存分配: -prof gc
+ *
+ * @author SmallasWater
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlDataManagerBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private BenchmarkDatabase database;
+
+    private LoginPool pool;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.database = new BenchmarkDatabase();
+        this.pool = this.database.getPool();
+        this.database.reset(this.rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.database.shutdown();
+    }
+
+    private int randomId() {
+        return ThreadLocalRandom.current().nextInt(this.rows) + 1;
+    }
+
+    private String uniqueName() {
+        return "bench" + Thread.currentThread().getId() + "_" + this.sequence.incrementAndGet();
+    }
+
+    @Benchmark
+    public SqlDataList<SqlData> selectById() {
+        return SqlDataManager.selectExecute(this.pool, "SELECT * FROM " + BenchmarkDatabase.TABLE + " WHERE id = ?",
+                new ChunkSqlType(1, this.randomId()));
+    }
+
+    @Benchmark
+    public SqlDataList<SqlData> selectPage() {
+        return SqlDataManager.selectExecute(this.pool, "SELECT * FROM " + BenchmarkDatabase.TABLE + " WHERE level = ? LIMIT 100",
+                new ChunkSqlType(1, ThreadLocalRandom.current().nextInt(100)));
+    }
+
+    @Benchmark
+    public long streamAll(Blackhole blackhole) {
+        return SqlDataManager.selectStream(this.pool, "SELECT * FROM " + BenchmarkDatabase.TABLE, blackhole::consume);
+    }
+
+    @Benchmark
+    public boolean insertSingle() {
+        return SqlDataManager.insertData(this.pool, BenchmarkDatabase.TABLE, BenchmarkDatabase.row(this.uniqueName(), 1));
+    }
+
+    @Benchmark
+    public int[] insertList() {
+        LinkedList<SqlData> datas = new LinkedList<>();
+        for (int i = 0; i < this.batchSize; i++) {
+            datas.add(BenchmarkDatabase.row(this.uniqueName(), i));
+        }
+        return SqlDataManager.insertBatch(this.pool, BenchmarkDatabase.TABLE, datas);
+    }
+
+    @Benchmark
+    public boolean setData() {
+        return SqlDataManager.setData(this.pool, BenchmarkDatabase.TABLE,
+                new SqlData("money", ThreadLocalRandom.current().nextDouble()),
+                new SqlData("id", this.randomId()));
+    }
+
+    @Benchmark
+    public boolean deleteData() {
+        //删除不存在的行 只测量语句本身的开销 不改变表的大小
+        return SqlDataManager.deleteData(this.pool, BenchmarkDatabase.TABLE, new SqlData("name", this.uniqueName()));
+    }
+
+    @Benchmark
+    public int getDataSize() {
+        return this.database.getDataSize("WHERE level = ?", BenchmarkDatabase.TABLE,
+                new ChunkSqlType(1, ThreadLocalRandom.current().nextInt(100)));
+    }
+
+}
@@ -1,13 +1,19 @@
 package com.smallaswater.easysql;
 
 
+import cn.nukkit.command.Command;
+import cn.nukkit.command.CommandSender;
 import cn.nukkit.plugin.PluginBase;
 import com.smallaswater.easysql.mysql.BaseMySql;
 import com.smallaswater.easysql.mysql.manager.PluginManager;
+import com.smallaswater.easysql.mysql.metrics.MetricsRegistry;
+import com.smallaswater.easysql.mysql.metrics.PrometheusExporter;
 import com.smallaswater.easysql.mysql.utils.LoginPool;
+import com.smallaswater.easysql.mysql.utils.PoolRegistry;
 import com.smallaswater.easysql.mysql.utils.UserData;
 
 import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -15,28 +21,79 @@ import java.util.ArrayList;
  */
 public class EasySql extends PluginBase {
 
-    private static final ArrayList<LoginPool> pools = new ArrayList<>();
+    private PrometheusExporter exporter;
 
     @Override
     public void onEnable() {
+        this.saveDefaultConfig();
+        MetricsRegistry.setDefaultSlowQueryThreshold(this.getConfig().getLong("metrics.slow-query-threshold", 1000));
+        if (this.getConfig().getBoolean("metrics.prometheus.enable", false)) {
+            String host = this.getConfig().getString("metrics.prometheus.host", "127.0.0.1");
+            int port = this.getConfig().getInt("metrics.prometheus.port", 9187);
+            try {
+                this.exporter = new PrometheusExporter(EasySql::getMetrics);
+                this.exporter.start(host, port);
+                this.getLogger().info("Prometheus 指标已在 http://" + host + ":" + port + "/metrics 导出");
+            } catch (Exception e) {
+                this.getLogger().error("Prometheus 指标导出启动失败", e);
+            }
+        }
         this.getLogger().info("已加载 EasyMySQL 插件 v"+this.getDescription().getVersion());
     }
 
+    /**
+     * 获取共享的连接池 不存在时创建 只用于查找 不增加引用计数
+     * 需要持有连接池时使用 {@link PoolRegistry#acquire(UserData)}
+     */
     public static LoginPool getLoginPool(UserData data) {
-        LoginPool pool = new LoginPool(data.getHost(), data.getUser(), data.getDatabase());
-        if(!pools.contains(pool)){
-            pools.add(pool);
+        return PoolRegistry.get(data);
+    }
+
+    /**
+     * @return 全部连接池的运行指标
+     */
+    public static List<MetricsRegistry> getMetrics() {
+        ArrayList<MetricsRegistry> list = new ArrayList<>();
+        for (LoginPool pool : PoolRegistry.getPools()) {
+            list.add(pool.getMetrics());
         }
-        return pools.get(pools.indexOf(pool));
+        return list;
     }
 
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0 || !"stats".equalsIgnoreCase(args[0])) {
+            return false;
+        }
+        List<MetricsRegistry> metrics = getMetrics();
+        if (args.length > 1 && "reset".equalsIgnoreCase(args[1])) {
+            for (MetricsRegistry registry : metrics) {
+                registry.reset();
+            }
+            sender.sendMessage("[EasyMySQL] 已清空统计");
+            return true;
+        }
+        if (metrics.isEmpty()) {
+            sender.sendMessage("[EasyMySQL] 没有已连接的数据库");
+        }
+        for (MetricsRegistry registry : metrics) {
+            for (String line : registry.getReport()) {
+                sender.sendMessage(line);
+            }
+        }
+        return true;
+    }
 
     @Override
     public void onDisable() {
+        if (this.exporter != null) {
+            this.exporter.stop();
+        }
         for (BaseMySql mysql : PluginManager.getList()) {
             if (mysql != null) {
                 mysql.shutdown();
             }
         }
+        PoolRegistry.closeAll();
     }
 }
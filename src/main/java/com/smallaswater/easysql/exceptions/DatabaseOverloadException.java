@@ -0,0 +1,21 @@
+package com.smallaswater.easysql.exceptions;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * 熔断器打开或并发数已达上限时 获取连接立即失败
+ * 不记录调用栈 熔断期间大量抛出时开销很小
+ *
+ * @author SmallasWater
+ */
+public class DatabaseOverloadException extends SQLTransientConnectionException {
+
+    public DatabaseOverloadException(String message) {
+        super(message, "08001");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -1,25 +1,39 @@
 package com.smallaswater.easysql.mysql;
 
 
+import cn.nukkit.Server;
 import cn.nukkit.plugin.Plugin;
 import com.alibaba.druid.filter.Filter;
 import com.alibaba.druid.wall.WallConfig;
 import com.alibaba.druid.wall.WallFilter;
-import com.smallaswater.easysql.EasySql;
 import com.smallaswater.easysql.exceptions.MySqlLoginException;
+import com.smallaswater.easysql.mysql.data.PreparedSql;
+import com.smallaswater.easysql.mysql.data.QueryCache;
 import com.smallaswater.easysql.mysql.data.SqlData;
 import com.smallaswater.easysql.mysql.data.SqlDataList;
 import com.smallaswater.easysql.mysql.data.SqlDataManager;
+import com.smallaswater.easysql.mysql.data.TableDump;
+import com.smallaswater.easysql.mysql.data.Transaction;
+import com.smallaswater.easysql.mysql.data.WriteAheadLog;
+import com.smallaswater.easysql.mysql.data.WriteBehindBuffer;
+import com.smallaswater.easysql.mysql.data.WriteScheduler;
+import com.smallaswater.easysql.mysql.manager.AsyncSqlManager;
+import com.smallaswater.easysql.mysql.manager.EntitySqlManager;
 import com.smallaswater.easysql.mysql.manager.PluginManager;
+import com.smallaswater.easysql.mysql.migration.SchemaMigrator;
+import com.smallaswater.easysql.mysql.migration.TableSchema;
 import com.smallaswater.easysql.mysql.utils.*;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * 数据库基类文件
@@ -34,11 +48,54 @@ public abstract class BaseMySql {
 
     protected LoginPool pool;
 
+    private AsyncSqlManager async;
+
+    private volatile WriteBehindBuffer writeBehind;
+
+    private WriteScheduler writeScheduler;
+
+    private boolean released;
+
     public BaseMySql(@NotNull Plugin plugin, @NotNull UserData data) {
         this.data = data;
         this.plugin = plugin;
     }
 
+    public Plugin getPlugin() {
+        return plugin;
+    }
+
+    public UserData getUserData() {
+        return data;
+    }
+
+    public LoginPool getPool() {
+        return pool;
+    }
+
+    /**
+     * 获取异步操作视图
+     * 所有操作都在独立的线程池中执行 不会阻塞服务器主线程
+     *
+     * @return 异步操作对象
+     */
+    public synchronized AsyncSqlManager async() {
+        if (this.async == null || this.async.isShutdown()) {
+            this.async = new AsyncSqlManager(this);
+        }
+        return this.async;
+    }
+
+    /**
+     * 获取实体操作对象
+     *
+     * @param type 添加了 {@link com.smallaswater.easysql.mysql.entity.Table} 注解的实体类
+     * @return 实体操作对象
+     */
+    public <T> EntitySqlManager<T> entity(@NotNull Class<T> type) {
+        return new EntitySqlManager<>(this, type);
+    }
+
     public static String getDefaultConfig() {
         return getDefaultTable(new TableType("name", Types.VARCHAR), new TableType("config", Types.TEXT));
     }
@@ -66,21 +123,8 @@ public abstract class BaseMySql {
         Connection connection = null;
 
         try {
-            this.pool = EasySql.getLoginPool(data);
             Class.forName("com.mysql.cj.jdbc.Driver");
-            this.pool.dataSource.setDriverClassName("com.mysql.cj.jdbc.Driver");
-            this.pool.dataSource.setUrl("jdbc:mysql://" + this.data.getHost() + ':' + this.data.getPort() + '/' + this.data.getDatabase() + "?&autoReconnect=true&failOverReadOnly=false&serverTimezone=GMT&characterEncoding=utf8&useSSL=false");
-            this.pool.dataSource.setUsername(this.data.getUser());
-            this.pool.dataSource.setPassword(this.data.getPassWorld());
-            this.pool.dataSource.setInitialSize(3);
-            this.pool.dataSource.setMinIdle(1);
-            this.pool.dataSource.setMaxActive(30);
-            this.pool.dataSource.setValidationQuery("SELECT 1");
-            this.pool.dataSource.setTimeBetweenEvictionRunsMillis(1800);
-            this.pool.dataSource.setBreakAfterAcquireFailure(true);
-            this.pool.dataSource.setTimeBetweenConnectErrorMillis(1800);
-            this.pool.dataSource.setConnectionErrorRetryAttempts(3);
-            this.pool.dataSource.addFilters("wall");
+            this.pool = PoolRegistry.acquire(data);
 
             //TODO 修复链接判断
             connection = this.getConnection();
@@ -101,6 +145,9 @@ public abstract class BaseMySql {
                 } catch (SQLException e) {
                     e.printStackTrace();
                 }
+            } else if (this.pool != null) {
+                PoolRegistry.release(this.pool);
+                this.released = true;
             }
         }
         throw new MySqlLoginException();
@@ -141,34 +188,304 @@ public abstract class BaseMySql {
 
     public Connection getConnection() {
         try {
-            return pool.dataSource.getConnection();
+            return pool.getConnection();
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * 开启查询结果缓存
+     * 同一连接池的所有插件共享此缓存 通过本插件执行的写入会使对应表的缓存失效
+     *
+     * @param maxEntries 最多缓存的查询条数
+     * @param defaultTtl 默认有效时间 (毫秒) 0 为只缓存通过 QueryCache.setTableTtl 设置过的表
+     * @return 查询结果缓存
+     */
+    public QueryCache enableQueryCache(int maxEntries, long defaultTtl) {
+        QueryCache cache = new QueryCache(maxEntries, defaultTtl);
+        this.pool.setQueryCache(cache);
+        return cache;
+    }
+
+    /**
+     * 关闭查询结果缓存
+     */
+    public void disableQueryCache() {
+        this.pool.setQueryCache(null);
+    }
+
+    /**
+     * 使用默认配置开启熔断器 见 {@link #enableCircuitBreaker(CircuitBreaker)}
+     */
+    public CircuitBreaker enableCircuitBreaker() {
+        return this.enableCircuitBreaker(CircuitBreaker.builder().build());
+    }
+
+    /**
+     * 开启熔断器 数据库连续出错或变慢时 获取连接立即失败 不再排队等待
+     * 写入在开启预写日志时保存到本地 查询返回 null
+     * 同一连接池的所有插件共享
+     *
+     * @param breaker 熔断器
+     * @return 熔断器
+     */
+    public CircuitBreaker enableCircuitBreaker(@NotNull CircuitBreaker breaker) {
+        this.pool.setCircuitBreaker(breaker);
+        return breaker;
+    }
+
+    public void disableCircuitBreaker() {
+        this.pool.setCircuitBreaker(null);
+    }
+
+    /**
+     * 开启自适应并发限制 最大并发为连接池的 maxActive
+     * 见 {@link #enableConcurrencyLimit(ConcurrencyLimiter)}
+     */
+    public ConcurrencyLimiter enableConcurrencyLimit() {
+        int maxActive = Math.max(2, this.pool.dataSource.getMaxActive());
+        return this.enableConcurrencyLimit(ConcurrencyLimiter.builder()
+                .maxLimit(maxActive)
+                .initialLimit(Math.min(20, maxActive))
+                .build());
+    }
+
+    /**
+     * 开启自适应并发限制 同时使用的连接数超过上限时获取连接立即失败
+     * 上限根据耗时自动调整 数据库变慢时减少 恢复后逐渐增加
+     * 同一连接池的所有插件共享
+     *
+     * @param limiter 并发限制
+     * @return 并发限制
+     */
+    public ConcurrencyLimiter enableConcurrencyLimit(@NotNull ConcurrencyLimiter limiter) {
+        this.pool.setConcurrencyLimiter(limiter);
+        return limiter;
+    }
+
+    public void disableConcurrencyLimit() {
+        this.pool.setConcurrencyLimiter(null);
+    }
+
+    /**
+     * 开启本地预写日志
+     * 开启后 insertData / setData / deleteData / upsert 在数据库不可用时保存到日志目录 数据库恢复后按顺序批量重放
+     * 同一连接池的所有插件共享此日志 已开启时返回已有的日志
+     *
+     * @param directory 日志目录 例如 new File(getDataFolder(), "wal")
+     * @return 预写日志 无法打开目录时返回 null
+     */
+    public WriteAheadLog enableWriteAheadLog(File directory) {
+        synchronized (this.pool) {
+            WriteAheadLog log = this.pool.getWriteAheadLog();
+            if (log != null) {
+                return log;
+            }
+            try {
+                log = new WriteAheadLog(this.pool, directory);
+            } catch (IOException e) {
+                Server.getInstance().getLogger().error("无法打开预写日志 " + directory, e);
+                return null;
+            }
+            this.pool.setWriteAheadLog(log);
+            return log;
+        }
+    }
+
+    /**
+     * 关闭预写日志 未重放的写入保留在磁盘上 下次开启时继续重放
+     */
+    public void disableWriteAheadLog() {
+        this.pool.setWriteAheadLog(null);
+    }
+
+    /**
+     * 开启延迟合并写入
+     * 开启后 setData 会先在内存中按 表名 + where 合并 再定时批量写入数据库
+     *
+     * @param interval   自动写入间隔 (毫秒)
+     * @param maxEntries 缓冲条数达到此值时立即写入
+     * @param mode       写入方式
+     * @return 写入缓冲
+     */
+    public synchronized WriteBehindBuffer enableWriteBehind(long interval, int maxEntries, WriteBehindBuffer.FlushMode mode) {
+        this.disableWriteBehind();
+        this.writeBehind = new WriteBehindBuffer(this.pool, interval, maxEntries, mode);
+        return this.writeBehind;
+    }
+
+    /**
+     * 关闭延迟合并写入 并写入缓冲中的数据
+     */
+    public synchronized void disableWriteBehind() {
+        if (this.writeBehind != null) {
+            this.writeBehind.shutdown();
+            this.writeBehind = null;
+        }
+    }
+
+    public WriteBehindBuffer getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * 获取本插件的写入调度器 未设置时使用默认配置创建
+     * 共享同一个连接池的插件各自使用独立的调度器 一个插件的突发写入不会占满其他插件的队列
+     *
+     * @return 写入调度器
+     */
+    public synchronized WriteScheduler getWriteScheduler() {
+        if (this.writeScheduler == null || this.writeScheduler.isShutdown()) {
+            this.writeScheduler = new WriteScheduler(this.pool, this.plugin.getName());
+        }
+        return this.writeScheduler;
+    }
+
+    /**
+     * 替换写入调度器 旧的调度器会等待已排队的写入执行完毕后关闭
+     *
+     * @param writeScheduler 写入调度器
+     */
+    public void setWriteScheduler(WriteScheduler writeScheduler) {
+        WriteScheduler old;
+        synchronized (this) {
+            old = this.writeScheduler;
+            this.writeScheduler = writeScheduler;
+        }
+        if (old != null && old != writeScheduler) {
+            old.shutdown(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 等待已排队的写入执行完毕并关闭写入调度器
+     */
+    private void drainWrites() {
+        WriteScheduler scheduler;
+        synchronized (this) {
+            scheduler = this.writeScheduler;
+            this.writeScheduler = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 立即写入延迟合并写入缓冲中的数据
+     *
+     * @return 是否全部写入成功
+     */
+    public boolean flush() {
+        WriteBehindBuffer buffer = this.writeBehind;
+        return buffer == null || buffer.flush();
+    }
+
+    /**
+     * 直接写入一张表前 先写入该表在延迟合并写入缓冲中的修改 保证执行顺序
+     * 执行任意语句或事务时无法确定涉及的表 tableName 为 null 写入全部修改
+     */
+    private void flushPending(String tableName) {
+        WriteBehindBuffer buffer = this.writeBehind;
+        if (buffer != null) {
+            buffer.flush(tableName);
+        }
+    }
+
     /**
      * 关闭数据库连接
      */
     public void shutdown() {
-        if (this.pool != null) {
-            this.pool.dataSource.close();
-            this.plugin.getLogger().info(" 已断开数据库连接");
+        this.disableWriteBehind();
+        synchronized (this) {
+            if (this.async != null) {
+                this.async.shutdown();
+                this.async = null;
+            }
+        }
+        this.drainWrites();
+        synchronized (this) {
+            if (this.pool == null || this.released) {
+                return;
+            }
+            this.released = true;
         }
+        PluginManager.disconnect(this.plugin, this);
+        //共享的连接池在最后一个插件断开时关闭
+        PoolRegistry.release(this.pool);
+        this.plugin.getLogger().info(" 已断开数据库连接");
     }
 
     /**
-     * 执行sql语句
+     * 执行sql语句 执行前写入延迟合并写入缓冲中的全部修改
      *
      * @param sql sql语句
      * @param value 参数
      * @return 是否执行成功
      */
     public boolean executeSql(String sql, ChunkSqlType... value) {
+        this.flushPending(null);
         return SqlDataManager.executeSql(this.pool, sql, value);
     }
 
+    /**
+     * 在一个事务中执行多条语句
+     * 所有语句使用同一个连接 回调结束后统一提交 抛出异常时回滚 死锁时自动重试
+     * 开始前写入延迟合并写入缓冲中的全部修改 避免提交后被缓冲中的旧修改覆盖
+     * <pre>
+     * manager.transaction(tx -&gt; {
+     *     tx.setData("money", new SqlData("money", 90), new SqlData("name", "a"));
+     *     tx.setData("money", new SqlData("money", 110), new SqlData("name", "b"));
+     *     tx.insertData("log", new SqlData("msg", "a -&gt; b 10"));
+     * });
+     * </pre>
+     *
+     * @param work 回调 死锁重试时会再次执行
+     * @return 是否提交成功
+     */
+    public boolean transaction(Transaction.Work work) {
+        return this.transaction(Transaction.ISOLATION_DEFAULT, work);
+    }
+
+    /**
+     * 使用指定隔离级别执行事务
+     *
+     * @param isolation 隔离级别 例如 {@link Connection#TRANSACTION_REPEATABLE_READ}
+     * @param work      回调
+     * @return 是否提交成功
+     */
+    public boolean transaction(int isolation, Transaction.Work work) {
+        this.flushPending(null);
+        return SqlDataManager.transaction(this.pool, isolation, transaction -> {
+            work.run(transaction);
+            return Boolean.TRUE;
+        }) != null;
+    }
+
+    /**
+     * 执行事务并返回结果
+     *
+     * @param callback 回调
+     * @return 回调的返回值 回滚或出现异常时返回 null
+     */
+    public <T> T transactionResult(Transaction.Callback<T> callback) {
+        return this.transactionResult(Transaction.ISOLATION_DEFAULT, callback);
+    }
+
+    /**
+     * 使用指定隔离级别执行事务并返回结果
+     *
+     * @param isolation 隔离级别
+     * @param callback  回调
+     * @return 回调的返回值 回滚或出现异常时返回 null
+     */
+    public <T> T transactionResult(int isolation, Transaction.Callback<T> callback) {
+        this.flushPending(null);
+        return SqlDataManager.transaction(this.pool, isolation, callback);
+    }
+
     /**
      * 单执行MySQL函数
      *
@@ -190,18 +507,13 @@ public abstract class BaseMySql {
     }
 
     /**
-     * 是否存在表
+     * 是否存在表 使用表结构缓存 不访问数据库
      *
      * @param tableName 表名称
      * @return 是否存在
      */
     public boolean isExistTable(String tableName) {
-        try {
-            ResultSet resultSet = this.getConnection().getMetaData().getTables(null, null, tableName, null);
-            return resultSet.next();
-        } catch (SQLException e) {
-            return false;
-        }
+        return this.pool.getSchema().isExistTable(tableName);
     }
 
     /**
@@ -229,6 +541,16 @@ public abstract class BaseMySql {
         return false;
     }
 
+    /**
+     * 将表迁移到声明的结构 不存在时创建 已存在时每张表只执行一条合并的 ALTER TABLE
+     *
+     * @param schemas 声明的表结构
+     * @return 是否全部成功
+     */
+    public boolean migrate(TableSchema... schemas) {
+        return new SchemaMigrator(this.pool).migrate(schemas);
+    }
+
     /**
      * 删除表
      *
@@ -240,19 +562,14 @@ public abstract class BaseMySql {
     }
 
     /**
-     * 是否存在字段
+     * 是否存在字段 使用表结构缓存 不访问数据库
      *
      * @param table  表名
      * @param column 字段名
      * @return 是否存在
      */
     public boolean isExistColumn(String table, String column) {
-        try {
-            ResultSet resultSet = this.getConnection().getMetaData().getColumns(null, null, table, column);
-            return resultSet.next();
-        } catch (SQLException e) {
-            return false;
-        }
+        return this.pool.getSchema().isExistColumn(table, column);
     }
 
     /**
@@ -263,7 +580,7 @@ public abstract class BaseMySql {
      * @return 是否成功
      */
     public boolean createColumn(String tableName, TableType tableType) {
-        String command = "ALTER TABLE " + tableName + " ADD " + tableType.getName() + " " + tableType.getType().toString();
+        String command = "ALTER TABLE " + tableName + " ADD " + tableType.toTable();
         return this.executeSql(command);
     }
 
@@ -275,8 +592,9 @@ public abstract class BaseMySql {
      * @return 删除一个字段
      */
     public boolean deleteColumn(String tableName, String args) {
-        String command = "ALTER TABLE " + tableName + " DROP ?";
-        return this.executeSql(command, new ChunkSqlType(1, args));
+        //字段名不能作为参数绑定 只能检查后拼接
+        String command = "ALTER TABLE " + tableName + " DROP COLUMN " + QueryConditions.checkColumn(args);
+        return this.executeSql(command);
     }
 
     /**
@@ -293,6 +611,7 @@ public abstract class BaseMySql {
 
     /**
      * 修改数据
+     * 开启延迟合并写入时只写入缓冲 并直接返回 true
      *
      * @param tableName 表单名称
      * @param data  数据
@@ -300,6 +619,11 @@ public abstract class BaseMySql {
      * @return 是否修改成功
      */
     public boolean setData(String tableName, SqlData data, SqlData where) {
+        WriteBehindBuffer buffer = this.writeBehind;
+        if (buffer != null) {
+            buffer.setData(tableName, data, where);
+            return true;
+        }
         return SqlDataManager.setData(this.pool, tableName, data, where);
     }
 
@@ -311,6 +635,7 @@ public abstract class BaseMySql {
      * @return 是否添加成功
      */
     public boolean insertData(String tableName, SqlData data) {
+        this.flushPending(tableName);
         return SqlDataManager.insertData(this.pool, tableName, data);
     }
 
@@ -322,9 +647,49 @@ public abstract class BaseMySql {
      * @return 是否添加成功
      */
     public boolean insertData(String tableName, LinkedList<SqlData> datas) {
+        this.flushPending(tableName);
         return SqlDataManager.insertData(this.pool, tableName, datas);
     }
 
+    /**
+     * 批量添加数据 在一个事务中提交
+     *
+     * @param tableName 表单名称
+     * @param datas     数据列表
+     * @return 每行的影响条数 失败时为 Statement.EXECUTE_FAILED
+     */
+    public int[] insertBatch(String tableName, Collection<SqlData> datas) {
+        this.flushPending(tableName);
+        return SqlDataManager.insertBatch(this.pool, tableName, datas);
+    }
+
+    /**
+     * 添加或修改数据 INSERT ... ON DUPLICATE KEY UPDATE
+     * 代替 isExistsData + insertData / setData 只需要一次往返 并且不会出现并发问题
+     *
+     * @param tableName  表单名称
+     * @param data       数据 需要包含主键或唯一键字段
+     * @param keyColumns 主键或唯一键字段 已存在时不修改这些字段
+     * @return 是否执行成功
+     */
+    public boolean upsert(String tableName, SqlData data, String... keyColumns) {
+        this.flushPending(tableName);
+        return SqlDataManager.upsert(this.pool, tableName, data, keyColumns);
+    }
+
+    /**
+     * 批量添加或修改数据 在一个事务中提交
+     *
+     * @param tableName  表单名称
+     * @param datas      数据列表
+     * @param keyColumns 主键或唯一键字段
+     * @return 每行的影响条数 1 为添加 2 为修改 0 为未变化 失败时为 Statement.EXECUTE_FAILED
+     */
+    public int[] upsertAll(String tableName, Collection<SqlData> datas, String... keyColumns) {
+        this.flushPending(tableName);
+        return SqlDataManager.upsertAll(this.pool, tableName, datas, keyColumns);
+    }
+
     /**
      * 删除数据
      *
@@ -333,6 +698,12 @@ public abstract class BaseMySql {
      * @return 是否删除成功
      */
     public boolean deleteData(String tableName, SqlData data) {
+        WriteBehindBuffer buffer = this.writeBehind;
+        if (buffer != null) {
+            buffer.flush(tableName);
+            //写入失败仍留在缓冲中的行 删除后不应再写回
+            buffer.discard(tableName, data);
+        }
         return SqlDataManager.deleteData(this.pool, tableName, data);
     }
 
@@ -340,47 +711,9 @@ public abstract class BaseMySql {
      * 获取数据条数
      */
     public int getDataSize(String sql, String tableName, ChunkSqlType... sqlType) {
-        int i = 0;
-        Connection connection = this.getConnection();
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            preparedStatement = connection.prepareStatement("SELECT COUNT(*) FROM " + tableName + " " + sql);
-            for(ChunkSqlType type: sqlType) {
-                preparedStatement.setString(type.getI(),type.getValue());
-            }
-            resultSet = preparedStatement.executeQuery();
-            if (resultSet != null) {
-                if (resultSet.next()) {
-                    i = resultSet.getInt(1);
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (preparedStatement != null) {
-                try {
-                    preparedStatement.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (resultSet != null) {
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        return i;
+        Integer size = SqlDataManager.select(this.pool, "SELECT COUNT(*) FROM " + tableName + " " + sql,
+                resultSet -> resultSet.next() ? resultSet.getInt(1) : 0, sqlType);
+        return size == null ? 0 : size;
     }
 
     /**
@@ -391,10 +724,65 @@ public abstract class BaseMySql {
      * @return 数据
      */
     public SqlDataList<SqlData> getData(String tableName, SelectType selectType) {
-        ArrayList<ChunkSqlType> chunkSqlTypes = new ArrayList<>();
-        chunkSqlTypes.add(new ChunkSqlType(1, selectType.getValue()));
-        String command = "SELECT * FROM " + tableName + " " + selectType;
-        return this.getData(command, chunkSqlTypes.toArray(new ChunkSqlType[0]));
+        //保留原来的拼接方式 表名与字段可以是表达式 不经过 Query 的字段检查
+        String command = "SELECT * FROM " + tableName + selectType;
+        return this.getData(command, new ChunkSqlType(1, selectType.getValue()));
+    }
+
+    /**
+     * 只查询需要的字段 不读取无关的 TEXT / BLOB 字段
+     *
+     * @param tableName  表名称
+     * @param selectType 查询条件
+     * @param columns    查询的字段 不填为全部字段
+     * @return 数据
+     */
+    public SqlDataList<SqlData> getData(String tableName, SelectType selectType, String... columns) {
+        return this.getData(Query.select(columns).from(tableName).where(selectType));
+    }
+
+    /**
+     * 只查询需要的字段
+     *
+     * @param tableName 表名称
+     * @param where     查询条件 每个字段都使用 = 判断
+     * @param columns   查询的字段 不填为全部字段
+     * @return 数据
+     */
+    public SqlDataList<SqlData> getData(String tableName, SqlData where, String... columns) {
+        return this.getData(Query.select(columns).from(tableName).where(where));
+    }
+
+    /**
+     * 使用查询构造器获取数据
+     *
+     * @param query 查询
+     * @return 数据
+     */
+    public SqlDataList<SqlData> getData(Query query) {
+        return SqlDataManager.select(this.pool, query);
+    }
+
+    /**
+     * 使用查询构造器获取满足条件的数据条数 忽略排序与分页
+     *
+     * @param query 查询
+     * @return 条数
+     */
+    public int getDataSize(Query query) {
+        return SqlDataManager.count(this.pool, query);
+    }
+
+    /**
+     * 使用查询构造器流式获取数据
+     *
+     * @param query    查询
+     * @param consumer 每行数据的回调
+     * @return 读取的行数 出现异常时返回 -1
+     */
+    public long forEachData(Query query, Consumer<SqlData> consumer) {
+        PreparedSql sql = query.build();
+        return SqlDataManager.selectStream(this.pool, sql.getSql(), consumer, sql.getTypes());
     }
 
     /**
@@ -408,4 +796,51 @@ public abstract class BaseMySql {
         return SqlDataManager.selectExecute(this.pool, sql, types);
     }
 
+    /**
+     * 流式获取数据 逐行回调 不在内存中保存结果
+     * 适合遍历大量数据
+     *
+     * @param sql      执行查询SQL指令
+     * @param consumer 每行数据的回调
+     * @param types    参数
+     * @return 读取的行数 出现异常时返回 -1
+     */
+    public long forEachData(String sql, Consumer<SqlData> consumer, ChunkSqlType... types) {
+        return SqlDataManager.selectStream(this.pool, sql, consumer, types);
+    }
+
+    /**
+     * 流式导出整张表到本地文件 文件名以 .gz 结尾时使用 gzip 压缩
+     *
+     * @param tableName 表单名称
+     * @param file      导出的文件
+     * @return 导出的行数 出现异常时返回 -1
+     */
+    public long exportTable(String tableName, Path file) {
+        return this.exportTable(tableName, file, file.getFileName().toString().endsWith(".gz"));
+    }
+
+    /**
+     * 流式导出整张表到本地文件
+     *
+     * @param tableName 表单名称
+     * @param file      导出的文件
+     * @param compress  是否使用 gzip 压缩
+     * @return 导出的行数 出现异常时返回 -1
+     */
+    public long exportTable(String tableName, Path file, boolean compress) {
+        return TableDump.export(this.pool, tableName, file, compress);
+    }
+
+    /**
+     * 导入 {@link #exportTable(String, Path)} 导出的文件 批量插入 每批提交一次
+     *
+     * @param file      导出的文件
+     * @param tableName 表单名称
+     * @return 导入的行数 出现异常时返回 -1
+     */
+    public long importTable(Path file, String tableName) {
+        return TableDump.load(this.pool, file, tableName);
+    }
+
 }
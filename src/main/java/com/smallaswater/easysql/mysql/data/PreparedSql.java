@@ -0,0 +1,34 @@
+package com.smallaswater.easysql.mysql.data;
+
+import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+
+/**
+ * 已生成的 SQL 语句及其参数
+ * 可以直接执行 也可以交给写入调度器排队或落盘
+ *
+ * @author SmallasWater
+ */
+public class PreparedSql {
+
+    private final String sql;
+
+    private final ChunkSqlType[] types;
+
+    public PreparedSql(String sql, ChunkSqlType... types) {
+        this.sql = sql;
+        this.types = types;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public ChunkSqlType[] getTypes() {
+        return types;
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
@@ -0,0 +1,285 @@
+package com.smallaswater.easysql.mysql.data;
+
+import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+import com.smallaswater.easysql.mysql.utils.ReplicaSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 查询结果缓存
+ * 以 SQL 语句 + 参数 为键 缓存 selectExecute 的结果
+ * 通过本插件对同一张表执行的写入会使相关缓存失效
+ * 写入和读取缓存时都会复制每一行 调用者修改返回的 SqlData 不会影响缓存
+ *
+ * @author SmallasWater
+ */
+public class QueryCache {
+
+    private final int maxEntries;
+
+    private final long defaultTtl;
+
+    private final ConcurrentHashMap<String, Long> tableTtl = new ConcurrentHashMap<>();
+
+    private final LinkedHashMap<Key, CacheEntry> entries;
+
+    private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong globalVersion = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxEntries 最多缓存的查询条数 超出时淘汰最久未使用的
+     * @param defaultTtl 默认有效时间 (毫秒) 0 为默认不缓存 只缓存通过 {@link #setTableTtl} 设置过的表
+     */
+    public QueryCache(int maxEntries, long defaultTtl) {
+        this.maxEntries = maxEntries;
+        this.defaultTtl = defaultTtl;
+        this.entries = new LinkedHashMap<Key, CacheEntry>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CacheEntry> eldest) {
+                if (size() > QueryCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 设置表的缓存有效时间
+     *
+     * @param tableName 表名
+     * @param ttl       有效时间 (毫秒) 0 为不缓存此表
+     */
+    public QueryCache setTableTtl(@NotNull String tableName, long ttl) {
+        this.tableTtl.put(tableName.toLowerCase(), ttl);
+        return this;
+    }
+
+    /**
+     * 从缓存读取 未命中时执行 loader 并写入缓存
+     *
+     * @param sql    查询语句
+     * @param types  参数
+     * @param loader 查询数据库 出现异常时返回 null
+     * @return 数据 loader 返回 null 时为 null
+     */
+    public SqlDataList<SqlData> get(String sql, ChunkSqlType[] types, Supplier<SqlDataList<SqlData>> loader) {
+        Set<String> tables = getSelectTables(sql);
+        long ttl = this.getTtl(tables);
+        if (ttl <= 0) {
+            return loader.get();
+        }
+        Key key = new Key(sql, types);
+        long now = System.currentTimeMillis();
+        synchronized (this.entries) {
+            CacheEntry entry = this.entries.get(key);
+            if (entry != null) {
+                if (entry.expireAt > now) {
+                    this.hits.increment();
+                    return copy(entry.data);
+                }
+                this.entries.remove(key);
+            }
+        }
+        this.misses.increment();
+        long[] before = this.getVersions(tables);
+        SqlDataList<SqlData> data = loader.get();
+        if (data == null) {
+            return null;
+        }
+        synchronized (this.entries) {
+            //查询期间有写入时不缓存 避免缓存旧数据
+            if (Arrays.equals(before, this.getVersions(tables))) {
+                this.entries.put(key, new CacheEntry(copy(data), tables, now + ttl));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 根据执行的写入语句使缓存失效 无法识别表名时清空全部缓存
+     * UPDATE a JOIN b 等多表语句中 FROM / JOIN 后的表同样失效
+     *
+     * @param sql 写入语句
+     */
+    public void invalidateSql(String sql) {
+        String table = getWriteTable(sql);
+        if (table != null) {
+            this.invalidate(table);
+            for (String other : ReplicaSet.parseReadTables(sql)) {
+                if (!other.equals(table)) {
+                    this.invalidate(other);
+                }
+            }
+        } else if (!sql.trim().regionMatches(true, 0, "SELECT", 0, 6)) {
+            this.invalidateAll();
+        }
+    }
+
+    /**
+     * 使一张表的缓存失效
+     *
+     * @param tableName 表名
+     */
+    public void invalidate(@NotNull String tableName) {
+        String table = tableName.toLowerCase();
+        this.versions.computeIfAbsent(table, k -> new AtomicLong()).incrementAndGet();
+        synchronized (this.entries) {
+            this.entries.values().removeIf(entry -> entry.tables.contains(table));
+        }
+        this.invalidations.increment();
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void invalidateAll() {
+        this.globalVersion.incrementAndGet();
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+        this.invalidations.increment();
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return this.invalidations.sum();
+    }
+
+    /**
+     * @return 命中率 0 ~ 1
+     */
+    public double getHitRate() {
+        long hits = this.getHits();
+        long total = hits + this.getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private long getTtl(Set<String> tables) {
+        if (tables.isEmpty()) {
+            return 0;
+        }
+        long ttl = Long.MAX_VALUE;
+        for (String table : tables) {
+            ttl = Math.min(ttl, this.tableTtl.getOrDefault(table, this.defaultTtl));
+        }
+        return ttl;
+    }
+
+    private long[] getVersions(Set<String> tables) {
+        long[] result = new long[tables.size() + 1];
+        int i = 0;
+        for (String table : tables) {
+            AtomicLong version = this.versions.get(table);
+            result[i++] = version == null ? 0 : version.get();
+        }
+        result[i] = this.globalVersion.get();
+        return result;
+    }
+
+    /**
+     * @param sql 写入语句
+     * @return 写入的表名 (小写) 无法识别时为 null
+     */
+    static String getWriteTable(String sql) {
+        return ReplicaSet.parseWriteTable(sql);
+    }
+
+    /**
+     * 与从库路由使用相同的解析 逗号连接的表与带库名的表都会被识别
+     */
+    private static Set<String> getSelectTables(String sql) {
+        return new LinkedHashSet<>(ReplicaSet.parseReadTables(sql));
+    }
+
+    private static SqlDataList<SqlData> copy(SqlDataList<SqlData> data) {
+        SqlDataList<SqlData> list = new SqlDataList<>(data.getCommand(), data.getTypes());
+        for (SqlData row : data) {
+            list.add(row.copy());
+        }
+        return list;
+    }
+
+    private static final class CacheEntry {
+
+        private final SqlDataList<SqlData> data;
+
+        private final Set<String> tables;
+
+        private final long expireAt;
+
+        CacheEntry(SqlDataList<SqlData> data, Set<String> tables, long expireAt) {
+            this.data = data;
+            this.tables = tables;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static final class Key {
+
+        private final String sql;
+
+        private final Object[] values;
+
+        private final int hash;
+
+        Key(String sql, ChunkSqlType[] types) {
+            this.sql = sql;
+            this.values = new Object[types.length * 2];
+            for (int i = 0; i < types.length; i++) {
+                this.values[i * 2] = types[i].getI();
+                this.values[i * 2 + 1] = types[i].getObject();
+            }
+            this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return this.sql.equals(key.sql) && Arrays.deepEquals(this.values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
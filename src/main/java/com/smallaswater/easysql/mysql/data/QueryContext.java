@@ -0,0 +1,119 @@
+package com.smallaswater.easysql.mysql.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Supplier;
+
+/**
+ * 单次调用的查询超时与取消
+ * 在 {@link #run(Supplier)} 中通过 SqlDataManager 执行的语句使用本对象的超时时间 代替连接池的 query-timeout
+ * 其他线程调用 {@link #cancel()} 时 正在执行的语句会被 Statement.cancel() 中止 (KILL QUERY) 之后的语句不再执行
+ * <pre>
+ * SqlDataList&lt;SqlData&gt; list = QueryContext.withTimeout(3, () -&gt; mySql.getData(sql));
+ * </pre>
+ *
+ * @author SmallasWater
+ */
+public class QueryContext {
+
+    private static final ThreadLocal<QueryContext> CURRENT = new ThreadLocal<>();
+
+    private final int timeout;
+
+    private volatile Statement statement;
+
+    private volatile boolean cancelled;
+
+    /**
+     * @param timeout 每条语句的超时时间 (秒) 0 为使用连接池的设置
+     */
+    public QueryContext(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * 使用指定的超时时间执行
+     *
+     * @param timeout 每条语句的超时时间 (秒)
+     * @param action  数据库操作
+     * @return 操作的返回值
+     */
+    public static <T> T withTimeout(int timeout, @NotNull Supplier<T> action) {
+        return new QueryContext(timeout).run(action);
+    }
+
+    /**
+     * @return 当前线程的上下文 没有时为 null
+     */
+    public static QueryContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 在当前线程中使用本上下文执行
+     *
+     * @param action 数据库操作
+     * @return 操作的返回值
+     */
+    public <T> T run(@NotNull Supplier<T> action) {
+        QueryContext old = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (old == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(old);
+            }
+        }
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 中止正在执行的语句 之后的语句会直接失败
+     * 可以在任意线程调用
+     */
+    public void cancel() {
+        this.cancelled = true;
+        Statement statement = this.statement;
+        if (statement != null) {
+            try {
+                statement.cancel();
+            } catch (SQLException ignored) {
+                //语句已结束
+            }
+        }
+    }
+
+    /**
+     * 执行语句前调用 设置超时时间并记录正在执行的语句
+     * 语句关闭后不需要移除 已关闭的语句 cancel 不会影响连接上的其他语句
+     *
+     * @param statement 即将执行的语句
+     * @throws SQLException 已取消
+     */
+    static void attach(Statement statement) throws SQLException {
+        QueryContext context = CURRENT.get();
+        if (context == null) {
+            return;
+        }
+        if (context.timeout > 0) {
+            statement.setQueryTimeout(context.timeout);
+        }
+        context.statement = statement;
+        if (context.cancelled) {
+            context.statement = null;
+            throw new SQLException("查询已取消", "70100", 1317);
+        }
+    }
+}
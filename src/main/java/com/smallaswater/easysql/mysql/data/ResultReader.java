@@ -0,0 +1,22 @@
+package com.smallaswater.easysql.mysql.data;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 直接读取查询结果集
+ *
+ * @param <R> 结果类型
+ * @author SmallasWater
+ */
+@FunctionalInterface
+public interface ResultReader<R> {
+
+    /**
+     * 读取结果集 不需要关闭
+     *
+     * @param resultSet 结果集
+     * @return 结果
+     */
+    R read(ResultSet resultSet) throws SQLException;
+}
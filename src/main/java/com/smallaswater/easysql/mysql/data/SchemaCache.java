@@ -0,0 +1,254 @@
+package com.smallaswater.easysql.mysql.data;
+
+import cn.nukkit.Server;
+import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 表结构缓存
+ * 第一次使用时通过一条 information_schema 查询读取当前数据库的全部表与字段
+ * 之后 isExistTable / isExistColumn 不再访问数据库
+ * 通过本插件执行的 CREATE / ALTER / DROP / RENAME 语句会使对应的表在下次使用时重新读取
+ * 表名与字段名不区分大小写 同一连接池的所有插件共享
+ *
+ * @author SmallasWater
+ */
+public class SchemaCache {
+
+    private static final Pattern DDL = Pattern.compile(
+            "(?i)^\\s*(?:CREATE|ALTER|DROP|RENAME)\\s+(?:TEMPORARY\\s+|OR\\s+REPLACE\\s+)?(?:TABLE|VIEW|DATABASE|SCHEMA)\\b");
+
+    private static final Pattern DDL_TABLE = Pattern.compile(
+            "(?i)^\\s*(?:CREATE\\s+(?:TEMPORARY\\s+)?TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?|ALTER\\s+TABLE\\s+|DROP\\s+(?:TEMPORARY\\s+)?TABLE\\s+(?:IF\\s+EXISTS\\s+)?)`?(\\w+)`?(?:[\\s(]|$)");
+
+    private static final String SELECT_ALL = "SELECT TABLE_NAME, COLUMN_NAME FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE()";
+
+    private static final String SELECT_TABLE = "SELECT COLUMN_NAME FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND LOWER(TABLE_NAME) = ?";
+
+    private final LoginPool loginPool;
+
+    private volatile Map<String, Set<String>> tables;
+
+    private final Set<String> stale = ConcurrentHashMap.newKeySet();
+
+    public SchemaCache(@NotNull LoginPool loginPool) {
+        this.loginPool = loginPool;
+    }
+
+    /**
+     * 是否存在表
+     *
+     * @param tableName 表名 可以为 数据库.表名
+     * @return 是否存在
+     */
+    public boolean isExistTable(@NotNull String tableName) {
+        String table = normalize(tableName);
+        if (table == null) {
+            return this.queryMetaData(tableName) != null;
+        }
+        return this.getColumnSet(table) != null;
+    }
+
+    /**
+     * 是否存在字段
+     *
+     * @param tableName 表名 可以为 数据库.表名
+     * @param column    字段名
+     * @return 是否存在
+     */
+    public boolean isExistColumn(@NotNull String tableName, @NotNull String column) {
+        String table = normalize(tableName);
+        Set<String> columns = table == null ? this.queryMetaData(tableName) : this.getColumnSet(table);
+        return columns != null && columns.contains(column.replace("`", "").toLowerCase());
+    }
+
+    /**
+     * @return 当前数据库的全部表名 (小写)
+     */
+    public Set<String> getTables() {
+        for (String table : new ArrayList<>(this.stale)) {
+            this.getColumnSet(table);
+        }
+        Map<String, Set<String>> tables = this.load();
+        return tables == null ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(tables.keySet()));
+    }
+
+    /**
+     * @param tableName 表名
+     * @return 表的全部字段名 (小写) 表不存在时为空
+     */
+    public Set<String> getColumns(@NotNull String tableName) {
+        String table = normalize(tableName);
+        Set<String> columns = table == null ? this.queryMetaData(tableName) : this.getColumnSet(table);
+        return columns == null ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(columns));
+    }
+
+    /**
+     * 下次使用时重新读取表结构
+     *
+     * @param tableName 表名
+     */
+    public void invalidate(@NotNull String tableName) {
+        String table = normalize(tableName);
+        if (table == null) {
+            this.invalidateAll();
+        } else {
+            this.stale.add(table);
+        }
+    }
+
+    /**
+     * 下次使用时重新读取全部表结构
+     * 在插件外修改了表结构时使用
+     */
+    public synchronized void invalidateAll() {
+        this.tables = null;
+        this.stale.clear();
+    }
+
+    /**
+     * 执行语句后调用 表结构语句会使对应的表失效
+     * 必须在语句执行完毕后调用 执行前标记时 并发的读取会在执行完成前重新缓存旧的结构
+     *
+     * @param sql 执行的语句
+     */
+    void onStatement(String sql) {
+        if (!isDdl(sql)) {
+            return;
+        }
+        Matcher matcher = DDL_TABLE.matcher(sql);
+        if (matcher.lookingAt()) {
+            this.invalidate(matcher.group(1));
+        } else {
+            this.invalidateAll();
+        }
+    }
+
+    /**
+     * @param sql 语句
+     * @return 是否为表结构语句
+     */
+    static boolean isDdl(String sql) {
+        return isDdlStart(sql) && DDL.matcher(sql).lookingAt();
+    }
+
+    /**
+     * 快速排除 INSERT / UPDATE / DELETE 等语句 不使用正则
+     */
+    private static boolean isDdlStart(String sql) {
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                c = Character.toUpperCase(c);
+                return c == 'C' || c == 'A' || c == 'D' || c == 'R';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 小写的表名 带数据库名时为 null
+     */
+    private static String normalize(String tableName) {
+        String table = tableName.replace("`", "").trim();
+        return table.indexOf('.') >= 0 ? null : table.toLowerCase();
+    }
+
+    /**
+     * @return 表的字段 表不存在时为 null
+     */
+    private Set<String> getColumnSet(String table) {
+        Map<String, Set<String>> tables = this.load();
+        if (tables == null) {
+            return this.queryMetaData(table);
+        }
+        if (this.stale.remove(table)) {
+            Set<String> columns = SqlDataManager.select(this.loginPool, SELECT_TABLE, resultSet -> {
+                Set<String> set = ConcurrentHashMap.newKeySet();
+                while (resultSet.next()) {
+                    set.add(resultSet.getString(1).toLowerCase());
+                }
+                return set;
+            }, new ChunkSqlType(1, table));
+            if (columns == null) {
+                this.stale.add(table);
+                return this.queryMetaData(table);
+            }
+            if (columns.isEmpty()) {
+                tables.remove(table);
+            } else {
+                tables.put(table, columns);
+            }
+        }
+        return tables.get(table);
+    }
+
+    /**
+     * 一条语句读取当前数据库的全部表与字段 失败时返回 null 下次使用时重试
+     */
+    private Map<String, Set<String>> load() {
+        Map<String, Set<String>> tables = this.tables;
+        if (tables == null) {
+            synchronized (this) {
+                tables = this.tables;
+                if (tables == null) {
+                    tables = SqlDataManager.select(this.loginPool, SELECT_ALL, resultSet -> {
+                        ConcurrentHashMap<String, Set<String>> map = new ConcurrentHashMap<>();
+                        while (resultSet.next()) {
+                            map.computeIfAbsent(resultSet.getString(1).toLowerCase(), k -> ConcurrentHashMap.newKeySet())
+                                    .add(resultSet.getString(2).toLowerCase());
+                        }
+                        return map;
+                    });
+                    this.tables = tables;
+                }
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * 不使用缓存 通过 DatabaseMetaData 读取表的字段
+     *
+     * @param tableName 表名 可以为 数据库.表名
+     * @return 表的字段 表不存在时为 null
+     */
+    private Set<String> queryMetaData(String tableName) {
+        String table = tableName.replace("`", "").trim();
+        String catalog = null;
+        int dot = table.indexOf('.');
+        if (dot >= 0) {
+            catalog = table.substring(0, dot);
+            table = table.substring(dot + 1);
+        }
+        try (Connection connection = this.loginPool.getConnection()) {
+            if (catalog == null) {
+                catalog = connection.getCatalog();
+            }
+            try (ResultSet resultSet = connection.getMetaData().getTables(catalog, null, table, null)) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+            }
+            HashSet<String> columns = new HashSet<>();
+            try (ResultSet resultSet = connection.getMetaData().getColumns(catalog, null, table, null)) {
+                while (resultSet.next()) {
+                    columns.add(resultSet.getString("COLUMN_NAME").toLowerCase());
+                }
+            }
+            return columns;
+        } catch (SQLException e) {
+            Server.getInstance().getLogger().error("读取表 " + tableName + " 的结构出现异常", e);
+            return null;
+        }
+    }
+}
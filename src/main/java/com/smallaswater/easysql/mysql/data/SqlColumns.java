@@ -0,0 +1,151 @@
+package com.smallaswater.easysql.mysql.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 查询结果的字段表
+ * 同一结果集的所有行共享一个字段表 行内只保存数据数组 字段名到位置的查找为 O(1)
+ * 字段名重复时与 LinkedHashMap 一致 以最后一个为准
+ * 整数与浮点字段会记录类型 行内以 long 数组保存 读取时不需要装箱
+ *
+ * @author SmallasWater
+ */
+public class SqlColumns {
+
+    /**
+     * 缓存的字段表数量上限
+     */
+    private static final int MAX_CACHED = 1024;
+
+    /**
+     * 字段类型 以对象保存
+     */
+    static final byte OBJECT = 0;
+
+    /**
+     * 字段类型 Integer 以 long 保存
+     */
+    static final byte INT = 1;
+
+    /**
+     * 字段类型 Long 以 long 保存
+     */
+    static final byte LONG = 2;
+
+    /**
+     * 字段类型 Double 以 long 位保存
+     */
+    static final byte DOUBLE = 3;
+
+    private static final ConcurrentHashMap<List<String>, SqlColumns> CACHE = new ConcurrentHashMap<>();
+
+    private final String[] names;
+
+    private final byte[] kinds;
+
+    private final boolean primitive;
+
+    private final List<String> nameList;
+
+    private final HashMap<String, Integer> indexes;
+
+    private SqlColumns(String[] names, byte[] kinds) {
+        this.names = names;
+        this.kinds = kinds;
+        boolean primitive = false;
+        for (byte kind : kinds) {
+            primitive |= kind != OBJECT;
+        }
+        this.primitive = primitive;
+        this.nameList = Collections.unmodifiableList(Arrays.asList(names));
+        this.indexes = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            this.indexes.put(names[i], i);
+        }
+    }
+
+    /**
+     * 获取字段表 相同字段组合的结果集共享同一个对象
+     *
+     * @param names 小写的字段名
+     * @return 字段表
+     */
+    public static SqlColumns of(String... names) {
+        return of(names, new byte[names.length]);
+    }
+
+    /**
+     * 获取带字段类型的字段表
+     *
+     * @param names 小写的字段名
+     * @param kinds 每个字段的类型 {@link #OBJECT} {@link #INT} {@link #LONG} {@link #DOUBLE}
+     * @return 字段表
+     */
+    static SqlColumns of(String[] names, byte[] kinds) {
+        List<String> key = key(names, kinds);
+        SqlColumns columns = CACHE.get(key);
+        if (columns == null) {
+            if (CACHE.size() >= MAX_CACHED) {
+                CACHE.clear();
+            }
+            String[] copy = names.clone();
+            byte[] kindsCopy = kinds.clone();
+            columns = CACHE.computeIfAbsent(key, k -> new SqlColumns(copy, kindsCopy));
+        }
+        return columns;
+    }
+
+    private static List<String> key(String[] names, byte[] kinds) {
+        ArrayList<String> key = new ArrayList<>(names.length + 1);
+        Collections.addAll(key, names);
+        char[] chars = new char[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            chars[i] = (char) kinds[i];
+        }
+        key.add(new String(chars));
+        return key;
+    }
+
+    public int size() {
+        return this.names.length;
+    }
+
+    /**
+     * @param column 字段名 不区分大小写
+     * @return 字段位置 不存在时返回 -1
+     */
+    public int indexOf(String column) {
+        Integer index = this.indexes.get(column);
+        if (index == null) {
+            index = this.indexes.get(column.toLowerCase());
+        }
+        return index == null ? -1 : index;
+    }
+
+    byte getKind(int index) {
+        return this.kinds[index];
+    }
+
+    /**
+     * @return 是否有以 long 保存的字段
+     */
+    boolean isPrimitive() {
+        return this.primitive;
+    }
+
+    public String getName(int index) {
+        return this.names[index];
+    }
+
+    /**
+     * @return 不可修改的字段名列表
+     */
+    public List<String> getNames() {
+        return this.nameList;
+    }
+}
@@ -1,24 +1,126 @@
 package com.smallaswater.easysql.mysql.data;
 
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 /**
+ * 查询结果中的一行 或者写入数据时使用的参数
+ * 查询结果使用共享的 {@link SqlColumns} + 数据数组保存 调用 {@link #getData()} 或添加新字段时才转换为 LinkedHashMap
+ * 整数与浮点字段保存在 long 数组中 getInt / getLong / getDouble 读取时不需要装箱
+ *
  * @author SmallasWater
  */
 public class SqlData {
 
-    private final LinkedHashMap<String, Object> data = new LinkedHashMap<>();
+    private volatile LinkedHashMap<String, Object> data;
+
+    private final SqlColumns columns;
+
+    private final Object[] values;
+
+    /**
+     * 整数与浮点字段的值 浮点以 {@link Double#doubleToRawLongBits(double)} 保存
+     * 对应位置的 values 为 null 时使用此处的值 为 {@link #NULL} 时为 SQL NULL
+     */
+    private final long[] primitives;
+
+    /**
+     * 以 long 保存的字段为 SQL NULL 时的标记
+     */
+    static final Object NULL = new Object();
 
     public SqlData() {
+        this.data = new LinkedHashMap<>();
+        this.columns = null;
+        this.values = null;
+        this.primitives = null;
     }
 
     public SqlData(String column, Object object) {
+        this();
         data.put(column.toLowerCase(), object);
     }
 
+    /**
+     * 查询结果行
+     *
+     * @param columns 结果集共享的字段表
+     * @param values  数据 长度与字段表一致
+     */
+    public SqlData(SqlColumns columns, Object[] values) {
+        this(columns, values, null);
+    }
+
+    SqlData(SqlColumns columns, Object[] values, long[] primitives) {
+        this.columns = columns;
+        this.values = values;
+        this.primitives = primitives;
+    }
+
+    /**
+     * 复制一行 修改副本不会影响原数据
+     * 查询结果行只复制数据数组 字段表仍然共享
+     */
+    SqlData copy() {
+        LinkedHashMap<String, Object> map = this.data;
+        if (map != null) {
+            SqlData copy = new SqlData();
+            copy.data.putAll(map);
+            return copy;
+        }
+        return new SqlData(this.columns, this.values.clone(), this.primitives == null ? null : this.primitives.clone());
+    }
+
+    /**
+     * 读取查询结果行中的值 以 long 保存的字段在此装箱
+     */
+    private Object value(int index) {
+        Object value = this.values[index];
+        if (value != null || this.primitives == null) {
+            return value == NULL ? null : value;
+        }
+        long raw = this.primitives[index];
+        switch (this.columns.getKind(index)) {
+            case SqlColumns.INT:
+                return (int) raw;
+            case SqlColumns.LONG:
+                return raw;
+            case SqlColumns.DOUBLE:
+                return Double.longBitsToDouble(raw);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return 查询结果行中以 long 保存的字段位置 不存在或已被修改时返回 -1
+     */
+    private int primitiveIndex(String column) {
+        if (this.data != null || this.primitives == null) {
+            return -1;
+        }
+        int index = this.columns.indexOf(column);
+        if (index < 0 || this.values[index] != null || this.columns.getKind(index) == SqlColumns.OBJECT) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * 获取数据 Map
+     * 查询结果行会在第一次调用时转换为 Map
+     */
     public LinkedHashMap<String, Object> getData() {
+        if (data == null) {
+            synchronized (this) {
+                if (data == null) {
+                    LinkedHashMap<String, Object> map = new LinkedHashMap<>(columns.size() * 2);
+                    for (int i = 0; i < values.length; i++) {
+                        map.put(columns.getName(i), value(i));
+                    }
+                    data = map;
+                }
+            }
+        }
         return data;
     }
 
@@ -29,10 +131,26 @@ public class SqlData {
      * @param object 数据
      */
     public SqlData put(String column, Object object) {
-        data.put(column.toLowerCase(), object);
+        if (data == null) {
+            int index = columns.indexOf(column);
+            if (index >= 0) {
+                values[index] = object == null && primitives != null ? NULL : object;
+                return this;
+            }
+        }
+        getData().put(column.toLowerCase(), object);
         return this;
     }
 
+    private Object getRaw(String column) {
+        if (data == null) {
+            int index = columns.indexOf(column);
+            return index >= 0 ? value(index) : null;
+        }
+        Object val = data.get(column);
+        return val != null ? val : data.get(column.toLowerCase());
+    }
+
     /**
      * 获取数据
      *
@@ -40,6 +158,10 @@ public class SqlData {
      * @param <T>    数据类型
      */
     public <T> Object get(String column, T defaultValue) {
+        if (data == null) {
+            int index = columns.indexOf(column);
+            return index >= 0 ? value(index) : defaultValue;
+        }
         return data.getOrDefault(column.toLowerCase(), defaultValue);
     }
 
@@ -48,11 +170,34 @@ public class SqlData {
     }
 
     public int getInt(String key, int defaultValue) {
+        int index = this.primitiveIndex(key);
+        if (index >= 0) {
+            return this.columns.getKind(index) == SqlColumns.DOUBLE ?
+                    (int) Double.longBitsToDouble(this.primitives[index]) : (int) this.primitives[index];
+        }
         return ((Number) this.get(key, defaultValue)).intValue();
     }
 
+    public long getLong(String key) {
+        return this.getLong(key, 0L);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        int index = this.primitiveIndex(key);
+        if (index >= 0) {
+            return this.columns.getKind(index) == SqlColumns.DOUBLE ?
+                    (long) Double.longBitsToDouble(this.primitives[index]) : this.primitives[index];
+        }
+        return ((Number) this.get(key, defaultValue)).longValue();
+    }
+
+    public boolean isLong(String key) {
+        Object val = getRaw(key);
+        return val instanceof Long;
+    }
+
     public boolean isInt(String key) {
-        Object val = data.get(key);
+        Object val = getRaw(key);
         return val instanceof Integer;
     }
 
@@ -62,11 +207,16 @@ public class SqlData {
     }
 
     public double getDouble(String key, double defaultValue) {
+        int index = this.primitiveIndex(key);
+        if (index >= 0) {
+            return this.columns.getKind(index) == SqlColumns.DOUBLE ?
+                    Double.longBitsToDouble(this.primitives[index]) : this.primitives[index];
+        }
         return ((Number) this.get(key, defaultValue)).doubleValue();
     }
 
     public boolean isDouble(String key) {
-        Object val = data.get(key);
+        Object val = getRaw(key);
         return val instanceof Double;
     }
 
@@ -80,7 +230,7 @@ public class SqlData {
     }
 
     public boolean isString(String key) {
-        Object val = data.get(key);
+        Object val = getRaw(key);
         return val instanceof String;
     }
 
@@ -93,7 +243,7 @@ public class SqlData {
     }
 
     public boolean isBoolean(String key) {
-        Object val = data.get(key);
+        Object val = getRaw(key);
         return val instanceof Boolean;
     }
 
@@ -101,10 +251,22 @@ public class SqlData {
     /**
      * 获取所有字段名
      *
-     * @return 字段名
+     * @return 字段名的副本 可以修改
      */
     public List<String> getColumns() {
-        return new LinkedList<>(data.keySet());
+        return new LinkedList<>(getColumnsView());
+    }
+
+    /**
+     * 获取所有字段名 不复制
+     *
+     * @return 只读列表 查询结果行返回同一结果集共享的列表
+     */
+    public List<String> getColumnsView() {
+        if (data == null) {
+            return columns.getNames();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(data.keySet()));
     }
 
     public String getColumn() {
@@ -116,11 +278,10 @@ public class SqlData {
     }
 
     public String getColumn(int index) {
-        LinkedList<String> names = new LinkedList<>(data.keySet());
-        if (names.size() > index) {
-            return names.get(index);
+        if (data == null) {
+            return index >= 0 && index < values.length ? columns.getName(index) : null;
         }
-        return null;
+        return get(data.keySet(), index);
     }
 
 
@@ -128,30 +289,63 @@ public class SqlData {
      * 根据索引位置获取返回的数据
      */
     public Object getValue(int index) {
-        LinkedList<Object> names = new LinkedList<>(data.values());
-        if (names.size() > index) {
-            return names.get(index);
+        if (data == null) {
+            return index >= 0 && index < values.length ? value(index) : null;
         }
-        return null;
+        return get(data.values(), index);
     }
 
+    private static <E> E get(Collection<E> collection, int index) {
+        if (index < 0 || index >= collection.size()) {
+            return null;
+        }
+        Iterator<E> iterator = collection.iterator();
+        for (int i = 0; i < index; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
 
+    /**
+     * 获取所有数据
+     *
+     * @return 数据的副本 可以修改
+     */
     public List<Object> getObjects() {
-        return new LinkedList<>(data.values());
+        return new LinkedList<>(getObjectsView());
+    }
+
+    /**
+     * 获取所有数据 不复制
+     *
+     * @return 只读列表
+     */
+    public List<Object> getObjectsView() {
+        if (data == null) {
+            if (primitives == null) {
+                return Collections.unmodifiableList(Arrays.asList(values));
+            }
+            Object[] objects = new Object[values.length];
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = value(i);
+            }
+            return Collections.unmodifiableList(Arrays.asList(objects));
+        }
+        return Collections.unmodifiableList(new ArrayList<>(data.values()));
     }
 
     /**
      * 将获取的所有字段转换为字符串
      */
     public String getColumnToString() {
-        return getDefaultToString(getColumns(), false);
+        return getDefaultToString(getColumnsView(), false);
     }
 
     /**
      * 将获取的所有数值转换为字符串
      */
     public String getObjectToString() {
-        return getDefaultToString(getObjects(), true);
+        return getDefaultToString(getObjectsView(), true);
     }
 
     private String getDefaultToString(List<?> objects, boolean key) {
@@ -172,12 +366,14 @@ public class SqlData {
     public String toString() {
         StringBuilder builder = new StringBuilder("[");
 
-        for (String name : data.keySet()) {
-            Object o = data.get(name);
+        List<String> names = getColumnsView();
+        List<Object> objects = getObjectsView();
+        for (int i = 0; i < names.size(); i++) {
+            Object o = objects.get(i);
             if (o == null) {
                 o = "null";
             }
-            builder.append("column: ").append(name).append(" value: ").append(o);
+            builder.append("column: ").append(names.get(i)).append(" value: ").append(o);
         }
         builder.append("]");
         return builder.toString();
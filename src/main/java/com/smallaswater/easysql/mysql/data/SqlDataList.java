@@ -39,6 +39,17 @@ public class SqlDataList<T extends SqlData> extends LinkedList<T> {
     }
 
 
+    /**
+     * @return 未替换参数的原始语句
+     */
+    public String getCommand() {
+        return sql;
+    }
+
+    public ChunkSqlType[] getTypes() {
+        return types;
+    }
+
     public String getSql() {
         return replace(sql, types);
     }
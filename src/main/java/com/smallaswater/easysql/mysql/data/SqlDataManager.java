@@ -2,19 +2,19 @@ package com.smallaswater.easysql.mysql.data;
 
 
 import cn.nukkit.Server;
+import com.smallaswater.easysql.mysql.metrics.MetricsRegistry;
 import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
 import com.smallaswater.easysql.mysql.utils.LoginPool;
 import com.smallaswater.easysql.mysql.utils.MySqlFunctions;
+import com.smallaswater.easysql.mysql.utils.Query;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 
 /**
@@ -24,16 +24,20 @@ import java.util.concurrent.TimeUnit;
  */
 public class SqlDataManager {
 
-    private static final LinkedBlockingQueue<Runnable> QUEUE = new LinkedBlockingQueue<>(5);
+    /**
+     * 批量写入时单次 executeBatch 的最大行数
+     */
+    public static final int BATCH_SIZE = 1000;
 
-    private static final ThreadPoolExecutor THREAD_POOL = new ThreadPoolExecutor(
-            5,
-            20,
-            60,
-            TimeUnit.SECONDS,
-            QUEUE,
-            new ThreadPoolExecutor.AbortPolicy()
-    );
+    /**
+     * 事务死锁时的最大重试次数
+     */
+    public static final int DEADLOCK_RETRIES = 3;
+
+    /**
+     * MySQL 死锁错误码
+     */
+    private static final int ER_LOCK_DEADLOCK = 1213;
 
     private SqlDataManager() {
         throw new RuntimeException();
@@ -66,10 +70,10 @@ public class SqlDataManager {
                                               String having,
                                               ChunkSqlType... types) {
         Objects.requireNonNull(loginPool);
-        if (column != null && !"".equalsIgnoreCase(column.trim())) {
+        if (column == null || "".equalsIgnoreCase(column.trim())) {
             throw new NullPointerException();
         }
-        if (tableName != null && !"".equalsIgnoreCase(tableName.trim())) {
+        if (tableName == null || "".equalsIgnoreCase(tableName.trim())) {
             throw new NullPointerException();
         }
         String sql = "SELECT " + column + " FROM " + tableName;
@@ -77,7 +81,7 @@ public class SqlDataManager {
             sql = sql + " WHERE " + where;
         }
         if (like != null && !"".equalsIgnoreCase(like.trim())) {
-            sql = sql + "LIKE " + like;
+            sql = sql + " LIKE " + like;
         }
         if (groupBy != null && !"".equalsIgnoreCase(groupBy.trim())) {
             sql = sql + " GROUP BY " + groupBy;
@@ -85,12 +89,12 @@ public class SqlDataManager {
         if (having != null && !"".equalsIgnoreCase(having.trim())) {
             sql = sql + " HAVING " + having;
         }
-        if (start != 0 && length != 0) {
-            sql = sql + " LIMIT " + start + "," + length;
-        }
         if (orderBy != null && !"".equalsIgnoreCase(orderBy.trim())) {
             sql = sql + " ORDER BY " + orderBy;
         }
+        if (length > 0) {
+            sql = sql + " LIMIT " + Math.max(0, start) + "," + length;
+        }
 
         return selectExecute(loginPool, sql, types);
     }
@@ -155,52 +159,233 @@ public class SqlDataManager {
      *
      */
     public static SqlDataList<SqlData> selectExecute(LoginPool loginPool, String commands, ChunkSqlType... types) {
+        QueryCache cache = loginPool.getQueryCache();
+        SqlDataList<SqlData> objects;
+        if (cache != null) {
+            objects = cache.get(commands, types, () -> query(loginPool, commands, types));
+        } else {
+            objects = query(loginPool, commands, types);
+        }
+        return objects != null ? objects : new SqlDataList<>(commands, types);
+    }
+
+    /**
+     * 使用查询构造器查询
+     *
+     * @param query 查询
+     * @return 数据列表
+     */
+    public static SqlDataList<SqlData> select(LoginPool loginPool, Query query) {
+        PreparedSql sql = query.build();
+        return withTimeout(query, () -> selectExecute(loginPool, sql.getSql(), sql.getTypes()));
+    }
+
+    /**
+     * 统计满足查询条件的条数 忽略排序与分页
+     *
+     * @param query 查询
+     * @return 条数
+     */
+    public static int count(LoginPool loginPool, Query query) {
+        PreparedSql sql = query.buildCount();
+        SqlDataList<SqlData> list = withTimeout(query, () -> selectExecute(loginPool, sql.getSql(), sql.getTypes()));
+        return list.isEmpty() ? 0 : list.get().getInt("c");
+    }
+
+    /**
+     * 使用查询构造器查询 由 reader 直接读取结果集
+     *
+     * @param query  查询
+     * @param reader 结果集读取
+     * @return 读取的结果 出现异常时返回 null
+     */
+    public static <R> R select(LoginPool loginPool, Query query, ResultReader<R> reader) {
+        PreparedSql sql = query.build();
+        return withTimeout(query, () -> select(loginPool, sql.getSql(), reader, sql.getTypes()));
+    }
+
+    private static <T> T withTimeout(Query query, Supplier<T> action) {
+        return query.getTimeout() > 0 ? QueryContext.withTimeout(query.getTimeout(), action) : action.get();
+    }
+
+    /**
+     * 执行查询 由 reader 直接读取结果集 不创建 SqlData 也不使用查询缓存
+     *
+     * @param commands 查询语句
+     * @param reader   结果集读取
+     * @param types    防SQL注入参数
+     * @return 读取的结果 出现异常时返回 null
+     */
+    public static <R> R select(LoginPool loginPool, String commands, ResultReader<R> reader, ChunkSqlType... types) {
+        PreparedStatement preparedStatement = null;
+        Connection connection = null;
+        ResultSet resultSet = null;
+        MetricsRegistry metrics = loginPool.getMetrics();
+        long start = System.nanoTime();
+        try {
+            connection = loginPool.getReadConnection(commands);
+            preparedStatement = connection.prepareStatement(commands);
+            QueryContext.attach(preparedStatement);
+            for (ChunkSqlType types1 : types) {
+                types1.bind(preparedStatement);
+            }
+            resultSet = preparedStatement.executeQuery();
+            R result = reader.read(resultSet);
+            metrics.record(commands, start, result instanceof Collection ? ((Collection<?>) result).size() : 0, false);
+            return result;
+        } catch (Exception e) {
+            metrics.record(commands, start, 0, true);
+            Server.getInstance().getLogger().error("执行 " + commands + " 语句出现异常", e);
+        } finally {
+            close(resultSet, preparedStatement, connection);
+        }
+        return null;
+    }
+
+    /**
+     * 查询数据库
+     *
+     * @return 数据 出现异常时返回 null
+     */
+    private static SqlDataList<SqlData> query(LoginPool loginPool, String commands, ChunkSqlType... types) {
         SqlDataList<SqlData> objects = new SqlDataList<>(commands, types);
         PreparedStatement preparedStatement = null;
         Connection connection = null;
+        ResultSet resultSet = null;
+        MetricsRegistry metrics = loginPool.getMetrics();
+        long start = System.nanoTime();
         try {
-            connection = loginPool.dataSource.getConnection();
+            connection = loginPool.getReadConnection(commands);
             preparedStatement = connection.prepareStatement(commands);
-            if (types.length > 0) {
-                for (ChunkSqlType types1 : types) {
-                    preparedStatement.setString(types1.getI(), types1.getValue());
-                }
+            QueryContext.attach(preparedStatement);
+            for (ChunkSqlType types1 : types) {
+                types1.bind(preparedStatement);
             }
-            ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet != null) {
-                ResultSetMetaData data;
-                resultSet = preparedStatement.executeQuery();
-                while (resultSet.next()) {
-                    data = preparedStatement.getMetaData();
-                    int columnCount = data.getColumnCount();
-                    SqlData map = new SqlData();
-                    for (int i = 0; i < columnCount; i++) {
-                        map.put(data.getColumnName(i + 1).toLowerCase(), resultSet.getObject(i + 1));
-                    }
-                    objects.add(map);
-                }
+            resultSet = preparedStatement.executeQuery();
+            SqlColumns columns = getColumnLabels(resultSet.getMetaData());
+            while (resultSet.next()) {
+                objects.add(readRow(resultSet, columns));
             }
+            metrics.record(commands, start, objects.size(), false);
         } catch (Exception e) {
+            metrics.record(commands, start, 0, true);
             Server.getInstance().getLogger().error("执行 " + commands + " 语句出现异常", e);
+            objects = null;
         } finally {
-            if (preparedStatement != null) {
-                try {
-                    preparedStatement.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+            close(resultSet, preparedStatement, connection);
+        }
+        return objects;
+    }
+
+    /**
+     * 流式查询 逐行回调 不在内存中保存结果
+     * 适合遍历大表 回调中请不要长时间阻塞 流式读取期间会一直占用连接
+     *
+     * @param commands 查询语句
+     * @param consumer 每行数据的回调
+     * @param types    防SQL注入参数
+     * @return 读取的行数 出现异常时返回 -1
+     */
+    public static long selectStream(LoginPool loginPool, String commands, Consumer<SqlData> consumer, ChunkSqlType... types) {
+        PreparedStatement preparedStatement = null;
+        Connection connection = null;
+        ResultSet resultSet = null;
+        long count = 0;
+        MetricsRegistry metrics = loginPool.getMetrics();
+        long start = System.nanoTime();
+        try {
+            connection = loginPool.getReadConnection(commands);
+            preparedStatement = connection.prepareStatement(commands, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            QueryContext.attach(preparedStatement);
+            //MySQL 驱动在 fetchSize 为 Integer.MIN_VALUE 时逐行读取结果
+            preparedStatement.setFetchSize(Integer.MIN_VALUE);
+            for (ChunkSqlType types1 : types) {
+                types1.bind(preparedStatement);
             }
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+            resultSet = preparedStatement.executeQuery();
+            SqlColumns columns = getColumnLabels(resultSet.getMetaData());
+            while (resultSet.next()) {
+                consumer.accept(readRow(resultSet, columns));
+                count++;
             }
+            metrics.record(commands, start, count, false);
+            return count;
+        } catch (Exception e) {
+            metrics.record(commands, start, count, true);
+            Server.getInstance().getLogger().error("执行 " + commands + " 语句出现异常", e);
+        } finally {
+            close(resultSet, preparedStatement, connection);
         }
-        return objects;
+        return -1;
     }
 
+    /**
+     * 读取结果集的字段名与类型 每个结果集只读取一次
+     * 驱动返回 Integer / Long / Double 的字段以 long 保存 避免每个值装箱
+     */
+    static SqlColumns getColumnLabels(ResultSetMetaData data) throws SQLException {
+        String[] columns = new String[data.getColumnCount()];
+        byte[] kinds = new byte[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = data.getColumnLabel(i + 1).toLowerCase();
+            String className = data.getColumnClassName(i + 1);
+            if ("java.lang.Integer".equals(className)) {
+                kinds[i] = SqlColumns.INT;
+            } else if ("java.lang.Long".equals(className)) {
+                kinds[i] = SqlColumns.LONG;
+            } else if ("java.lang.Double".equals(className)) {
+                kinds[i] = SqlColumns.DOUBLE;
+            }
+        }
+        return SqlColumns.of(columns, kinds);
+    }
+
+    static SqlData readRow(ResultSet resultSet, SqlColumns columns) throws SQLException {
+        Object[] values = new Object[columns.size()];
+        long[] primitives = columns.isPrimitive() ? new long[values.length] : null;
+        for (int i = 0; i < values.length; i++) {
+            switch (columns.getKind(i)) {
+                case SqlColumns.INT:
+                case SqlColumns.LONG:
+                    primitives[i] = resultSet.getLong(i + 1);
+                    break;
+                case SqlColumns.DOUBLE:
+                    primitives[i] = Double.doubleToRawLongBits(resultSet.getDouble(i + 1));
+                    break;
+                default:
+                    values[i] = resultSet.getObject(i + 1);
+                    continue;
+            }
+            if (resultSet.wasNull()) {
+                values[i] = SqlData.NULL;
+            }
+        }
+        return new SqlData(columns, values, primitives);
+    }
+
+    private static void close(ResultSet resultSet, Statement statement, Connection connection) {
+        if (resultSet != null) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
     /**
      * 判断数据是否存在
@@ -215,46 +400,113 @@ public class SqlDataManager {
         return selectExecute(loginPool, sql, new ChunkSqlType(1, data)).get().getInt("c") > 0;
     }
 
+    /**
+     * 执行已生成的SQL语句
+     *
+     * @param sql SQL 语句及参数
+     * @return 是否执行成功
+     */
+    public static boolean executeSql(LoginPool loginPool, PreparedSql sql) {
+        return executeSql(loginPool, sql.getSql(), sql.getTypes());
+    }
+
     /**
      * 执行SQL语句
      *
      * @param sql   SQL 语句
      * @param value 防SQL注入
      * @return 是否执行成功
-     * 通过线程池调用 Connection
      */
     public static boolean executeSql(LoginPool loginPool, String sql, ChunkSqlType... value) {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
         try {
-            connection = loginPool.dataSource.getConnection();
-            preparedStatement = connection.prepareStatement(sql);
-            for (ChunkSqlType type : value) {
-                preparedStatement.setString(type.getI(), type.getValue());
-            }
-            preparedStatement.execute();
-            preparedStatement.close();
+            update(loginPool, sql, value);
             return true;
-
         } catch (SQLException e) {
             Server.getInstance().getLogger().error("执行 " + sql + " 语句出现异常", e);
-        } finally {
-            if (preparedStatement != null) {
-                try {
-                    preparedStatement.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * 执行单行写入 开启预写日志时 数据库不可用的写入保存到本地 之后按顺序重放
+     * 日志中还有未重放的写入时直接追加到日志 保证执行顺序
+     * 同步的 setData / insertData / upsert / deleteData 与写入调度器中的语句都通过此方法执行
+     *
+     * @param sql 写入语句
+     * @return 是否执行成功 或已保存到预写日志
+     */
+    static boolean executeWrite(LoginPool loginPool, PreparedSql sql) {
+        QueryContext context = QueryContext.current();
+        if (context != null && context.isCancelled()) {
+            return false;
+        }
+        WriteAheadLog log = loginPool.getWriteAheadLog();
+        if (log == null) {
+            return executeSql(loginPool, sql);
+        }
+        if (!log.hasPending()) {
+            try {
+                update(loginPool, sql.getSql(), sql.getTypes());
+                return true;
+            } catch (SQLException e) {
+                if (!WriteAheadLog.isUnavailable(e)) {
+                    Server.getInstance().getLogger().error("执行 " + sql.getSql() + " 语句出现异常", e);
+                    return false;
                 }
+                Server.getInstance().getLogger().warning("[EasyMySQL] 数据库不可用 写入已保存到预写日志: " + e.getMessage());
             }
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+        }
+        try {
+            log.append(sql);
+            return true;
+        } catch (IOException e) {
+            Server.getInstance().getLogger().error("写入预写日志失败 " + sql, e);
+            return false;
+        }
+    }
+
+    /**
+     * 执行语句并记录运行指标 执行成功后使相关的缓存失效
+     *
+     * @return 影响的行数
+     */
+    private static int update(LoginPool loginPool, String sql, ChunkSqlType... value) throws SQLException {
+        MetricsRegistry metrics = loginPool.getMetrics();
+        long start = System.nanoTime();
+        try (Connection connection = loginPool.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            if (SchemaCache.isDdl(sql)) {
+                //大表的 ALTER 可能需要很长时间 不使用连接池的默认超时
+                preparedStatement.setQueryTimeout(0);
+            }
+            QueryContext.attach(preparedStatement);
+            for (ChunkSqlType type : value) {
+                type.bind(preparedStatement);
             }
+            preparedStatement.execute();
+            int count = preparedStatement.getUpdateCount();
+            metrics.record(sql, start, count, false);
+            invalidateCache(loginPool, sql);
+            loginPool.onWrite(sql);
+            return count;
+        } catch (SQLException e) {
+            metrics.record(sql, start, 0, true);
+            //失败的表结构语句也可能已部分执行 (例如 DROP TABLE a, b)
+            loginPool.getSchema().onStatement(sql);
+            throw e;
         }
-        return false;
+    }
+
+    /**
+     * 写入生效后调用 在写入前失效时 期间开始的查询会把旧数据重新放入缓存
+     * 表结构缓存同理 在 CREATE / ALTER 执行前标记时 期间的 isExistTable 会重新读取并缓存旧的结构
+     */
+    static void invalidateCache(LoginPool loginPool, String sql) {
+        QueryCache cache = loginPool.getQueryCache();
+        if (cache != null) {
+            cache.invalidateSql(sql);
+        }
+        loginPool.getSchema().onStatement(sql);
     }
 
     /**
@@ -277,24 +529,6 @@ public class SqlDataManager {
         return selectExecute(loginPool, functions).get();
     }
 
-    private static String getUpDataWhere(SqlData data) {
-        StringBuilder builder = new StringBuilder();
-        for (String column : data.getData().keySet()) {
-            builder.append(column).append(" = ? and");
-        }
-        String str = builder.toString();
-        return str.substring(0, str.length() - 3);
-    }
-
-    private static String getUpDataColumn(SqlData data) {
-        StringBuilder builder = new StringBuilder();
-        for (String column : data.getData().keySet()) {
-            builder.append(column).append(" = ?,");
-        }
-        String str = builder.toString();
-        return str.substring(0, str.length() - 1);
-    }
-
     /**
      * 判断表是否存在
      *
@@ -319,19 +553,29 @@ public class SqlDataManager {
      * @param where 参数判断
      */
     public static boolean setData(LoginPool loginPool, String tableName, SqlData data, SqlData where) {
+        return executeWrite(loginPool, prepareSetData(tableName, data, where));
+    }
+
+    /**
+     * 生成修改数据的语句
+     *
+     * @param data  数据
+     * @param where 参数判断
+     */
+    public static PreparedSql prepareSetData(String tableName, SqlData data, SqlData where) {
         ArrayList<ChunkSqlType> objects = new ArrayList<>();
         int i = 1;
         for (Map.Entry<String, Object> data1 : data.getData().entrySet()) {
-            objects.add(new ChunkSqlType(i, data1.getValue().toString()));
+            objects.add(new ChunkSqlType(i, data1.getValue()));
             i++;
         }
         for (Map.Entry<String, Object> data1 : where.getData().entrySet()) {
-            objects.add(new ChunkSqlType(i, data1.getValue().toString()));
+            objects.add(new ChunkSqlType(i, data1.getValue()));
             i++;
         }
 
-        String sql = "UPDATE " + tableName + " SET " + getUpDataColumn(data) + " WHERE " + getUpDataWhere(where);
-        return executeSql(loginPool, sql, objects.toArray(new ChunkSqlType[]{}));
+        String sql = SqlTemplates.update(tableName, data.getData().keySet(), where.getData().keySet());
+        return new PreparedSql(sql, objects.toArray(new ChunkSqlType[]{}));
     }
 
     /**
@@ -342,21 +586,23 @@ public class SqlDataManager {
      * @return 是否添加成功
      */
     public static boolean insertData(LoginPool loginPool, String tableName, SqlData data) {
-        String column = data.getColumnToString();
-        String values = data.getObjectToString();
-        StringBuilder builder = new StringBuilder("INSERT INTO ").append(tableName).append(" (").append(column).append(") VALUES (");
-        builder.append("?");
-        for (int i=1; i<data.getColumns().size(); i++) {
-            builder.append(",?");
-        }
-        builder.append(")");
+        return executeWrite(loginPool, prepareInsertData(tableName, data));
+    }
+
+    /**
+     * 生成添加数据的语句
+     *
+     * @param data 数据
+     * @param tableName 表单名称
+     */
+    public static PreparedSql prepareInsertData(String tableName, SqlData data) {
         ArrayList<ChunkSqlType> chunkSqlTypes = new ArrayList<>();
         int i = 1;
-        for (Object o : data.getObjects()) {
-            chunkSqlTypes.add(new ChunkSqlType(i, String.valueOf(o)));
+        for (Object o : data.getObjectsView()) {
+            chunkSqlTypes.add(new ChunkSqlType(i, o));
             i++;
         }
-        return executeSql(loginPool, builder.toString(), chunkSqlTypes.toArray(new ChunkSqlType[0]));
+        return new PreparedSql(SqlTemplates.insert(tableName, data.getColumnsView()), chunkSqlTypes.toArray(new ChunkSqlType[0]));
     }
 
     /**
@@ -364,15 +610,453 @@ public class SqlDataManager {
      *
      * @param datas     数据列表
      * @param tableName 表单名称
-     * @return 是否添加成功
+     * @return 是否全部添加成功
      */
     public static boolean insertData(LoginPool loginPool, String tableName, LinkedList<SqlData> datas) {
-        for (SqlData data : datas) {
-            THREAD_POOL.execute(() -> insertData(loginPool, tableName, data));
+        int[] counts = insertBatch(loginPool, tableName, datas);
+        for (int count : counts) {
+            if (count == Statement.EXECUTE_FAILED) {
+                return false;
+            }
         }
         return true;
     }
 
+    /**
+     * 批量添加数据
+     * 按字段组合分组 每组使用一条 INSERT 语句 addBatch 后在同一个连接 同一个事务中提交
+     *
+     * @param tableName 表单名称
+     * @param datas     数据列表
+     * @return 每行的影响条数 与 datas 顺序一致
+     * 开启 rewriteBatchedStatements 时成功的行为 {@link Statement#SUCCESS_NO_INFO} 失败时全部为 {@link Statement#EXECUTE_FAILED}
+     * 开启预写日志时 数据库不可用的数据逐行保存到日志 全部为 {@link Statement#SUCCESS_NO_INFO}
+     */
+    public static int[] insertBatch(LoginPool loginPool, String tableName, Collection<SqlData> datas) {
+        int[] counts = new int[datas.size()];
+        if (datas.isEmpty()) {
+            return counts;
+        }
+        ArrayList<SqlData> rows = new ArrayList<>(datas);
+        if (hasPendingLog(loginPool)) {
+            int[] spilled = spillBatch(loginPool, prepareInsertData(tableName, rows), null);
+            if (spilled != null) {
+                return spilled;
+            }
+            Arrays.fill(counts, Statement.EXECUTE_FAILED);
+            return counts;
+        }
+        LinkedHashMap<List<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            groups.computeIfAbsent(rows.get(i).getColumnsView(), k -> new ArrayList<>()).add(i);
+        }
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        String sql = null;
+        MetricsRegistry metrics = loginPool.getMetrics();
+        long begin = System.nanoTime();
+        try {
+            connection = loginPool.getConnection();
+            connection.setAutoCommit(false);
+            for (Map.Entry<List<String>, List<Integer>> group : groups.entrySet()) {
+                begin = System.nanoTime();
+                sql = SqlTemplates.insert(tableName, group.getKey());
+                preparedStatement = connection.prepareStatement(sql);
+                QueryContext.attach(preparedStatement);
+                List<Integer> indexes = group.getValue();
+                int start = 0;
+                for (int i = 0; i < indexes.size(); i++) {
+                    int index = 1;
+                    for (Object o : rows.get(indexes.get(i)).getObjectsView()) {
+                        ChunkSqlType.bind(preparedStatement, index++, o);
+                    }
+                    preparedStatement.addBatch();
+                    if (i - start + 1 == BATCH_SIZE || i == indexes.size() - 1) {
+                        int[] result = preparedStatement.executeBatch();
+                        for (int j = 0; j < result.length; j++) {
+                            counts[indexes.get(start + j)] = result[j];
+                        }
+                        start = i + 1;
+                    }
+                }
+                preparedStatement.close();
+                preparedStatement = null;
+                metrics.record(sql, begin, indexes.size(), false);
+            }
+            connection.commit();
+            QueryCache cache = loginPool.getQueryCache();
+            if (cache != null) {
+                cache.invalidate(tableName);
+            }
+            loginPool.onWrite(sql);
+            return counts;
+        } catch (SQLException e) {
+            metrics.record(sql == null ? "INSERT INTO " + tableName : sql, begin, 0, true);
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            int[] spilled = spillBatch(loginPool, prepareInsertData(tableName, rows), e);
+            if (spilled != null) {
+                return spilled;
+            }
+            Server.getInstance().getLogger().error("批量执行 " + sql + " 语句出现异常", e);
+        } finally {
+            if (preparedStatement != null) {
+                try {
+                    preparedStatement.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (connection != null) {
+                try {
+                    connection.setAutoCommit(true);
+                    connection.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        Arrays.fill(counts, Statement.EXECUTE_FAILED);
+        return counts;
+    }
+
+    /**
+     * 添加或修改数据 INSERT ... ON DUPLICATE KEY UPDATE
+     * 一条语句完成 不需要先判断数据是否存在
+     *
+     * @param tableName  表单名称
+     * @param data       数据 需要包含主键或唯一键字段
+     * @param keyColumns 主键或唯一键字段 已存在时不修改这些字段
+     * @return 是否执行成功
+     */
+    public static boolean upsert(LoginPool loginPool, String tableName, SqlData data, String... keyColumns) {
+        return executeWrite(loginPool, prepareUpsert(tableName, data, keyColumns));
+    }
+
+    /**
+     * 生成添加或修改数据的语句
+     *
+     * @param tableName  表单名称
+     * @param data       数据
+     * @param keyColumns 主键或唯一键字段
+     */
+    public static PreparedSql prepareUpsert(String tableName, SqlData data, String... keyColumns) {
+        List<String> columns = data.getColumnsView();
+        List<Object> objects = data.getObjectsView();
+        ArrayList<String> keys = new ArrayList<>(keyColumns.length);
+        ArrayList<ChunkSqlType> types = new ArrayList<>(columns.size());
+        boolean[] isKey = new boolean[columns.size()];
+        for (String key : keyColumns) {
+            int index = indexOfIgnoreCase(columns, key);
+            if (index < 0) {
+                throw new IllegalArgumentException("upsert 的数据中缺少字段 " + key);
+            }
+            isKey[index] = true;
+            keys.add(columns.get(index));
+            types.add(new ChunkSqlType(types.size() + 1, objects.get(index)));
+        }
+        ArrayList<String> values = new ArrayList<>(columns.size() - keys.size());
+        for (int i = 0; i < columns.size(); i++) {
+            if (!isKey[i]) {
+                values.add(columns.get(i));
+                types.add(new ChunkSqlType(types.size() + 1, objects.get(i)));
+            }
+        }
+        if (values.isEmpty()) {
+            //只有主键字段时 以主键更新自身 相当于已存在时不做修改
+            return new PreparedSql(SqlTemplates.upsert(tableName, Collections.emptyList(), keys), types.toArray(new ChunkSqlType[0]));
+        }
+        return new PreparedSql(SqlTemplates.upsert(tableName, keys, values), types.toArray(new ChunkSqlType[0]));
+    }
+
+    private static int indexOfIgnoreCase(List<String> columns, String column) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 批量添加或修改数据
+     * 字段组合相同的行使用同一条语句 addBatch 执行 全部在同一个连接 同一个事务中提交
+     *
+     * @param tableName  表单名称
+     * @param datas      数据列表
+     * @param keyColumns 主键或唯一键字段
+     * @return 每行的影响条数 与 datas 顺序一致 MySQL 中 1 为添加 2 为修改 0 为未变化
+     * 失败时全部为 {@link Statement#EXECUTE_FAILED} 开启预写日志时 数据库不可用的数据逐行保存到日志 全部为 {@link Statement#SUCCESS_NO_INFO}
+     */
+    public static int[] upsertAll(LoginPool loginPool, String tableName, Collection<SqlData> datas, String... keyColumns) {
+        if (datas.isEmpty()) {
+            return new int[0];
+        }
+        ArrayList<PreparedSql> rows = new ArrayList<>(datas.size());
+        for (SqlData data : datas) {
+            //缺少主键字段时在开启事务前抛出
+            rows.add(prepareUpsert(tableName, data, keyColumns));
+        }
+        int[] counts;
+        if (hasPendingLog(loginPool)) {
+            counts = spillBatch(loginPool, rows, null);
+        } else {
+            try {
+                counts = runTransaction(loginPool, Transaction.ISOLATION_DEFAULT, transaction -> transaction.upsertAll(tableName, datas, keyColumns));
+            } catch (SQLException e) {
+                counts = spillBatch(loginPool, rows, e);
+                if (counts == null) {
+                    Server.getInstance().getLogger().error("执行事务出现异常", e);
+                }
+            }
+        }
+        if (counts == null) {
+            counts = new int[datas.size()];
+            Arrays.fill(counts, Statement.EXECUTE_FAILED);
+        }
+        return counts;
+    }
+
+    /**
+     * 使用同一条语句批量执行多组参数 在一个事务中提交
+     *
+     * @param sql        SQL 语句
+     * @param parameters 每行的参数
+     * @return 每行的影响条数 失败时全部为 {@link Statement#EXECUTE_FAILED}
+     * 开启预写日志时 数据库不可用的数据逐行保存到日志 全部为 {@link Statement#SUCCESS_NO_INFO}
+     */
+    public static int[] executeBatch(LoginPool loginPool, String sql, List<ChunkSqlType[]> parameters) {
+        int[] counts = new int[parameters.size()];
+        if (parameters.isEmpty()) {
+            return counts;
+        }
+        if (hasPendingLog(loginPool)) {
+            int[] spilled = spillBatch(loginPool, prepareBatch(sql, parameters), null);
+            if (spilled != null) {
+                return spilled;
+            }
+            Arrays.fill(counts, Statement.EXECUTE_FAILED);
+            return counts;
+        }
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        MetricsRegistry metrics = loginPool.getMetrics();
+        long begin = System.nanoTime();
+        try {
+            connection = loginPool.getConnection();
+            connection.setAutoCommit(false);
+            preparedStatement = connection.prepareStatement(sql);
+            QueryContext.attach(preparedStatement);
+            int start = 0;
+            for (int i = 0; i < parameters.size(); i++) {
+                for (ChunkSqlType type : parameters.get(i)) {
+                    type.bind(preparedStatement);
+                }
+                preparedStatement.addBatch();
+                if (i - start + 1 == BATCH_SIZE || i == parameters.size() - 1) {
+                    int[] result = preparedStatement.executeBatch();
+                    System.arraycopy(result, 0, counts, start, result.length);
+                    start = i + 1;
+                }
+            }
+            connection.commit();
+            metrics.record(sql, begin, parameters.size(), false);
+            invalidateCache(loginPool, sql);
+            loginPool.onWrite(sql);
+            return counts;
+        } catch (SQLException e) {
+            metrics.record(sql, begin, 0, true);
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            int[] spilled = spillBatch(loginPool, prepareBatch(sql, parameters), e);
+            if (spilled != null) {
+                return spilled;
+            }
+            Server.getInstance().getLogger().error("批量执行 " + sql + " 语句出现异常", e);
+        } finally {
+            if (preparedStatement != null) {
+                try {
+                    preparedStatement.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (connection != null) {
+                try {
+                    connection.setAutoCommit(true);
+                    connection.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        Arrays.fill(counts, Statement.EXECUTE_FAILED);
+        return counts;
+    }
+
+    private static List<PreparedSql> prepareInsertData(String tableName, List<SqlData> datas) {
+        ArrayList<PreparedSql> rows = new ArrayList<>(datas.size());
+        for (SqlData data : datas) {
+            rows.add(prepareInsertData(tableName, data));
+        }
+        return rows;
+    }
+
+    private static List<PreparedSql> prepareBatch(String sql, List<ChunkSqlType[]> parameters) {
+        ArrayList<PreparedSql> rows = new ArrayList<>(parameters.size());
+        for (ChunkSqlType[] types : parameters) {
+            rows.add(new PreparedSql(sql, types));
+        }
+        return rows;
+    }
+
+    /**
+     * 预写日志中还有未重放的写入 之后的写入需要追加到日志 保证执行顺序
+     */
+    private static boolean hasPendingLog(LoginPool loginPool) {
+        WriteAheadLog log = loginPool.getWriteAheadLog();
+        return log != null && log.hasPending();
+    }
+
+    /**
+     * 批量写入逐行保存到预写日志 重放时每批在一个事务中执行 但不保证与原来的批次相同
+     *
+     * @param rows 每行的语句
+     * @param e    执行时的异常 null 为日志中还有未重放的写入
+     * @return 每行的影响条数 未开启预写日志 数据库仍可用或保存失败时返回 null
+     */
+    private static int[] spillBatch(LoginPool loginPool, List<PreparedSql> rows, SQLException e) {
+        WriteAheadLog log = loginPool.getWriteAheadLog();
+        if (log == null || (e != null && !WriteAheadLog.isUnavailable(e))) {
+            return null;
+        }
+        if (e != null) {
+            Server.getInstance().getLogger().warning("[EasyMySQL] 数据库不可用 " + rows.size() + " 条写入已保存到预写日志: " + e.getMessage());
+        }
+        int appended = 0;
+        try {
+            for (PreparedSql sql : rows) {
+                log.append(sql);
+                appended++;
+            }
+        } catch (IOException e1) {
+            Server.getInstance().getLogger().error("写入预写日志失败 " + (rows.size() - appended) + " 条写入未保存 已保存 " + appended + " 条", e1);
+            return null;
+        }
+        int[] counts = new int[rows.size()];
+        Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+        return counts;
+    }
+
+    /**
+     * 在一个事务中执行回调
+     * 回调中的所有语句使用同一个连接 结束后统一提交 出现异常时回滚
+     * 出现死锁 (1213) 时回滚并重新执行整个回调 最多 {@link #DEADLOCK_RETRIES} 次
+     *
+     * @param isolation 隔离级别 例如 {@link Connection#TRANSACTION_READ_COMMITTED} {@link Transaction#ISOLATION_DEFAULT} 为不修改
+     * @param callback  回调 可能被执行多次 请不要在其中修改外部状态
+     * @return 回调的返回值 回滚或出现异常时返回 null
+     */
+    public static <T> T transaction(LoginPool loginPool, int isolation, Transaction.Callback<T> callback) {
+        try {
+            return runTransaction(loginPool, isolation, callback);
+        } catch (SQLException e) {
+            Server.getInstance().getLogger().error("执行事务出现异常", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return 回调的返回值 回滚时返回 null
+     * @throws SQLException 重试后仍然失败
+     */
+    private static <T> T runTransaction(LoginPool loginPool, int isolation, Transaction.Callback<T> callback) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            Connection connection = null;
+            int oldIsolation = Transaction.ISOLATION_DEFAULT;
+            try {
+                connection = loginPool.getConnection();
+                if (isolation != Transaction.ISOLATION_DEFAULT) {
+                    oldIsolation = connection.getTransactionIsolation();
+                    connection.setTransactionIsolation(isolation);
+                }
+                connection.setAutoCommit(false);
+                Transaction transaction = new Transaction(loginPool, connection);
+                T result = callback.run(transaction);
+                if (transaction.isRollbackOnly()) {
+                    connection.rollback();
+                    return null;
+                }
+                connection.commit();
+                transaction.invalidateCache();
+                return result;
+            } catch (SQLException e) {
+                rollback(connection);
+                if (isDeadlock(e) && attempt < DEADLOCK_RETRIES) {
+                    close(null, null, resetConnection(connection, oldIsolation));
+                    connection = null;
+                    try {
+                        //随机退避 避免冲突的事务同时重试
+                        Thread.sleep(ThreadLocalRandom.current().nextLong(10, 50) * (attempt + 1));
+                    } catch (InterruptedException e1) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                    continue;
+                }
+                throw e;
+            } catch (RuntimeException | Error e) {
+                rollback(connection);
+                throw e;
+            } finally {
+                if (connection != null) {
+                    close(null, null, resetConnection(connection, oldIsolation));
+                }
+            }
+        }
+    }
+
+    private static boolean isDeadlock(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (next.getErrorCode() == ER_LOCK_DEADLOCK || "40001".equals(next.getSQLState())) {
+                return true;
+            }
+        }
+        return e.getCause() instanceof SQLException && isDeadlock((SQLException) e.getCause());
+    }
+
+    private static void rollback(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static Connection resetConnection(Connection connection, int isolation) {
+        try {
+            connection.setAutoCommit(true);
+            if (isolation != Transaction.ISOLATION_DEFAULT) {
+                connection.setTransactionIsolation(isolation);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return connection;
+    }
+
     /**
      * 删除数据
      *
@@ -381,19 +1065,22 @@ public class SqlDataManager {
      * @return 是否删除成功
      */
     public static boolean deleteData(LoginPool loginPool, String tableName, SqlData data) {
-        StringBuilder cmd = new StringBuilder("DELETE FROM " + tableName + " WHERE ");
+        return executeWrite(loginPool, prepareDeleteData(tableName, data));
+    }
+
+    /**
+     * 生成删除数据的语句
+     *
+     * @param tableName 表单名称
+     * @param data      数据
+     */
+    public static PreparedSql prepareDeleteData(String tableName, SqlData data) {
         ArrayList<ChunkSqlType> objects = new ArrayList<>();
-        int i = 0;
-        for (java.lang.String column : data.getData().keySet()) {
-            if (i >= 1) {
-                cmd.append(" and ").append(column).append(" = ?");
-            } else {
-                cmd.append(column).append(" = ?");
-            }
-            objects.add(new ChunkSqlType(i + 1, data.getData().get(column).toString()));
+        int i = 1;
+        for (Object o : data.getData().values()) {
+            objects.add(new ChunkSqlType(i, o));
             i++;
         }
-
-        return executeSql(loginPool, cmd.toString(), objects.toArray(new ChunkSqlType[]{}));
+        return new PreparedSql(SqlTemplates.delete(tableName, data.getData().keySet()), objects.toArray(new ChunkSqlType[]{}));
     }
 }
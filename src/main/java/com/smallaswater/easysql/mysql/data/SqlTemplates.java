@@ -0,0 +1,211 @@
+package com.smallaswater.easysql.mysql.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 生成的 SQL 模板缓存
+ * 按 (操作, 表名, 字段组合) 缓存 INSERT / UPDATE / DELETE 语句 热点写入路径无需重复拼接字符串
+ * 相同的语句文本也能命中驱动与连接池的预编译语句缓存
+ *
+ * @author SmallasWater
+ */
+public class SqlTemplates {
+
+    /**
+     * 缓存的模板数上限 超出时清空 防止动态表名撑满内存
+     */
+    private static final int MAX_TEMPLATES = 4096;
+
+    private static final ConcurrentHashMap<Key, String> TEMPLATES = new ConcurrentHashMap<>();
+
+    private SqlTemplates() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * INSERT INTO table (a,b) VALUES (?,?)
+     */
+    public static String insert(String tableName, Collection<String> columns) {
+        return get(Operation.INSERT, tableName, columns, Collections.emptyList());
+    }
+
+    /**
+     * UPDATE table SET a = ?,b = ? WHERE c = ? and d = ?
+     */
+    public static String update(String tableName, Collection<String> columns, Collection<String> where) {
+        return get(Operation.UPDATE, tableName, columns, where);
+    }
+
+    /**
+     * DELETE FROM table WHERE a = ? and b = ?
+     */
+    public static String delete(String tableName, Collection<String> where) {
+        return get(Operation.DELETE, tableName, Collections.emptyList(), where);
+    }
+
+    /**
+     * INSERT INTO table (k,a,b) VALUES (?,?,?) ON DUPLICATE KEY UPDATE a = VALUES(a),b = VALUES(b)
+     * 参数顺序为 keys 在前 columns 在后
+     */
+    public static String upsert(String tableName, Collection<String> keys, Collection<String> columns) {
+        return get(Operation.UPSERT, tableName, columns, keys);
+    }
+
+    /**
+     * 清空缓存的模板
+     */
+    public static void clear() {
+        TEMPLATES.clear();
+    }
+
+    private static String get(Operation operation, String tableName, Collection<String> columns, Collection<String> where) {
+        Key key = new Key(operation, tableName, columns, where);
+        String sql = TEMPLATES.get(key);
+        if (sql == null) {
+            sql = build(operation, tableName, columns, where);
+            if (TEMPLATES.size() >= MAX_TEMPLATES) {
+                TEMPLATES.clear();
+            }
+            TEMPLATES.put(key.copy(), sql);
+        }
+        return sql;
+    }
+
+    private static String build(Operation operation, String tableName, Collection<String> columns, Collection<String> where) {
+        StringBuilder builder = new StringBuilder();
+        switch (operation) {
+            case INSERT:
+                builder.append("INSERT INTO ").append(tableName).append(" (");
+                join(builder, columns, ",", "");
+                builder.append(") VALUES (");
+                placeholders(builder, columns.size());
+                builder.append(")");
+                break;
+            case UPDATE:
+                builder.append("UPDATE ").append(tableName).append(" SET ");
+                join(builder, columns, ",", " = ?");
+                builder.append(" WHERE ");
+                join(builder, where, " and ", " = ?");
+                break;
+            case DELETE:
+                builder.append("DELETE FROM ").append(tableName).append(" WHERE ");
+                join(builder, where, " and ", " = ?");
+                break;
+            case UPSERT:
+            default:
+                builder.append("INSERT INTO ").append(tableName).append(" (");
+                join(builder, where, ",", "");
+                if (!where.isEmpty() && !columns.isEmpty()) {
+                    builder.append(",");
+                }
+                join(builder, columns, ",", "");
+                builder.append(") VALUES (");
+                placeholders(builder, where.size() + columns.size());
+                builder.append(") ON DUPLICATE KEY UPDATE ");
+                int i = 0;
+                for (String column : columns) {
+                    if (i++ > 0) {
+                        builder.append(",");
+                    }
+                    builder.append(column).append(" = VALUES(").append(column).append(")");
+                }
+                break;
+        }
+        return builder.toString();
+    }
+
+    private static void join(StringBuilder builder, Collection<String> columns, String separator, String suffix) {
+        int i = 0;
+        for (String column : columns) {
+            if (i++ > 0) {
+                builder.append(separator);
+            }
+            builder.append(column).append(suffix);
+        }
+    }
+
+    private static void placeholders(StringBuilder builder, int size) {
+        for (int i = 0; i < size; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+    }
+
+    private enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE,
+        UPSERT
+    }
+
+    /**
+     * 查找时直接使用调用方的字段集合 只在写入缓存时复制
+     */
+    private static final class Key {
+
+        private final Operation operation;
+
+        private final String tableName;
+
+        private final Collection<String> columns;
+
+        private final Collection<String> where;
+
+        private final int hash;
+
+        Key(Operation operation, String tableName, Collection<String> columns, Collection<String> where) {
+            this.operation = operation;
+            this.tableName = tableName;
+            this.columns = columns;
+            this.where = where;
+            int h = operation.hashCode() * 31 + tableName.hashCode();
+            for (String column : columns) {
+                h = h * 31 + column.hashCode();
+            }
+            h = h * 31 + 1;
+            for (String column : where) {
+                h = h * 31 + column.hashCode();
+            }
+            this.hash = h;
+        }
+
+        Key copy() {
+            return new Key(this.operation, this.tableName, new ArrayList<>(this.columns), new ArrayList<>(this.where));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return this.hash == key.hash && this.operation == key.operation && this.tableName.equals(key.tableName) &&
+                    sameOrder(this.columns, key.columns) && sameOrder(this.where, key.where);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        private static boolean sameOrder(Collection<String> a, Collection<String> b) {
+            if (a.size() != b.size()) {
+                return false;
+            }
+            Iterator<String> i1 = a.iterator();
+            Iterator<String> i2 = b.iterator();
+            while (i1.hasNext()) {
+                if (!i1.next().equals(i2.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.smallaswater.easysql.mysql.data;
+
+import cn.nukkit.Server;
+import com.smallaswater.easysql.mysql.metrics.MetricsRegistry;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 整表导出与导入
+ * 导出时使用只进游标逐行读取 导入时每 {@link SqlDataManager#BATCH_SIZE} 行一次批量插入并提交 内存占用与表大小无关
+ * <p>
+ * 文件格式 (可整体使用 gzip 压缩 导入时自动识别):
+ * 文件头 "EZSQLDMP" + 版本 + 字段数 + 每个字段的名称与类型
+ * 每行 标记 1 + 空值位图 + 非空字段的值 整数使用变长编码
+ * 结尾 标记 0 + 行数 用于检查文件是否完整
+ *
+ * @author SmallasWater
+ */
+public class TableDump {
+
+    private static final byte[] MAGIC = "EZSQLDMP".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+    private static final byte BYTES = 4;
+
+    private TableDump() {
+    }
+
+    /**
+     * 导出整张表
+     * 先写入临时文件 完成后替换目标文件 导出失败时不会留下不完整的文件
+     * 始终从主库读取 从库可能有复制延迟 不适合用于备份与迁移
+     *
+     * @param tableName 表单名称
+     * @param file      导出的文件
+     * @param compress  是否使用 gzip 压缩
+     * @return 导出的行数 出现异常时返回 -1
+     */
+    public static long export(LoginPool loginPool, String tableName, Path file, boolean compress) {
+        String sql = "SELECT * FROM " + tableName;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        long count = 0;
+        MetricsRegistry metrics = loginPool.getMetrics();
+        long start = System.nanoTime();
+        try (DataOutputStream out = new DataOutputStream(open(temp, compress))) {
+            connection = loginPool.getConnection();
+            preparedStatement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            //读取整张表需要的时间与表大小有关 不使用连接池的默认超时
+            preparedStatement.setQueryTimeout(0);
+            QueryContext.attach(preparedStatement);
+            preparedStatement.setFetchSize(Integer.MIN_VALUE);
+            resultSet = preparedStatement.executeQuery();
+            ResultSetMetaData meta = resultSet.getMetaData();
+            byte[] types = new byte[meta.getColumnCount()];
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            writeVarLong(out, types.length);
+            for (int i = 0; i < types.length; i++) {
+                types[i] = typeOf(meta, i + 1);
+                writeBytes(out, meta.getColumnName(i + 1).getBytes(StandardCharsets.UTF_8));
+                out.writeByte(types[i]);
+            }
+            byte[] nulls = new byte[(types.length + 7) / 8];
+            Object[] values = new Object[types.length];
+            while (resultSet.next()) {
+                Arrays.fill(nulls, (byte) 0);
+                for (int i = 0; i < types.length; i++) {
+                    values[i] = read(resultSet, i + 1, types[i]);
+                    if (values[i] == null) {
+                        nulls[i >> 3] |= 1 << (i & 7);
+                    }
+                }
+                out.writeByte(1);
+                out.write(nulls);
+                for (int i = 0; i < types.length; i++) {
+                    if (values[i] != null) {
+                        write(out, types[i], values[i]);
+                    }
+                }
+                count++;
+            }
+            out.writeByte(0);
+            out.writeLong(count);
+            metrics.record(sql, start, count, false);
+        } catch (SQLException | IOException e) {
+            metrics.record(sql, start, count, true);
+            Server.getInstance().getLogger().error("导出表 " + tableName + " 到 " + file + " 出现异常", e);
+            deleteQuietly(temp);
+            return -1;
+        } finally {
+            close(resultSet, preparedStatement, connection);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e1) {
+                Server.getInstance().getLogger().error("无法保存导出文件 " + file, e1);
+                deleteQuietly(temp);
+                return -1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 导入 {@link #export(LoginPool, String, Path, boolean)} 导出的文件
+     * 使用文件中的字段名插入 目标表需要包含这些字段
+     * 每批提交一次 出现异常时只回滚当前批次 之前的批次已写入
+     *
+     * @param file      导出的文件
+     * @param tableName 表单名称
+     * @return 导入的行数 出现异常时返回 -1
+     */
+    public static long load(LoginPool loginPool, Path file, String tableName) {
+        String sql = null;
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        long count = 0;
+        MetricsRegistry metrics = loginPool.getMetrics();
+        long start = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(openRead(file))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("不是 EasyMySQL 导出的文件");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("不支持的文件版本 " + version);
+            }
+            byte[] types = new byte[(int) readVarLong(in)];
+            StringBuilder builder = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+            for (int i = 0; i < types.length; i++) {
+                if (i > 0) {
+                    builder.append(",");
+                }
+                builder.append('`').append(new String(readBytes(in), StandardCharsets.UTF_8).replace("`", "``")).append('`');
+                types[i] = in.readByte();
+            }
+            builder.append(") VALUES (");
+            for (int i = 0; i < types.length; i++) {
+                builder.append(i > 0 ? ",?" : "?");
+            }
+            sql = builder.append(")").toString();
+
+            connection = loginPool.getConnection();
+            connection.setAutoCommit(false);
+            preparedStatement = connection.prepareStatement(sql);
+            QueryContext.attach(preparedStatement);
+            byte[] nulls = new byte[(types.length + 7) / 8];
+            int batch = 0;
+            while (in.readByte() == 1) {
+                in.readFully(nulls);
+                for (int i = 0; i < types.length; i++) {
+                    if ((nulls[i >> 3] & (1 << (i & 7))) != 0) {
+                        preparedStatement.setNull(i + 1, Types.NULL);
+                    } else {
+                        bind(preparedStatement, i + 1, types[i], in);
+                    }
+                }
+                preparedStatement.addBatch();
+                if (++batch == SqlDataManager.BATCH_SIZE) {
+                    preparedStatement.executeBatch();
+                    connection.commit();
+                    //提交后再清除缓存 避免其他线程在提交前重新缓存旧数据
+                    SqlDataManager.invalidateCache(loginPool, sql);
+                    count += batch;
+                    batch = 0;
+                }
+            }
+            if (batch > 0) {
+                preparedStatement.executeBatch();
+                connection.commit();
+                SqlDataManager.invalidateCache(loginPool, sql);
+                count += batch;
+            }
+            long expected = in.readLong();
+            if (expected != count) {
+                throw new IOException("文件不完整 应有 " + expected + " 行 读取到 " + count + " 行");
+            }
+            metrics.record(sql, start, count, false);
+            loginPool.onWrite(sql);
+            return count;
+        } catch (SQLException | IOException e) {
+            metrics.record(sql == null ? "INSERT INTO " + tableName : sql, start, count, true);
+            Server.getInstance().getLogger().error("从 " + file + " 导入表 " + tableName + " 出现异常 已导入 " + count + " 行", e);
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            if (count > 0) {
+                loginPool.onWrite(sql);
+            }
+        } finally {
+            if (preparedStatement != null) {
+                try {
+                    preparedStatement.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (connection != null) {
+                try {
+                    connection.setAutoCommit(true);
+                    connection.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 整数保存为 long 浮点数保存为 double 二进制字段保存原始字节
+     * DECIMAL 无符号 BIGINT 日期时间等其他类型保存为 MySQL 的文本形式 导入时由数据库转换 不损失精度
+     */
+    private static byte typeOf(ResultSetMetaData meta, int column) throws SQLException {
+        switch (meta.getColumnType(column)) {
+            case Types.BIGINT:
+                return meta.isSigned(column) ? LONG : STRING;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return LONG;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return DOUBLE;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return BYTES;
+            default:
+                return STRING;
+        }
+    }
+
+    private static Object read(ResultSet resultSet, int column, byte type) throws SQLException {
+        Object value;
+        switch (type) {
+            case LONG:
+                value = resultSet.getLong(column);
+                break;
+            case DOUBLE:
+                value = resultSet.getDouble(column);
+                break;
+            case BYTES:
+                return resultSet.getBytes(column);
+            default:
+                return resultSet.getString(column);
+        }
+        return resultSet.wasNull() ? null : value;
+    }
+
+    private static void write(DataOutputStream out, byte type, Object value) throws IOException {
+        switch (type) {
+            case LONG:
+                long v = (Long) value;
+                writeVarLong(out, (v << 1) ^ (v >> 63));
+                break;
+            case DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case BYTES:
+                writeBytes(out, (byte[]) value);
+                break;
+            default:
+                writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+                break;
+        }
+    }
+
+    private static void bind(PreparedStatement preparedStatement, int index, byte type, DataInputStream in) throws IOException, SQLException {
+        switch (type) {
+            case LONG:
+                long v = readVarLong(in);
+                preparedStatement.setLong(index, (v >>> 1) ^ -(v & 1));
+                break;
+            case DOUBLE:
+                preparedStatement.setDouble(index, in.readDouble());
+                break;
+            case BYTES:
+                preparedStatement.setBytes(index, readBytes(in));
+                break;
+            case STRING:
+                preparedStatement.setString(index, new String(readBytes(in), StandardCharsets.UTF_8));
+                break;
+            default:
+                throw new IOException("未知的字段类型 " + type);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("字段长度错误 " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+
+    private static OutputStream open(Path file, boolean compress) throws IOException {
+        OutputStream out = Files.newOutputStream(file);
+        if (compress) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    /**
+     * 根据文件开头的 gzip 标识自动解压
+     */
+    private static InputStream openRead(Path file) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        if (b1 == 0x1f && b2 == 0x8b) {
+            return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            //临时文件 删除失败不影响结果
+        }
+    }
+
+    private static void close(ResultSet resultSet, Statement statement, Connection connection) {
+        if (resultSet != null) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
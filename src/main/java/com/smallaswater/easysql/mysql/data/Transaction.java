@@ -0,0 +1,367 @@
+package com.smallaswater.easysql.mysql.data;
+
+import com.smallaswater.easysql.mysql.metrics.MetricsRegistry;
+import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * 事务
+ * 所有语句在同一个连接上执行 autoCommit 为 false 回调结束后统一提交
+ * 语句出现异常时抛出 SQLException 整个事务回滚 死锁时会自动重试整个回调
+ * 通过 {@link com.smallaswater.easysql.mysql.BaseMySql#transaction(Work)} 使用
+ *
+ * @author SmallasWater
+ */
+public class Transaction {
+
+    /**
+     * 使用连接默认的隔离级别
+     */
+    public static final int ISOLATION_DEFAULT = -1;
+
+    private final LoginPool loginPool;
+
+    private final Connection connection;
+
+    private final LinkedHashSet<String> writes = new LinkedHashSet<>();
+
+    private boolean rollbackOnly;
+
+    Transaction(LoginPool loginPool, Connection connection) {
+        this.loginPool = loginPool;
+        this.connection = connection;
+    }
+
+    /**
+     * @return 事务使用的连接 请不要关闭或提交
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * 标记事务只能回滚 回调结束后回滚而不是提交
+     */
+    public void setRollbackOnly() {
+        this.rollbackOnly = true;
+    }
+
+    public boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+
+    /**
+     * 执行查询 在事务中读取 可以看到本事务未提交的修改
+     *
+     * @param sql   查询语句
+     * @param types 防SQL注入参数
+     * @return 数据列表
+     */
+    public SqlDataList<SqlData> selectExecute(String sql, ChunkSqlType... types) throws SQLException {
+        SqlDataList<SqlData> objects = new SqlDataList<>(sql, types);
+        MetricsRegistry metrics = this.loginPool.getMetrics();
+        long start = System.nanoTime();
+        try (PreparedStatement preparedStatement = this.connection.prepareStatement(sql)) {
+            QueryContext.attach(preparedStatement);
+            for (ChunkSqlType type : types) {
+                type.bind(preparedStatement);
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                SqlColumns columns = SqlDataManager.getColumnLabels(resultSet.getMetaData());
+                while (resultSet.next()) {
+                    objects.add(SqlDataManager.readRow(resultSet, columns));
+                }
+            }
+            metrics.record(sql, start, objects.size(), false);
+            return objects;
+        } catch (SQLException e) {
+            metrics.record(sql, start, 0, true);
+            throw e;
+        }
+    }
+
+    /**
+     * 执行语句
+     *
+     * @param sql   SQL 语句
+     * @param types 防SQL注入参数
+     * @return 影响的行数
+     */
+    public int executeSql(String sql, ChunkSqlType... types) throws SQLException {
+        this.writes.add(sql);
+        MetricsRegistry metrics = this.loginPool.getMetrics();
+        long start = System.nanoTime();
+        try (PreparedStatement preparedStatement = this.connection.prepareStatement(sql)) {
+            if (SchemaCache.isDdl(sql)) {
+                preparedStatement.setQueryTimeout(0);
+            }
+            QueryContext.attach(preparedStatement);
+            for (ChunkSqlType type : types) {
+                type.bind(preparedStatement);
+            }
+            int count = preparedStatement.executeUpdate();
+            metrics.record(sql, start, count, false);
+            return count;
+        } catch (SQLException e) {
+            metrics.record(sql, start, 0, true);
+            throw e;
+        } finally {
+            //表结构语句会隐式提交 回滚后也已生效 执行后立即使表结构缓存失效
+            this.loginPool.getSchema().onStatement(sql);
+        }
+    }
+
+    /**
+     * 执行已生成的语句
+     *
+     * @param sql SQL 语句及参数
+     * @return 影响的行数
+     */
+    public int executeSql(@NotNull PreparedSql sql) throws SQLException {
+        return this.executeSql(sql.getSql(), sql.getTypes());
+    }
+
+    /**
+     * 使用同一条语句批量执行多组参数
+     *
+     * @param sql        SQL 语句
+     * @param parameters 每行的参数
+     * @return 每行的影响条数
+     */
+    public int[] executeBatch(String sql, List<ChunkSqlType[]> parameters) throws SQLException {
+        int[] counts = new int[parameters.size()];
+        if (parameters.isEmpty()) {
+            return counts;
+        }
+        this.writes.add(sql);
+        MetricsRegistry metrics = this.loginPool.getMetrics();
+        long begin = System.nanoTime();
+        try (PreparedStatement preparedStatement = this.connection.prepareStatement(sql)) {
+            QueryContext.attach(preparedStatement);
+            int start = 0;
+            for (int i = 0; i < parameters.size(); i++) {
+                for (ChunkSqlType type : parameters.get(i)) {
+                    type.bind(preparedStatement);
+                }
+                preparedStatement.addBatch();
+                if (i - start + 1 == SqlDataManager.BATCH_SIZE || i == parameters.size() - 1) {
+                    int[] result = preparedStatement.executeBatch();
+                    System.arraycopy(result, 0, counts, start, result.length);
+                    start = i + 1;
+                }
+            }
+            metrics.record(sql, begin, parameters.size(), false);
+            return counts;
+        } catch (SQLException e) {
+            metrics.record(sql, begin, 0, true);
+            throw e;
+        }
+    }
+
+    /**
+     * 修改数据
+     *
+     * @param tableName 表单名称
+     * @param data      数据
+     * @param where     参数判断
+     * @return 影响的行数
+     */
+    public int setData(String tableName, SqlData data, SqlData where) throws SQLException {
+        return this.executeSql(SqlDataManager.prepareSetData(tableName, data, where));
+    }
+
+    /**
+     * 添加数据
+     *
+     * @param tableName 表单名称
+     * @param data      数据
+     * @return 影响的行数
+     */
+    public int insertData(String tableName, SqlData data) throws SQLException {
+        return this.executeSql(SqlDataManager.prepareInsertData(tableName, data));
+    }
+
+    /**
+     * 批量添加数据 字段组合相同的行使用同一条语句批量执行
+     *
+     * @param tableName 表单名称
+     * @param datas     数据列表
+     */
+    public void insertBatch(String tableName, Collection<SqlData> datas) throws SQLException {
+        LinkedHashMap<String, List<ChunkSqlType[]>> groups = new LinkedHashMap<>();
+        for (SqlData data : datas) {
+            PreparedSql sql = SqlDataManager.prepareInsertData(tableName, data);
+            groups.computeIfAbsent(sql.getSql(), k -> new ArrayList<>()).add(sql.getTypes());
+        }
+        for (Map.Entry<String, List<ChunkSqlType[]>> group : groups.entrySet()) {
+            this.executeBatch(group.getKey(), group.getValue());
+        }
+    }
+
+    /**
+     * 批量添加数据并返回自增主键 字段组合相同的行使用同一条语句批量执行
+     *
+     * @param tableName 表单名称
+     * @param datas     数据列表
+     * @return 每行生成的主键 与 datas 顺序一致 没有生成主键时为 0
+     */
+    public long[] insertReturnKeys(String tableName, List<SqlData> datas) throws SQLException {
+        long[] keys = new long[datas.size()];
+        LinkedHashMap<String, List<Integer>> indexes = new LinkedHashMap<>();
+        LinkedHashMap<String, List<ChunkSqlType[]>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < datas.size(); i++) {
+            PreparedSql sql = SqlDataManager.prepareInsertData(tableName, datas.get(i));
+            indexes.computeIfAbsent(sql.getSql(), k -> new ArrayList<>()).add(i);
+            groups.computeIfAbsent(sql.getSql(), k -> new ArrayList<>()).add(sql.getTypes());
+        }
+        MetricsRegistry metrics = this.loginPool.getMetrics();
+        for (Map.Entry<String, List<ChunkSqlType[]>> group : groups.entrySet()) {
+            String sql = group.getKey();
+            List<ChunkSqlType[]> parameters = group.getValue();
+            List<Integer> rows = indexes.get(sql);
+            this.writes.add(sql);
+            long begin = System.nanoTime();
+            try (PreparedStatement preparedStatement = this.connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                QueryContext.attach(preparedStatement);
+                int start = 0;
+                for (int i = 0; i < parameters.size(); i++) {
+                    for (ChunkSqlType type : parameters.get(i)) {
+                        type.bind(preparedStatement);
+                    }
+                    preparedStatement.addBatch();
+                    if (i - start + 1 == SqlDataManager.BATCH_SIZE || i == parameters.size() - 1) {
+                        preparedStatement.executeBatch();
+                        try (ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+                            for (int j = start; j <= i && resultSet.next(); j++) {
+                                keys[rows.get(j)] = resultSet.getLong(1);
+                            }
+                        }
+                        start = i + 1;
+                    }
+                }
+                metrics.record(sql, begin, parameters.size(), false);
+            } catch (SQLException e) {
+                metrics.record(sql, begin, 0, true);
+                throw e;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 批量添加或修改数据 字段组合相同的行使用同一条语句批量执行
+     *
+     * @param tableName  表单名称
+     * @param datas      数据列表
+     * @param keyColumns 主键或唯一键字段
+     * @return 每行的影响条数 与 datas 顺序一致
+     */
+    public int[] upsertAll(String tableName, Collection<SqlData> datas, String... keyColumns) throws SQLException {
+        int[] counts = new int[datas.size()];
+        LinkedHashMap<String, List<Integer>> indexes = new LinkedHashMap<>();
+        LinkedHashMap<String, List<ChunkSqlType[]>> groups = new LinkedHashMap<>();
+        int i = 0;
+        for (SqlData data : datas) {
+            PreparedSql sql = SqlDataManager.prepareUpsert(tableName, data, keyColumns);
+            indexes.computeIfAbsent(sql.getSql(), k -> new ArrayList<>()).add(i++);
+            groups.computeIfAbsent(sql.getSql(), k -> new ArrayList<>()).add(sql.getTypes());
+        }
+        for (Map.Entry<String, List<ChunkSqlType[]>> group : groups.entrySet()) {
+            int[] result = this.executeBatch(group.getKey(), group.getValue());
+            List<Integer> rows = indexes.get(group.getKey());
+            for (int j = 0; j < result.length; j++) {
+                counts[rows.get(j)] = result[j];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param tableName 表单名称
+     * @param data      参数判断
+     * @return 影响的行数
+     */
+    public int deleteData(String tableName, SqlData data) throws SQLException {
+        return this.executeSql(SqlDataManager.prepareDeleteData(tableName, data));
+    }
+
+    /**
+     * 创建保存点
+     *
+     * @param name 保存点名称
+     * @return 保存点
+     */
+    public Savepoint savepoint(String name) throws SQLException {
+        return this.connection.setSavepoint(name);
+    }
+
+    /**
+     * 回滚到保存点 保存点之前的修改保留
+     *
+     * @param savepoint 保存点
+     */
+    public void rollback(Savepoint savepoint) throws SQLException {
+        this.connection.rollback(savepoint);
+    }
+
+    /**
+     * 释放保存点
+     *
+     * @param savepoint 保存点
+     */
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        this.connection.releaseSavepoint(savepoint);
+    }
+
+    /**
+     * 提交后使修改过的表的查询缓存失效 并记录写入的表供从库路由使用
+     */
+    void invalidateCache() {
+        QueryCache cache = this.loginPool.getQueryCache();
+        if (cache != null) {
+            for (String sql : this.writes) {
+                cache.invalidateSql(sql);
+            }
+        }
+        for (String sql : this.writes) {
+            this.loginPool.onWrite(sql);
+        }
+    }
+
+    /**
+     * 不返回结果的事务回调
+     */
+    @FunctionalInterface
+    public interface Work {
+
+        /**
+         * 在事务中执行 抛出异常时回滚
+         *
+         * @param transaction 事务
+         */
+        void run(Transaction transaction) throws SQLException;
+    }
+
+    /**
+     * 返回结果的事务回调
+     *
+     * @param <T> 返回值类型
+     */
+    @FunctionalInterface
+    public interface Callback<T> {
+
+        /**
+         * 在事务中执行 抛出异常时回滚
+         *
+         * @param transaction 事务
+         * @return 结果
+         */
+        T run(Transaction transaction) throws SQLException;
+    }
+}
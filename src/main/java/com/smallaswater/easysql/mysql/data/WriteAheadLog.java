@@ -0,0 +1,630 @@
+package com.smallaswater.easysql.mysql.data;
+
+import cn.nukkit.Server;
+import com.smallaswater.easysql.mysql.metrics.MetricsRegistry;
+import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+import com.smallaswater.easysql.mysql.utils.NamedThreadFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 本地预写日志
+ * 数据库无法连接时 写入语句追加到本地的内存映射文件中 数据库恢复后按写入顺序批量重放
+ * 日志中还有未重放的语句时 之后的写入也会先写入日志 保证执行顺序不变
+ * <p>
+ * 日志由多个分段文件 (.wal) 组成 每条记录为 长度 + CRC32 + 语句与参数 校验失败的记录视为未写完
+ * checkpoint 文件记录已重放的位置 重放完毕的分段会被删除
+ * 映射的文件每秒写回磁盘一次 进程崩溃不会丢失数据 系统崩溃最多丢失最后一秒的写入
+ * 重放在提交后才记录位置 重放过程中崩溃时最后一批语句可能被重复执行
+ *
+ * @author SmallasWater
+ */
+public class WriteAheadLog {
+
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * 记录头 长度 + CRC32
+     */
+    private static final int RECORD_HEADER = 8;
+
+    private static final String SUFFIX = ".wal";
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    private final LoginPool loginPool;
+
+    private final File directory;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private Segment writeSegment;
+
+    private Segment readSegment;
+
+    private int readOffset;
+
+    private volatile long pendingRecords;
+
+    private volatile long pendingBytes;
+
+    private boolean dirty;
+
+    private boolean closed;
+
+    private long retryAt;
+
+    private long retryDelay = 1000;
+
+    private final ScheduledExecutorService replayer;
+
+    private final Object replayLock = new Object();
+
+    /**
+     * 打开日志目录 目录中未重放的语句会在数据库可用后继续重放
+     *
+     * @param loginPool 连接池
+     * @param directory 日志目录
+     */
+    public WriteAheadLog(@NotNull LoginPool loginPool, @NotNull File directory) throws IOException {
+        this.loginPool = loginPool;
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建目录 " + directory);
+        }
+        this.recover();
+        this.replayer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("EasyMySQL-WAL-" + directory.getName()));
+        this.replayer.scheduleWithFixedDelay(this::replay, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return 是否有等待重放的语句
+     */
+    public boolean hasPending() {
+        return this.pendingRecords > 0;
+    }
+
+    /**
+     * @return 等待重放的语句数量
+     */
+    public long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    /**
+     * @return 等待重放的字节数
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 追加一条写入语句
+     *
+     * @param sql 语句
+     * @throws IOException 日志已关闭或写入失败
+     */
+    public void append(@NotNull PreparedSql sql) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + sql.getSql().length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] text = sql.getSql().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(text.length);
+        out.write(text);
+        out.writeInt(sql.getTypes().length);
+        for (ChunkSqlType type : sql.getTypes()) {
+            type.write(out);
+        }
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        synchronized (this) {
+            if (this.closed) {
+                throw new IOException("预写日志 " + this.directory + " 已关闭");
+            }
+            int size = RECORD_HEADER + payload.length;
+            if (this.writeSegment == null || this.writeSegment.buffer.remaining() < size) {
+                this.roll(size);
+            }
+            MappedByteBuffer buffer = this.writeSegment.buffer;
+            int position = buffer.position();
+            buffer.position(position + 4);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(payload);
+            //长度最后写入 读取时长度为 0 表示日志结束
+            buffer.putInt(position, payload.length);
+            this.dirty = true;
+            this.pendingRecords++;
+            this.pendingBytes += size;
+        }
+    }
+
+    /**
+     * 立即重放日志 数据库不可用时保留到下次重放
+     *
+     * @return 是否全部重放完毕
+     */
+    public boolean flush() {
+        synchronized (this) {
+            this.retryAt = 0;
+        }
+        this.replay();
+        return !this.hasPending();
+    }
+
+    /**
+     * 停止重放并关闭日志 未重放的语句保留在磁盘上 下次打开同一目录时继续重放
+     */
+    public void close() {
+        this.replayer.shutdownNow();
+        try {
+            this.replayer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            for (Segment segment : this.segments.values()) {
+                segment.buffer.force();
+                unmap(segment.buffer);
+            }
+            this.segments.clear();
+            this.writeSegment = null;
+            this.readSegment = null;
+        }
+    }
+
+    /**
+     * 数据库无法连接或暂时拒绝写入 (只读 / 连接数已满)
+     *
+     * @param e 异常
+     * @return 是否应写入日志稍后重试
+     */
+    public static boolean isUnavailable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException || cause instanceof SQLNonTransientConnectionException
+                    || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                String state = sqlException.getSQLState();
+                if (state != null && state.startsWith("08")) {
+                    return true;
+                }
+                switch (sqlException.getErrorCode()) {
+                    //连接数已满 / 服务器关闭中 / 只读 / 连接中断
+                    case 1040:
+                    case 1053:
+                    case 1290:
+                    case 1836:
+                    case 2002:
+                    case 2003:
+                    case 2006:
+                    case 2013:
+                        return true;
+                    default:
+                        break;
+                }
+                //Druid 获取连接超时
+                if (cause.getClass().getSimpleName().equals("GetConnectionTimeoutException")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按顺序重放日志 每批最多 {@link SqlDataManager#BATCH_SIZE} 条 在一个事务中执行
+     * 数据库不可用时停止 并按指数退避等待下次重试
+     */
+    private void replay() {
+        synchronized (this.replayLock) {
+            try {
+                synchronized (this) {
+                    if (this.dirty && this.writeSegment != null) {
+                        this.writeSegment.buffer.force();
+                        this.dirty = false;
+                    }
+                    if (this.closed || this.pendingRecords <= 0 || System.currentTimeMillis() < this.retryAt) {
+                        return;
+                    }
+                }
+                long replayed = 0;
+                while (this.hasPending()) {
+                    List<Entry> batch = this.peek(SqlDataManager.BATCH_SIZE);
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    int done = this.execute(batch);
+                    if (done > 0) {
+                        this.commit(batch, done);
+                        replayed += done;
+                    }
+                    if (done < batch.size()) {
+                        synchronized (this) {
+                            this.retryAt = System.currentTimeMillis() + this.retryDelay;
+                            this.retryDelay = Math.min(this.retryDelay * 2, MAX_RETRY_DELAY);
+                        }
+                        return;
+                    }
+                }
+                synchronized (this) {
+                    this.retryDelay = 1000;
+                }
+                if (replayed > 0) {
+                    Server.getInstance().getLogger().info("[EasyMySQL] 已重放预写日志中的 " + replayed + " 条写入");
+                }
+            } catch (Exception e) {
+                Server.getInstance().getLogger().error("重放预写日志出现异常", e);
+            }
+        }
+    }
+
+    /**
+     * @return 成功执行或跳过的条数 数据库不可用时小于 batch 的大小
+     */
+    private int execute(List<Entry> batch) {
+        MetricsRegistry metrics = this.loginPool.getMetrics();
+        try (Connection connection = this.loginPool.getConnection()) {
+            try {
+                connection.setAutoCommit(false);
+                int start = 0;
+                while (start < batch.size()) {
+                    String sql = batch.get(start).sql.getSql();
+                    int end = start;
+                    long begin = System.nanoTime();
+                    try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                        //连续相同的语句合并为一次批量执行
+                        while (end < batch.size() && batch.get(end).sql.getSql().equals(sql)) {
+                            for (ChunkSqlType type : batch.get(end).sql.getTypes()) {
+                                type.bind(preparedStatement);
+                            }
+                            preparedStatement.addBatch();
+                            end++;
+                        }
+                        preparedStatement.executeBatch();
+                    }
+                    metrics.record(sql, begin, end - start, false);
+                    start = end;
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException e1) {
+                    e1.printStackTrace();
+                }
+                if (isUnavailable(e)) {
+                    return 0;
+                }
+                //批量中有无法执行的语句 逐条执行并跳过失败的语句
+                connection.setAutoCommit(true);
+                return this.executeEach(connection, batch);
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+        } catch (SQLException e) {
+            return 0;
+        }
+        for (Entry entry : batch) {
+            this.onReplayed(entry.sql.getSql());
+        }
+        return batch.size();
+    }
+
+    private int executeEach(Connection connection, List<Entry> batch) {
+        MetricsRegistry metrics = this.loginPool.getMetrics();
+        for (int i = 0; i < batch.size(); i++) {
+            PreparedSql sql = batch.get(i).sql;
+            long begin = System.nanoTime();
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql.getSql())) {
+                for (ChunkSqlType type : sql.getTypes()) {
+                    type.bind(preparedStatement);
+                }
+                preparedStatement.execute();
+                metrics.record(sql.getSql(), begin, preparedStatement.getUpdateCount(), false);
+            } catch (SQLException e) {
+                metrics.record(sql.getSql(), begin, 0, true);
+                if (isUnavailable(e)) {
+                    return i;
+                }
+                Server.getInstance().getLogger().error("重放预写日志中的 " + sql + " 出现异常 已跳过", e);
+            }
+            this.onReplayed(sql.getSql());
+        }
+        return batch.size();
+    }
+
+    private void onReplayed(String sql) {
+        SqlDataManager.invalidateCache(this.loginPool, sql);
+        this.loginPool.onWrite(sql);
+    }
+
+    /**
+     * 读取下一批记录 不移动重放位置
+     */
+    private synchronized List<Entry> peek(int max) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        if (this.closed || this.readSegment == null) {
+            return entries;
+        }
+        Segment segment = this.readSegment;
+        int offset = this.readOffset;
+        while (entries.size() < max) {
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int limit = segment == this.writeSegment ? this.writeSegment.buffer.position() : buffer.capacity();
+            int length = offset + RECORD_HEADER <= limit ? buffer.getInt(offset) : 0;
+            if (length <= 0) {
+                Long next = this.segments.higherKey(segment.id);
+                if (next == null) {
+                    break;
+                }
+                segment = this.segments.get(next);
+                offset = 0;
+                continue;
+            }
+            byte[] payload = new byte[length];
+            buffer.position(offset + RECORD_HEADER);
+            buffer.get(payload);
+            offset += RECORD_HEADER + length;
+            entries.add(new Entry(decode(payload), segment, offset, RECORD_HEADER + length));
+        }
+        return entries;
+    }
+
+    /**
+     * 将重放位置移动到 batch 中第 count 条之后 并删除已重放完的分段
+     */
+    private synchronized void commit(List<Entry> batch, int count) throws IOException {
+        if (this.closed) {
+            return;
+        }
+        Entry last = batch.get(count - 1);
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            bytes += batch.get(i).size;
+        }
+        this.readSegment = last.segment;
+        this.readOffset = last.offset;
+        this.pendingRecords -= count;
+        this.pendingBytes -= bytes;
+        this.writeCheckpoint();
+        while (this.segments.firstKey() < this.readSegment.id) {
+            Segment segment = this.segments.remove(this.segments.firstKey());
+            segment.delete();
+        }
+        if (this.pendingRecords == 0 && this.readSegment == this.writeSegment && this.readOffset > 0) {
+            //全部重放完毕 清空旧记录后从头使用同一个分段
+            ByteBuffer clean = this.writeSegment.buffer.duplicate();
+            clean.position(0);
+            while (clean.position() + 8 <= this.readOffset) {
+                clean.putLong(0);
+            }
+            while (clean.position() < this.readOffset) {
+                clean.put((byte) 0);
+            }
+            this.writeSegment.buffer.position(0);
+            this.readOffset = 0;
+            this.writeCheckpoint();
+            this.dirty = true;
+        }
+    }
+
+    private void roll(int size) throws IOException {
+        long id = this.writeSegment == null ? (this.segments.isEmpty() ? 1 : this.segments.lastKey() + 1) : this.writeSegment.id + 1;
+        Segment segment = new Segment(id, new File(this.directory, String.format("%016d", id) + SUFFIX), Math.max(SEGMENT_SIZE, size), 0);
+        if (this.writeSegment != null) {
+            this.writeSegment.buffer.force();
+        }
+        this.segments.put(id, segment);
+        this.writeSegment = segment;
+        if (this.readSegment == null) {
+            this.readSegment = segment;
+            this.readOffset = 0;
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        File temp = new File(this.directory, CHECKPOINT + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeLong(this.readSegment.id);
+            out.writeInt(this.readOffset);
+        }
+        Files.move(temp.toPath(), new File(this.directory, CHECKPOINT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取 checkpoint 与全部分段 统计未重放的记录 找到最后一个分段的写入位置
+     */
+    private void recover() throws IOException {
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        TreeMap<Long, File> found = new TreeMap<>();
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    found.put(Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length())), file);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        long checkpointSegment = 0;
+        int checkpointOffset = 0;
+        File checkpoint = new File(this.directory, CHECKPOINT);
+        if (checkpoint.isFile()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(checkpoint))) {
+                checkpointSegment = in.readLong();
+                checkpointOffset = in.readInt();
+            } catch (EOFException e) {
+                Server.getInstance().getLogger().warning("预写日志 " + this.directory + " 的 checkpoint 已损坏 从第一条记录开始重放");
+            }
+        }
+        for (File file : found.values()) {
+            long id = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+            if (id < checkpointSegment) {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+                continue;
+            }
+            Segment segment = new Segment(id, file, (int) Math.max(file.length(), SEGMENT_SIZE), 0);
+            this.segments.put(id, segment);
+            int offset = id == checkpointSegment ? checkpointOffset : 0;
+            if (this.readSegment == null) {
+                this.readSegment = segment;
+                this.readOffset = offset;
+            }
+            ByteBuffer buffer = segment.buffer;
+            int end = offset;
+            while (end + RECORD_HEADER <= buffer.capacity()) {
+                int length = buffer.getInt(end);
+                if (length <= 0 || end + RECORD_HEADER + length > buffer.capacity()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                ByteBuffer read = buffer.duplicate();
+                read.position(end + RECORD_HEADER);
+                read.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, payload.length);
+                if ((int) crc.getValue() != buffer.getInt(end + 4)) {
+                    Server.getInstance().getLogger().warning("预写日志 " + file.getName() + " 在 " + end + " 处的记录校验失败 之后的内容已丢弃");
+                    break;
+                }
+                end += RECORD_HEADER + length;
+                this.pendingRecords++;
+                this.pendingBytes += RECORD_HEADER + length;
+            }
+            //截断未写完的记录
+            if (end + 4 <= buffer.capacity()) {
+                buffer.putInt(end, 0);
+            }
+            buffer.position(end);
+            this.writeSegment = segment;
+        }
+        if (this.pendingRecords > 0) {
+            Server.getInstance().getLogger().info("[EasyMySQL] 预写日志 " + this.directory + " 中有 " + this.pendingRecords + " 条写入等待重放");
+        }
+    }
+
+    private static PreparedSql decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte[] text = new byte[in.readInt()];
+        in.readFully(text);
+        ChunkSqlType[] types = new ChunkSqlType[in.readInt()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = ChunkSqlType.read(in);
+        }
+        return new PreparedSql(new String(text, StandardCharsets.UTF_8), types);
+    }
+
+    /**
+     * 立即解除文件映射 Windows 下映射中的文件无法删除
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(field.get(null), buffer);
+        } catch (Throwable e) {
+            try {
+                //Java 8
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object instance = cleaner.invoke(buffer);
+                instance.getClass().getMethod("clean").invoke(instance);
+            } catch (Throwable ignored) {
+                //等待 GC 解除映射
+            }
+        }
+    }
+
+    /**
+     * 日志分段
+     */
+    private static final class Segment {
+
+        private final long id;
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        Segment(long id, File file, int size, int position) throws IOException {
+            this.id = id;
+            this.file = file;
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                 FileChannel channel = randomAccessFile.getChannel()) {
+                if (randomAccessFile.length() < size) {
+                    randomAccessFile.setLength(size);
+                }
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            this.buffer.position(position);
+        }
+
+        void delete() {
+            unmap(this.buffer);
+            if (!this.file.delete()) {
+                this.file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * 读取的记录
+     */
+    private static final class Entry {
+
+        private final PreparedSql sql;
+
+        private final Segment segment;
+
+        /**
+         * 记录结束的位置
+         */
+        private final int offset;
+
+        private final int size;
+
+        Entry(PreparedSql sql, Segment segment, int offset, int size) {
+            this.sql = sql;
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
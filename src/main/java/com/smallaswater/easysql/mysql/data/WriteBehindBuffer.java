@@ -0,0 +1,317 @@
+package com.smallaswater.easysql.mysql.data;
+
+import cn.nukkit.Server;
+import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+import com.smallaswater.easysql.mysql.utils.NamedThreadFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 延迟合并写入缓冲
+ * 以 表名 + where 条件 为键在内存中合并 setData 同一字段只保留最后一次的值
+ * 后台线程每隔 interval 毫秒 或缓冲条数达到 maxEntries 时 将合并后的数据批量写入数据库
+ * 对同一张表直接执行 insertData / upsert / deleteData 前 会先写入该表缓冲中的数据
+ * 执行 executeSql 或事务前 会先写入缓冲中的全部数据
+ * 注意: 缓冲中的数据写入前 查询不会看到这些修改
+ *
+ * @author SmallasWater
+ */
+public class WriteBehindBuffer {
+
+    private final LoginPool loginPool;
+
+    private final long interval;
+
+    private final int maxEntries;
+
+    private final FlushMode mode;
+
+    private boolean flushOnShutdown = true;
+
+    private final ConcurrentHashMap<RowKey, LinkedHashMap<String, Object>> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * @param loginPool  连接池
+     * @param interval   自动写入间隔 (毫秒)
+     * @param maxEntries 缓冲条数达到此值时立即写入
+     * @param mode       写入方式
+     */
+    public WriteBehindBuffer(@NotNull LoginPool loginPool, long interval, int maxEntries, @NotNull FlushMode mode) {
+        this.loginPool = loginPool;
+        this.interval = interval;
+        this.maxEntries = maxEntries;
+        this.mode = mode;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("EasyMySQL-WriteBehind"));
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public FlushMode getMode() {
+        return mode;
+    }
+
+    public boolean isFlushOnShutdown() {
+        return flushOnShutdown;
+    }
+
+    /**
+     * 设置关闭时是否写入缓冲中的数据
+     * 关闭后 未写入的修改会被丢弃
+     *
+     * @param flushOnShutdown 是否写入
+     */
+    public WriteBehindBuffer setFlushOnShutdown(boolean flushOnShutdown) {
+        this.flushOnShutdown = flushOnShutdown;
+        return this;
+    }
+
+    /**
+     * @return 等待写入的行数
+     */
+    public int size() {
+        return this.pending.size();
+    }
+
+    /**
+     * 缓冲一次修改
+     *
+     * @param tableName 表单名称
+     * @param data      数据
+     * @param where     参数判断
+     */
+    public void setData(@NotNull String tableName, @NotNull SqlData data, @NotNull SqlData where) {
+        RowKey key = new RowKey(tableName, where.getData());
+        this.pending.compute(key, (k, old) -> {
+            if (old == null) {
+                old = new LinkedHashMap<>();
+            }
+            old.putAll(data.getData());
+            return old;
+        });
+        if (this.pending.size() >= this.maxEntries && this.flushScheduled.compareAndSet(false, true)) {
+            this.flusher.execute(() -> {
+                this.flushScheduled.set(false);
+                this.flushQuietly();
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            this.flush();
+        } catch (Exception e) {
+            Server.getInstance().getLogger().error("写入缓冲数据出现异常", e);
+        }
+    }
+
+    /**
+     * 立即写入缓冲中的全部数据
+     *
+     * @return 是否全部写入成功 失败的数据会放回缓冲等待下次写入
+     */
+    public boolean flush() {
+        return this.flush(null);
+    }
+
+    /**
+     * 立即写入一张表在缓冲中的数据
+     *
+     * @param tableName 表单名称 null 为全部表
+     * @return 是否全部写入成功 失败的数据会放回缓冲等待下次写入
+     */
+    public synchronized boolean flush(String tableName) {
+        if (this.pending.isEmpty()) {
+            return true;
+        }
+        LinkedHashMap<String, Map<RowKey, LinkedHashMap<String, Object>>> groups = new LinkedHashMap<>();
+        for (RowKey key : new ArrayList<>(this.pending.keySet())) {
+            if (tableName != null && !key.lowerName.equalsIgnoreCase(tableName)) {
+                continue;
+            }
+            LinkedHashMap<String, Object> data = this.pending.remove(key);
+            if (data == null) {
+                continue;
+            }
+            groups.computeIfAbsent(this.toSql(key, data), k -> new LinkedHashMap<>()).put(key, data);
+        }
+        boolean success = true;
+        for (Map.Entry<String, Map<RowKey, LinkedHashMap<String, Object>>> group : groups.entrySet()) {
+            ArrayList<ChunkSqlType[]> parameters = new ArrayList<>();
+            for (Map.Entry<RowKey, LinkedHashMap<String, Object>> row : group.getValue().entrySet()) {
+                parameters.add(this.toParameters(row.getKey(), row.getValue()));
+            }
+            int[] counts = SqlDataManager.executeBatch(this.loginPool, group.getKey(), parameters);
+            if (counts.length > 0 && counts[0] == Statement.EXECUTE_FAILED) {
+                success = false;
+                for (Map.Entry<RowKey, LinkedHashMap<String, Object>> row : group.getValue().entrySet()) {
+                    this.restore(row.getKey(), row.getValue());
+                }
+            }
+        }
+        return success;
+    }
+
+    private String toSql(RowKey key, Map<String, Object> data) {
+        return this.mode == FlushMode.UPSERT ?
+                SqlTemplates.upsert(key.tableName, key.where.keySet(), data.keySet()) :
+                SqlTemplates.update(key.tableName, data.keySet(), key.where.keySet());
+    }
+
+    private ChunkSqlType[] toParameters(RowKey key, Map<String, Object> data) {
+        return this.mode == FlushMode.UPSERT ?
+                toParameters(key.where.values(), data.values()) :
+                toParameters(data.values(), key.where.values());
+    }
+
+    /**
+     * 丢弃符合删除条件的行在缓冲中的修改 避免删除后又被 UPSERT 写回
+     *
+     * @param tableName 表单名称
+     * @param where     删除条件
+     */
+    public void discard(@NotNull String tableName, @NotNull SqlData where) {
+        Map<String, Object> condition = where.getData();
+        this.pending.keySet().removeIf(key -> key.lowerName.equalsIgnoreCase(tableName)
+                && key.where.entrySet().containsAll(condition.entrySet()));
+    }
+
+    /**
+     * 写入失败时放回缓冲 不覆盖期间产生的新值
+     */
+    private void restore(RowKey key, LinkedHashMap<String, Object> data) {
+        this.pending.compute(key, (k, newer) -> {
+            if (newer == null) {
+                return data;
+            }
+            LinkedHashMap<String, Object> merged = new LinkedHashMap<>(data);
+            merged.putAll(newer);
+            return merged;
+        });
+    }
+
+    /**
+     * 停止后台写入
+     * 若 flushOnShutdown 为 true 则写入缓冲中的全部数据 仍未写入的数据保存到预写日志 未开启预写日志时输出到错误日志
+     */
+    public void shutdown() {
+        this.flusher.shutdown();
+        try {
+            this.flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.flushOnShutdown && !this.flush()) {
+            this.spill();
+        }
+        this.pending.clear();
+    }
+
+    /**
+     * 关闭时写入失败的数据 不能再放回缓冲
+     */
+    private synchronized void spill() {
+        WriteAheadLog log = this.loginPool.getWriteAheadLog();
+        for (Map.Entry<RowKey, LinkedHashMap<String, Object>> row : this.pending.entrySet()) {
+            PreparedSql sql = new PreparedSql(this.toSql(row.getKey(), row.getValue()), this.toParameters(row.getKey(), row.getValue()));
+            if (log != null) {
+                try {
+                    log.append(sql);
+                    continue;
+                } catch (IOException e) {
+                    Server.getInstance().getLogger().error("写入预写日志失败 " + sql, e);
+                }
+            }
+            Server.getInstance().getLogger().error("[EasyMySQL] 关闭时未能写入缓冲数据 已丢弃: " + sql
+                    + " where " + row.getKey().where + " data " + row.getValue());
+        }
+    }
+
+    private static ChunkSqlType[] toParameters(Collection<Object> first, Collection<Object> second) {
+        ChunkSqlType[] types = new ChunkSqlType[first.size() + second.size()];
+        int i = 0;
+        for (Object o : first) {
+            types[i] = new ChunkSqlType(i + 1, o);
+            i++;
+        }
+        for (Object o : second) {
+            types[i] = new ChunkSqlType(i + 1, o);
+            i++;
+        }
+        return types;
+    }
+
+    /**
+     * 缓冲数据的写入方式
+     */
+    public enum FlushMode {
+        /**
+         * UPDATE ... WHERE 行必须已经存在
+         */
+        UPDATE,
+        /**
+         * INSERT ... ON DUPLICATE KEY UPDATE where 中的字段需要是主键或唯一键
+         */
+        UPSERT
+    }
+
+    private static final class RowKey {
+
+        /**
+         * 原始表名 用于生成 SQL 表名区分大小写的服务器上不能转换
+         */
+        private final String tableName;
+
+        /**
+         * 小写表名 仅用于比较
+         */
+        private final String lowerName;
+
+        private final LinkedHashMap<String, Object> where;
+
+        private final int hash;
+
+        RowKey(String tableName, Map<String, Object> where) {
+            this.tableName = tableName;
+            this.lowerName = tableName.toLowerCase();
+            this.where = new LinkedHashMap<>(where);
+            this.hash = 31 * this.lowerName.hashCode() + this.where.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RowKey)) {
+                return false;
+            }
+            RowKey key = (RowKey) o;
+            return this.lowerName.equals(key.lowerName) && this.where.equals(key.where);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
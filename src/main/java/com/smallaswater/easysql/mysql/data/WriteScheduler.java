@@ -0,0 +1,378 @@
+package com.smallaswater.easysql.mysql.data;
+
+import cn.nukkit.Server;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+import com.smallaswater.easysql.mysql.utils.NamedThreadFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 写入调度器
+ * 每个插件 (BaseMySql) 拥有独立的调度器 共享连接池时 一个插件的突发写入不会占满其他插件的队列
+ * 写入按表名分配到固定的单线程通道 同一张表的写入按提交顺序执行 最后提交的写入最后生效
+ * 等待队列有界 队列满时按照 {@link OverflowPolicy} 处理
+ *
+ * @author SmallasWater
+ */
+public class WriteScheduler {
+
+    public static final int DEFAULT_THREADS = 4;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final LoginPool loginPool;
+
+    private final String name;
+
+    private final OverflowPolicy policy;
+
+    /**
+     * 每个通道一个线程 同一通道内按顺序执行
+     */
+    private final ThreadPoolExecutor[] lanes;
+
+    private final WriteAheadLog spillLog;
+
+    private volatile Consumer<PreparedSql> rejectedCallback;
+
+    public WriteScheduler(@NotNull LoginPool loginPool, @NotNull String name) {
+        this(loginPool, name, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK, null);
+    }
+
+    /**
+     * @param loginPool     连接池
+     * @param name          调度器名称 用于线程命名
+     * @param threads       写入线程数 即通道数
+     * @param queueCapacity 等待队列总容量 平均分配给每个通道
+     * @param policy        队列满时的处理方式
+     * @param spillFile     溢出目录 仅 {@link OverflowPolicy#SPILL_TO_DISK} 需要 溢出的语句写入该目录的预写日志
+     */
+    public WriteScheduler(@NotNull LoginPool loginPool, @NotNull String name, int threads, int queueCapacity,
+                          @NotNull OverflowPolicy policy, File spillFile) {
+        if (policy == OverflowPolicy.SPILL_TO_DISK && spillFile == null) {
+            throw new IllegalArgumentException("SPILL_TO_DISK 需要指定溢出文件");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("写入线程数必须大于 0");
+        }
+        this.loginPool = loginPool;
+        this.name = name;
+        this.policy = policy;
+        this.lanes = new ThreadPoolExecutor[threads];
+        NamedThreadFactory threadFactory = new NamedThreadFactory("EasyMySQL-Write-" + name);
+        int laneCapacity = Math.max(1, queueCapacity / threads);
+        for (int i = 0; i < threads; i++) {
+            ThreadPoolExecutor lane = new ThreadPoolExecutor(
+                    1,
+                    1,
+                    60,
+                    TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(laneCapacity),
+                    threadFactory,
+                    (r, executor) -> this.onOverflow((WriteTask<?>) r, executor)
+            );
+            lane.allowCoreThreadTimeOut(true);
+            this.lanes[i] = lane;
+        }
+        if (spillFile != null) {
+            try {
+                this.spillLog = openSpillLog(loginPool, spillFile);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("无法打开溢出文件 " + spillFile, e);
+            }
+        } else {
+            this.spillLog = null;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 设置 {@link OverflowPolicy#FAIL_FAST} 时被拒绝写入的回调
+     *
+     * @param rejectedCallback 回调 参数为被拒绝的语句 非 PreparedSql 任务时为 null
+     */
+    public void setRejectedCallback(Consumer<PreparedSql> rejectedCallback) {
+        this.rejectedCallback = rejectedCallback;
+    }
+
+    /**
+     * @return 等待执行的写入数量
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (ThreadPoolExecutor lane : this.lanes) {
+            size += lane.getQueue().size();
+        }
+        return size;
+    }
+
+    /**
+     * @return 溢出文件中等待重放的字节数
+     */
+    public long getSpilledBytes() {
+        return this.spillLog == null ? 0 : this.spillLog.getPendingBytes();
+    }
+
+    /**
+     * 提交一条写入语句 按语句中的表名选择通道
+     * 连接池开启预写日志时 数据库不可用的语句保存到预写日志 之后按顺序重放
+     *
+     * @param sql 语句
+     * @return 是否执行成功 溢出到磁盘时立即返回 true
+     */
+    public CompletableFuture<Boolean> submit(@NotNull PreparedSql sql) {
+        return this.submit(sql, null);
+    }
+
+    /**
+     * 提交一条写入语句 在指定的上下文中执行
+     * 上下文被取消时 未开始的写入不再执行 正在执行的语句被中止
+     *
+     * @param sql     语句
+     * @param context 超时与取消 可以为 null
+     * @return 是否执行成功 溢出到磁盘时立即返回 true
+     */
+    public CompletableFuture<Boolean> submit(@NotNull PreparedSql sql, QueryContext context) {
+        WriteTask<Boolean> task = new WriteTask<>(() -> SqlDataManager.executeWrite(this.loginPool, sql), sql, context);
+        if (this.spillLog != null && this.spillLog.hasPending()) {
+            //溢出文件中还有未重放的语句时 之后的语句也写入溢出文件 保证执行顺序
+            this.spill(task, this.lane(QueryCache.getWriteTable(sql.getSql())));
+            return task.future;
+        }
+        return this.submit(QueryCache.getWriteTable(sql.getSql()), task);
+    }
+
+    /**
+     * 提交写入指定表的操作 与同一张表的其他写入按提交顺序执行
+     * 无法序列化 {@link OverflowPolicy#SPILL_TO_DISK} 时按 {@link OverflowPolicy#BLOCK} 处理
+     *
+     * @param tableName 写入的表名
+     * @param supplier  操作
+     * @param <T>       返回值类型
+     * @return 异步结果
+     */
+    public <T> CompletableFuture<T> submit(String tableName, @NotNull Supplier<T> supplier) {
+        return this.submit(tableName, supplier, null);
+    }
+
+    /**
+     * 提交写入指定表的操作 在指定的上下文中执行
+     *
+     * @param tableName 写入的表名 null 时与 {@link #submit(Supplier)} 使用同一通道
+     * @param supplier  操作
+     * @param context   超时与取消 可以为 null
+     * @param <T>       返回值类型
+     * @return 异步结果
+     */
+    public <T> CompletableFuture<T> submit(String tableName, @NotNull Supplier<T> supplier, QueryContext context) {
+        return this.submit(tableName == null ? null : tableName.toLowerCase(), new WriteTask<>(supplier, null, context));
+    }
+
+    /**
+     * 提交任意写入操作 例如涉及多张表的事务
+     * 这些操作之间按提交顺序执行 与单表写入之间不保证顺序
+     * 无法序列化 {@link OverflowPolicy#SPILL_TO_DISK} 时按 {@link OverflowPolicy#BLOCK} 处理
+     *
+     * @param supplier 操作
+     * @param <T>      返回值类型
+     * @return 异步结果
+     */
+    public <T> CompletableFuture<T> submit(@NotNull Supplier<T> supplier) {
+        return this.submit(null, new WriteTask<>(supplier, null, null));
+    }
+
+    private <T> CompletableFuture<T> submit(String tableName, WriteTask<T> task) {
+        ThreadPoolExecutor lane = this.lane(tableName);
+        if (lane.isShutdown()) {
+            task.future.completeExceptionally(new RejectedExecutionException("写入调度器 " + this.name + " 已关闭"));
+        } else {
+            lane.execute(task);
+        }
+        return task.future;
+    }
+
+    /**
+     * @param tableName 小写的表名 null 时使用第一个通道
+     */
+    private ThreadPoolExecutor lane(String tableName) {
+        if (tableName == null) {
+            return this.lanes[0];
+        }
+        return this.lanes[(tableName.hashCode() & Integer.MAX_VALUE) % this.lanes.length];
+    }
+
+    private void spill(WriteTask<?> task, ThreadPoolExecutor lane) {
+        try {
+            this.spillLog.append(task.sql);
+            task.completeSpilled();
+        } catch (IOException e) {
+            Server.getInstance().getLogger().error("写入溢出文件失败 " + task.sql, e);
+            this.put(task, lane);
+        }
+    }
+
+    private void put(WriteTask<?> task, ThreadPoolExecutor lane) {
+        try {
+            lane.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.future.completeExceptionally(e);
+            return;
+        }
+        //直接放入队列没有经过 execute 等待期间通道已关闭时 任务可能不会再被执行
+        if (lane.isShutdown() && lane.remove(task)) {
+            task.future.completeExceptionally(new RejectedExecutionException("写入调度器 " + this.name + " 已关闭"));
+        }
+    }
+
+    private void onOverflow(WriteTask<?> task, ThreadPoolExecutor lane) {
+        if (lane.isShutdown()) {
+            task.future.completeExceptionally(new RejectedExecutionException("写入调度器 " + this.name + " 已关闭"));
+            return;
+        }
+        switch (this.policy) {
+            case CALLER_RUNS:
+                //在提交线程中执行 与通道中排队的写入之间不保证顺序
+                task.run();
+                break;
+            case FAIL_FAST:
+                Consumer<PreparedSql> callback = this.rejectedCallback;
+                if (callback != null) {
+                    callback.accept(task.sql);
+                }
+                task.future.completeExceptionally(new RejectedExecutionException("写入调度器 " + this.name + " 队列已满"));
+                break;
+            case SPILL_TO_DISK:
+                if (task.sql != null) {
+                    this.spill(task, lane);
+                    break;
+                }
+            case BLOCK:
+            default:
+                this.put(task, lane);
+                break;
+        }
+    }
+
+    /**
+     * 打开溢出目录的预写日志 同名的普通文件会被替换为目录
+     */
+    private static WriteAheadLog openSpillLog(LoginPool loginPool, File spillFile) throws IOException {
+        if (spillFile.isFile() && !spillFile.delete()) {
+            throw new IOException("无法删除文件 " + spillFile);
+        }
+        return new WriteAheadLog(loginPool, spillFile);
+    }
+
+    /**
+     * 停止接收新的写入 并等待已排队的写入执行完毕
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     * @return 是否全部执行完毕
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        for (ThreadPoolExecutor lane : this.lanes) {
+            lane.shutdown();
+        }
+        boolean terminated = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            for (ThreadPoolExecutor lane : this.lanes) {
+                terminated &= lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            terminated = false;
+        }
+        if (!terminated) {
+            Server.getInstance().getLogger().warning("写入调度器 " + this.name + " 仍有 " + this.getQueueSize() + " 条写入未完成");
+            for (ThreadPoolExecutor lane : this.lanes) {
+                for (Runnable runnable : lane.shutdownNow()) {
+                    if (runnable instanceof WriteTask) {
+                        ((WriteTask<?>) runnable).future.completeExceptionally(
+                                new RejectedExecutionException("写入调度器 " + this.name + " 已关闭 写入未执行"));
+                    }
+                }
+            }
+        }
+        if (this.spillLog != null) {
+            //未重放的语句保留在溢出目录中 下次使用同一目录时继续重放
+            this.spillLog.close();
+        }
+        return terminated;
+    }
+
+    public boolean isShutdown() {
+        return this.lanes[0].isShutdown();
+    }
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞提交线程直到队列有空位
+         */
+        BLOCK,
+        /**
+         * 在提交线程中直接执行
+         */
+        CALLER_RUNS,
+        /**
+         * 写入本地溢出目录的预写日志 之后按顺序批量重放
+         */
+        SPILL_TO_DISK,
+        /**
+         * 立即失败 并调用回调
+         */
+        FAIL_FAST
+    }
+
+    private static class WriteTask<T> implements Runnable {
+
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private final Supplier<T> supplier;
+
+        private final PreparedSql sql;
+
+        private final QueryContext context;
+
+        WriteTask(Supplier<T> supplier, PreparedSql sql, QueryContext context) {
+            this.supplier = supplier;
+            this.sql = sql;
+            this.context = context;
+        }
+
+        @Override
+        public void run() {
+            if (this.future.isDone() || (this.context != null && this.context.isCancelled())) {
+                //已取消或超时
+                return;
+            }
+            try {
+                this.future.complete(this.context == null ? this.supplier.get() : this.context.run(this.supplier));
+            } catch (Throwable e) {
+                this.future.completeExceptionally(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void completeSpilled() {
+            ((CompletableFuture<Boolean>) this.future).complete(true);
+        }
+    }
+}
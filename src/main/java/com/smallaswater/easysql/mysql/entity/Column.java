@@ -0,0 +1,36 @@
+package com.smallaswater.easysql.mysql.entity;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 字段设置 不添加时使用字段名并按 Java 类型生成字段定义
+ *
+ * @author SmallasWater
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Column {
+
+    /**
+     * @return 字段名 为空时使用 Java 字段名
+     */
+    String value() default "";
+
+    /**
+     * @return 完整的字段定义 例如 varchar(32) not null 为空时按 Java 类型生成
+     */
+    String definition() default "";
+
+    /**
+     * @return 字符串的长度 小于等于 0 时使用 text
+     */
+    int length() default 255;
+
+    /**
+     * @return 是否允许 NULL 基本类型总是 not null
+     */
+    boolean nullable() default false;
+}
@@ -0,0 +1,567 @@
+package com.smallaswater.easysql.mysql.entity;
+
+import com.smallaswater.easysql.mysql.data.SqlData;
+import com.smallaswater.easysql.mysql.migration.TableSchema;
+import com.smallaswater.easysql.mysql.utils.QueryConditions;
+import com.smallaswater.easysql.mysql.utils.TableType;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实体映射
+ * 每个实体类只解析一次注解 字段通过缓存的 MethodHandle 读写
+ * 查询结果直接写入实体 不经过 SqlData
+ * <pre>
+ * &#64;Table("player")
+ * public class PlayerData {
+ *     &#64;Id(autoIncrement = true)
+ *     private long id;
+ *     &#64;Column(length = 32)
+ *     private String name;
+ *     private int money;
+ * }
+ * </pre>
+ *
+ * @author SmallasWater
+ */
+public class EntityMapper<T> {
+
+    private static final ConcurrentHashMap<Class<?>, EntityMapper<?>> MAPPERS = new ConcurrentHashMap<>();
+
+    private static final byte OBJECT = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte FLOAT = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+
+    private final Class<T> type;
+
+    private final String tableName;
+
+    private final MethodHandle constructor;
+
+    private final Property[] properties;
+
+    private final Property[] ids;
+
+    private final Property autoIncrement;
+
+    private final HashMap<String, Property> columns = new HashMap<>();
+
+    private EntityMapper(Class<T> type) {
+        this.type = type;
+        Table table = type.getAnnotation(Table.class);
+        if (table == null) {
+            throw new IllegalArgumentException(type.getName() + " 缺少 @Table 注解");
+        }
+        this.tableName = QueryConditions.checkColumn(table.value());
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<T> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException(type.getName() + " 需要无参构造方法", e);
+        }
+        LinkedList<Class<?>> hierarchy = new LinkedList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.addFirst(c);
+        }
+        ArrayList<Property> properties = new ArrayList<>();
+        ArrayList<Property> ids = new ArrayList<>();
+        for (Class<?> c : hierarchy) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                if (Modifier.isFinal(modifiers)) {
+                    throw new IllegalArgumentException(field + " 不能为 final 不需要保存时请使用 transient");
+                }
+                Property property;
+                try {
+                    property = new Property(lookup, field);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException("无法访问字段 " + field, e);
+                }
+                if (this.columns.put(property.name.toLowerCase(), property) != null) {
+                    throw new IllegalArgumentException(type.getName() + " 中字段 " + property.name + " 重复");
+                }
+                properties.add(property);
+                if (property.id) {
+                    ids.add(property);
+                }
+            }
+        }
+        this.properties = properties.toArray(new Property[0]);
+        this.ids = ids.toArray(new Property[0]);
+        Property autoIncrement = null;
+        for (Property id : this.ids) {
+            if (id.autoIncrement) {
+                if (this.ids.length > 1) {
+                    throw new IllegalArgumentException(type.getName() + " 自增主键不能用于联合主键");
+                }
+                autoIncrement = id;
+            }
+        }
+        this.autoIncrement = autoIncrement;
+    }
+
+    /**
+     * 获取实体的映射 每个实体类只创建一次
+     *
+     * @param type 添加了 {@link Table} 注解的实体类
+     * @return 映射
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMapper<T> of(@NotNull Class<T> type) {
+        return (EntityMapper<T>) MAPPERS.computeIfAbsent(type, EntityMapper::new);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return 全部字段名
+     */
+    public List<String> getColumns() {
+        ArrayList<String> list = new ArrayList<>(this.properties.length);
+        for (Property property : this.properties) {
+            list.add(property.name);
+        }
+        return list;
+    }
+
+    /**
+     * @return 主键字段名
+     */
+    public String[] getIdColumns() {
+        String[] list = new String[this.ids.length];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = this.ids[i].name;
+        }
+        return list;
+    }
+
+    /**
+     * 生成建表参数 用于 {@link com.smallaswater.easysql.mysql.BaseMySql#createTable(String, TableType...)}
+     *
+     * @return 字段定义 有主键时最后为 PRIMARY KEY
+     */
+    public TableType[] getTableTypes() {
+        ArrayList<TableType> types = new ArrayList<>(this.properties.length + 1);
+        for (Property property : this.properties) {
+            types.add(new TableType(property.name, property.definition));
+        }
+        if (this.ids.length > 0) {
+            types.add(new TableType("PRIMARY KEY", "(" + String.join(",", this.getIdColumns()) + ")"));
+        }
+        return types.toArray(new TableType[0]);
+    }
+
+    /**
+     * @return 声明的表结构 用于 {@link com.smallaswater.easysql.mysql.BaseMySql#migrate(TableSchema...)}
+     */
+    public TableSchema getSchema() {
+        return TableSchema.of(this.tableName, this.getTableTypes());
+    }
+
+    /**
+     * 读取结果集的全部行
+     * 字段与属性的对应关系每个结果集只计算一次 结果集中没有的属性保持默认值
+     *
+     * @param resultSet 结果集
+     * @return 实体列表
+     */
+    public ArrayList<T> readAll(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData data = resultSet.getMetaData();
+        Property[] mapped = new Property[data.getColumnCount()];
+        for (int i = 0; i < mapped.length; i++) {
+            mapped[i] = this.columns.get(data.getColumnLabel(i + 1).toLowerCase());
+        }
+        ArrayList<T> list = new ArrayList<>();
+        try {
+            while (resultSet.next()) {
+                Object entity = (Object) this.constructor.invokeExact();
+                for (int i = 0; i < mapped.length; i++) {
+                    if (mapped[i] != null) {
+                        mapped[i].read(entity, resultSet, i + 1);
+                    }
+                }
+                list.add(this.type.cast(entity));
+            }
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SQLException("创建 " + this.type.getName() + " 出现异常", e);
+        }
+        return list;
+    }
+
+    /**
+     * 转换为保存用的数据 未设置的自增主键不包含在内
+     *
+     * @param entity 实体
+     * @return 数据
+     */
+    public SqlData toSqlData(@NotNull T entity) {
+        SqlData data = new SqlData();
+        for (Property property : this.properties) {
+            Object value = property.get(entity);
+            if (property.autoIncrement && isUnset(value)) {
+                continue;
+            }
+            data.put(property.name, value);
+        }
+        return data;
+    }
+
+    /**
+     * @param entity 实体
+     * @return 实体的主键条件
+     */
+    public SqlData getId(@NotNull T entity) {
+        this.checkId(this.ids.length);
+        SqlData data = new SqlData();
+        for (Property id : this.ids) {
+            data.put(id.name, id.get(entity));
+        }
+        return data;
+    }
+
+    /**
+     * @param id 主键值 顺序与主键字段一致
+     * @return 主键条件
+     */
+    public SqlData idOf(Object... id) {
+        this.checkId(id.length);
+        SqlData data = new SqlData();
+        for (int i = 0; i < id.length; i++) {
+            data.put(this.ids[i].name, id[i]);
+        }
+        return data;
+    }
+
+    private void checkId(int length) {
+        if (this.ids.length == 0) {
+            throw new IllegalStateException(this.type.getName() + " 没有 @Id 字段");
+        }
+        if (length != this.ids.length) {
+            throw new IllegalArgumentException("主键值数量 " + length + " 与主键字段数量 " + this.ids.length + " 不一致");
+        }
+    }
+
+    /**
+     * @param entity 实体
+     * @return 是否为自增主键未设置的新实体
+     */
+    public boolean isNew(@NotNull T entity) {
+        return this.autoIncrement != null && isUnset(this.autoIncrement.get(entity));
+    }
+
+    /**
+     * 写回数据库生成的自增主键
+     *
+     * @param entity 实体
+     * @param id     主键
+     */
+    public void setGeneratedId(@NotNull T entity, long id) {
+        if (this.autoIncrement != null) {
+            this.autoIncrement.set(entity, id);
+        }
+    }
+
+    private static boolean isUnset(Object value) {
+        return value == null || ((Number) value).longValue() == 0;
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+
+    /**
+     * 实体的一个字段
+     * 基本类型使用对应的 getInt / getLong ... 直接写入 不装箱
+     */
+    private static final class Property {
+
+        private final String name;
+
+        private final Class<?> type;
+
+        private final byte kind;
+
+        private final MethodHandle getter;
+
+        private final MethodHandle setter;
+
+        private final ValueReader reader;
+
+        private final String definition;
+
+        private final boolean id;
+
+        private final boolean autoIncrement;
+
+        private Property(MethodHandles.Lookup lookup, Field field) throws IllegalAccessException {
+            Column column = field.getAnnotation(Column.class);
+            Id id = field.getAnnotation(Id.class);
+            this.name = QueryConditions.checkColumn(column == null || column.value().isEmpty() ? field.getName() : column.value());
+            this.type = field.getType();
+            this.kind = kindOf(this.type);
+            this.id = id != null;
+            this.autoIncrement = id != null && id.autoIncrement();
+            if (this.autoIncrement && this.type != int.class && this.type != long.class
+                    && this.type != Integer.class && this.type != Long.class) {
+                throw new IllegalArgumentException(field + " 自增主键只能为 int 或 long");
+            }
+            field.setAccessible(true);
+            Class<?> value = this.type.isPrimitive() ? this.type : Object.class;
+            this.getter = lookup.unreflectGetter(field).asType(MethodType.methodType(value, Object.class));
+            this.setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, value));
+            this.reader = this.kind == OBJECT ? readerOf(this.type) : null;
+            if (column != null && !column.definition().isEmpty()) {
+                this.definition = column.definition();
+            } else {
+                String sql = sqlTypeOf(this.type, column == null ? 255 : column.length());
+                if (sql == null) {
+                    throw new IllegalArgumentException(field + " 的类型无法生成字段定义 请使用 @Column(definition = ...)");
+                }
+                sql += this.type.isPrimitive() || column == null || !column.nullable() ? " not null" : " null";
+                this.definition = this.autoIncrement ? sql + " auto_increment" : sql;
+            }
+        }
+
+        private void read(Object target, ResultSet resultSet, int index) throws Throwable {
+            switch (this.kind) {
+                case INT:
+                    this.setter.invokeExact(target, resultSet.getInt(index));
+                    break;
+                case LONG:
+                    this.setter.invokeExact(target, resultSet.getLong(index));
+                    break;
+                case DOUBLE:
+                    this.setter.invokeExact(target, resultSet.getDouble(index));
+                    break;
+                case FLOAT:
+                    this.setter.invokeExact(target, resultSet.getFloat(index));
+                    break;
+                case BOOLEAN:
+                    this.setter.invokeExact(target, resultSet.getBoolean(index));
+                    break;
+                case SHORT:
+                    this.setter.invokeExact(target, resultSet.getShort(index));
+                    break;
+                case BYTE:
+                    this.setter.invokeExact(target, resultSet.getByte(index));
+                    break;
+                default:
+                    this.setter.invokeExact(target, this.reader.read(resultSet, index));
+                    break;
+            }
+        }
+
+        private Object get(Object target) {
+            try {
+                switch (this.kind) {
+                    case INT:
+                        return (int) this.getter.invokeExact(target);
+                    case LONG:
+                        return (long) this.getter.invokeExact(target);
+                    case DOUBLE:
+                        return (double) this.getter.invokeExact(target);
+                    case FLOAT:
+                        return (float) this.getter.invokeExact(target);
+                    case BOOLEAN:
+                        return (boolean) this.getter.invokeExact(target);
+                    case SHORT:
+                        return (short) this.getter.invokeExact(target);
+                    case BYTE:
+                        return (byte) this.getter.invokeExact(target);
+                    default:
+                        return (Object) this.getter.invokeExact(target);
+                }
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        private void set(Object target, long value) {
+            try {
+                if (this.kind == INT) {
+                    this.setter.invokeExact(target, (int) value);
+                } else if (this.kind == LONG) {
+                    this.setter.invokeExact(target, value);
+                } else {
+                    Object boxed = this.type == Integer.class ? (Object) (int) value : (Object) value;
+                    this.setter.invokeExact(target, boxed);
+                }
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        private static byte kindOf(Class<?> type) {
+            if (type == int.class) {
+                return INT;
+            } else if (type == long.class) {
+                return LONG;
+            } else if (type == double.class) {
+                return DOUBLE;
+            } else if (type == float.class) {
+                return FLOAT;
+            } else if (type == boolean.class) {
+                return BOOLEAN;
+            } else if (type == short.class) {
+                return SHORT;
+            } else if (type == byte.class) {
+                return BYTE;
+            }
+            return OBJECT;
+        }
+
+        private static String sqlTypeOf(Class<?> type, int length) {
+            if (type == int.class || type == Integer.class) {
+                return "int(10)";
+            } else if (type == long.class || type == Long.class) {
+                return "bigint(20)";
+            } else if (type == double.class || type == Double.class) {
+                return "double";
+            } else if (type == float.class || type == Float.class) {
+                return "float";
+            } else if (type == boolean.class || type == Boolean.class) {
+                return "tinyint(1)";
+            } else if (type == short.class || type == Short.class) {
+                return "smallint(6)";
+            } else if (type == byte.class || type == Byte.class) {
+                return "tinyint(4)";
+            } else if (type == String.class) {
+                return length > 0 ? "varchar(" + length + ")" : "text";
+            } else if (type == byte[].class) {
+                return "blob";
+            } else if (type == BigDecimal.class) {
+                return "decimal(20,4)";
+            } else if (type == UUID.class) {
+                return "char(36)";
+            } else if (type.isEnum()) {
+                return "varchar(64)";
+            } else if (type == Timestamp.class || type == Date.class || type == LocalDateTime.class) {
+                return "datetime";
+            } else if (type == java.sql.Date.class || type == LocalDate.class) {
+                return "date";
+            } else if (type == Time.class) {
+                return "time";
+            }
+            return null;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static ValueReader readerOf(Class<?> type) {
+            if (type == String.class) {
+                return ResultSet::getString;
+            } else if (type == Integer.class) {
+                return (resultSet, index) -> {
+                    int value = resultSet.getInt(index);
+                    return resultSet.wasNull() ? null : value;
+                };
+            } else if (type == Long.class) {
+                return (resultSet, index) -> {
+                    long value = resultSet.getLong(index);
+                    return resultSet.wasNull() ? null : value;
+                };
+            } else if (type == Double.class) {
+                return (resultSet, index) -> {
+                    double value = resultSet.getDouble(index);
+                    return resultSet.wasNull() ? null : value;
+                };
+            } else if (type == Float.class) {
+                return (resultSet, index) -> {
+                    float value = resultSet.getFloat(index);
+                    return resultSet.wasNull() ? null : value;
+                };
+            } else if (type == Boolean.class) {
+                return (resultSet, index) -> {
+                    boolean value = resultSet.getBoolean(index);
+                    return resultSet.wasNull() ? null : value;
+                };
+            } else if (type == Short.class) {
+                return (resultSet, index) -> {
+                    short value = resultSet.getShort(index);
+                    return resultSet.wasNull() ? null : value;
+                };
+            } else if (type == Byte.class) {
+                return (resultSet, index) -> {
+                    byte value = resultSet.getByte(index);
+                    return resultSet.wasNull() ? null : value;
+                };
+            } else if (type == byte[].class) {
+                return ResultSet::getBytes;
+            } else if (type == BigDecimal.class) {
+                return ResultSet::getBigDecimal;
+            } else if (type == Timestamp.class || type == Date.class) {
+                return ResultSet::getTimestamp;
+            } else if (type == java.sql.Date.class) {
+                return ResultSet::getDate;
+            } else if (type == Time.class) {
+                return ResultSet::getTime;
+            } else if (type == LocalDateTime.class) {
+                return (resultSet, index) -> {
+                    Timestamp value = resultSet.getTimestamp(index);
+                    return value == null ? null : value.toLocalDateTime();
+                };
+            } else if (type == LocalDate.class) {
+                return (resultSet, index) -> {
+                    java.sql.Date value = resultSet.getDate(index);
+                    return value == null ? null : value.toLocalDate();
+                };
+            } else if (type == UUID.class) {
+                return (resultSet, index) -> {
+                    String value = resultSet.getString(index);
+                    return value == null ? null : UUID.fromString(value);
+                };
+            } else if (type.isEnum()) {
+                return (resultSet, index) -> {
+                    String value = resultSet.getString(index);
+                    return value == null ? null : Enum.valueOf((Class) type, value);
+                };
+            }
+            return (resultSet, index) -> resultSet.getObject(index, type);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ValueReader {
+
+        Object read(ResultSet resultSet, int index) throws SQLException;
+    }
+}
@@ -0,0 +1,24 @@
+package com.smallaswater.easysql.mysql.entity;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 主键字段 多个字段添加时为联合主键
+ *
+ * @author SmallasWater
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Id {
+
+    /**
+     * 自增主键 只能用于单个 int / long 字段
+     * 值为 0 或 null 的实体保存时由数据库生成主键并写回实体
+     *
+     * @return 是否自增
+     */
+    boolean autoIncrement() default false;
+}
@@ -0,0 +1,22 @@
+package com.smallaswater.easysql.mysql.entity;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 实体对应的表
+ * 实体需要有无参构造方法 除 static 与 transient 外的字段都会映射为表字段
+ *
+ * @author SmallasWater
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Table {
+
+    /**
+     * @return 表名
+     */
+    String value();
+}
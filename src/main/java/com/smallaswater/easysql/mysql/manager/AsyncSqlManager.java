@@ -0,0 +1,491 @@
+package com.smallaswater.easysql.mysql.manager;
+
+import cn.nukkit.Server;
+import cn.nukkit.plugin.Plugin;
+import com.smallaswater.easysql.mysql.BaseMySql;
+import com.smallaswater.easysql.mysql.data.PreparedSql;
+import com.smallaswater.easysql.mysql.data.QueryContext;
+import com.smallaswater.easysql.mysql.data.SqlData;
+import com.smallaswater.easysql.mysql.data.SqlDataList;
+import com.smallaswater.easysql.mysql.data.SqlDataManager;
+import com.smallaswater.easysql.mysql.data.Transaction;
+import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+import com.smallaswater.easysql.mysql.utils.NamedThreadFactory;
+import com.smallaswater.easysql.mysql.utils.Query;
+import com.smallaswater.easysql.mysql.utils.SelectType;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * BaseMySql 的异步视图
+ * 查询在本类持有的有界线程池中执行 写入交给连接池的 {@link com.smallaswater.easysql.mysql.data.WriteScheduler}
+ * 返回 CompletableFuture 不会阻塞服务器主线程
+ *
+ * @author SmallasWater
+ */
+public class AsyncSqlManager {
+
+    public static final int DEFAULT_THREADS = 4;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final BaseMySql mySql;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 是否在服务器主线程中完成 CompletableFuture
+     */
+    private volatile boolean completeOnMainThread = false;
+
+    /**
+     * 默认超时时间 (毫秒) 0 为不限制
+     */
+    private volatile long timeout;
+
+    private ScheduledExecutorService watchdog;
+
+    public AsyncSqlManager(@NotNull BaseMySql mySql) {
+        this(mySql, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param mySql         数据库对象
+     * @param threads       线程数
+     * @param queueCapacity 等待队列容量 队列满时返回的 CompletableFuture 会以 RejectedExecutionException 完成
+     */
+    public AsyncSqlManager(@NotNull BaseMySql mySql, int threads, int queueCapacity) {
+        this.mySql = mySql;
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                new NamedThreadFactory("EasyMySQL-Async-" + mySql.getPlugin().getName()),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public boolean isCompleteOnMainThread() {
+        return completeOnMainThread;
+    }
+
+    /**
+     * 设置是否回到服务器主线程完成 CompletableFuture
+     * 开启后 thenAccept 等回调会在主线程中执行 可以直接操作玩家和世界
+     *
+     * @param completeOnMainThread 是否回到主线程
+     * @return this
+     */
+    public AsyncSqlManager setCompleteOnMainThread(boolean completeOnMainThread) {
+        this.completeOnMainThread = completeOnMainThread;
+        return this;
+    }
+
+    /**
+     * 设置 {@link #supply(Supplier)} 及所有查询 写入方法的默认超时时间
+     * 超时后返回的 CompletableFuture 以 TimeoutException 完成 正在执行的语句被中止 未开始的写入不再执行
+     *
+     * @param timeout 超时时间 0 为不限制
+     * @param unit    时间单位
+     * @return this
+     */
+    public AsyncSqlManager setTimeout(long timeout, @NotNull TimeUnit unit) {
+        this.timeout = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * @return 默认超时时间 (毫秒)
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public BaseMySql getMySql() {
+        return mySql;
+    }
+
+    /**
+     * 在线程池中执行任意操作 使用 {@link #setTimeout(long, TimeUnit)} 设置的超时时间
+     *
+     * @param supplier 操作
+     * @param <T>      返回值类型
+     * @return 异步结果
+     */
+    public <T> CompletableFuture<T> supply(@NotNull Supplier<T> supplier) {
+        return this.supply(supplier, this.timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在线程池中执行任意操作
+     * 超时或调用 CompletableFuture.cancel 时 正在执行的语句通过 Statement.cancel() 中止 连接随即归还连接池
+     * 每条语句同时使用此超时时间作为 query timeout
+     *
+     * @param supplier 操作
+     * @param timeout  超时时间 0 为不限制
+     * @param unit     时间单位
+     * @param <T>      返回值类型
+     * @return 异步结果 超时时以 TimeoutException 完成
+     */
+    public <T> CompletableFuture<T> supply(@NotNull Supplier<T> supplier, long timeout, @NotNull TimeUnit unit) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long millis = unit.toMillis(timeout);
+        QueryContext context = this.newContext(millis);
+        try {
+            this.executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    this.complete(future, context.run(supplier), null);
+                } catch (Throwable e) {
+                    this.complete(future, null, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        return this.watch(future, context, millis);
+    }
+
+    private QueryContext newContext(long millis) {
+        return new QueryContext(millis > 0 ? (int) ((millis + 999) / 1000) : 0);
+    }
+
+    /**
+     * 调用 CompletableFuture.cancel 或超时时取消上下文
+     */
+    private <T> CompletableFuture<T> watch(CompletableFuture<T> future, QueryContext context, long millis) {
+        future.whenComplete((result, throwable) -> {
+            if (throwable instanceof CancellationException) {
+                context.cancel();
+            }
+        });
+        if (millis > 0 && !future.isDone()) {
+            ScheduledFuture<?> timer = this.getWatchdog().schedule(() -> {
+                if (!future.isDone()) {
+                    context.cancel();
+                    this.complete(future, null, new TimeoutException("数据库操作超过 " + millis + "ms 未完成"));
+                }
+            }, millis, TimeUnit.MILLISECONDS);
+            future.whenComplete((result, throwable) -> timer.cancel(false));
+        }
+        return future;
+    }
+
+    private synchronized ScheduledExecutorService getWatchdog() {
+        if (this.watchdog == null) {
+            ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1,
+                    new NamedThreadFactory("EasyMySQL-Timeout-" + this.mySql.getPlugin().getName()));
+            watchdog.setRemoveOnCancelPolicy(true);
+            this.watchdog = watchdog;
+        }
+        return this.watchdog;
+    }
+
+    /**
+     * 交给连接池的写入调度器执行
+     * 开启预写日志时 数据库不可用的写入保存到本地 之后按顺序重放
+     * 使用 {@link #setTimeout(long, TimeUnit)} 设置的超时时间 超时或取消后未开始的写入不再执行
+     *
+     * @param sql 写入语句
+     * @return 是否执行成功 或已保存到预写日志
+     */
+    public CompletableFuture<Boolean> write(@NotNull PreparedSql sql) {
+        long millis = this.timeout;
+        QueryContext context = this.newContext(millis);
+        return this.watch(this.handOff(this.mySql.getWriteScheduler().submit(sql, context)), context, millis);
+    }
+
+    /**
+     * 交给写入调度器中该表的通道执行
+     */
+    private <T> CompletableFuture<T> writeTable(String tableName, Supplier<T> supplier) {
+        long millis = this.timeout;
+        QueryContext context = this.newContext(millis);
+        return this.watch(this.handOff(this.mySql.getWriteScheduler().submit(tableName, supplier, context)), context, millis);
+    }
+
+    private <T> CompletableFuture<T> handOff(CompletableFuture<T> source) {
+        if (!this.completeOnMainThread) {
+            return source;
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        source.whenComplete((result, throwable) -> this.complete(future, result, throwable));
+        return future;
+    }
+
+    private <T> void complete(CompletableFuture<T> future, T result, Throwable throwable) {
+        Plugin plugin = this.mySql.getPlugin();
+        if (this.completeOnMainThread && plugin.isEnabled() && Server.getInstance() != null) {
+            Server.getInstance().getScheduler().scheduleTask(plugin, () -> this.complete0(future, result, throwable));
+        } else {
+            this.complete0(future, result, throwable);
+        }
+    }
+
+    private <T> void complete0(CompletableFuture<T> future, T result, Throwable throwable) {
+        if (throwable != null) {
+            future.completeExceptionally(throwable);
+        } else {
+            future.complete(result);
+        }
+    }
+
+    /**
+     * 执行sql语句
+     *
+     * @param sql   sql语句
+     * @param value 参数
+     * @return 是否执行成功
+     */
+    public CompletableFuture<Boolean> executeSql(String sql, ChunkSqlType... value) {
+        if (this.mySql.getWriteBehind() != null) {
+            return this.writeTable(null, () -> this.mySql.executeSql(sql, value));
+        }
+        return this.write(new PreparedSql(sql, value));
+    }
+
+    /**
+     * 单执行MySQL函数
+     *
+     * @param functions 自定义的函数 例如 COUNT(*)
+     * @return 返回值
+     */
+    public CompletableFuture<SqlData> executeFunction(String functions) {
+        return this.supply(() -> this.mySql.executeFunction(functions));
+    }
+
+    /**
+     * 是否有数据
+     *
+     * @param tableName 表名称
+     * @param column    条件:字段
+     * @param data      条件:值
+     * @return 是否存在数据
+     */
+    public CompletableFuture<Boolean> isExistsData(String tableName, String column, String data) {
+        return this.supply(() -> this.mySql.isExistsData(tableName, column, data));
+    }
+
+    /**
+     * 修改数据
+     *
+     * @param tableName 表单名称
+     * @param data      数据
+     * @param where     参数判断
+     * @return 是否修改成功
+     */
+    public CompletableFuture<Boolean> setData(String tableName, SqlData data, SqlData where) {
+        if (this.mySql.getWriteBehind() != null) {
+            return CompletableFuture.completedFuture(this.mySql.setData(tableName, data, where));
+        }
+        return this.write(SqlDataManager.prepareSetData(tableName, data, where));
+    }
+
+    /**
+     * 添加数据
+     *
+     * @param tableName 表单名称
+     * @param data      数据
+     * @return 是否添加成功
+     */
+    public CompletableFuture<Boolean> insertData(String tableName, SqlData data) {
+        if (this.mySql.getWriteBehind() != null) {
+            return this.writeTable(tableName, () -> this.mySql.insertData(tableName, data));
+        }
+        return this.write(SqlDataManager.prepareInsertData(tableName, data));
+    }
+
+    /**
+     * 添加多条数据
+     *
+     * @param tableName 表单名称
+     * @param datas     数据列表
+     * @return 是否添加成功
+     */
+    public CompletableFuture<Boolean> insertData(String tableName, LinkedList<SqlData> datas) {
+        return this.writeTable(tableName, () -> this.mySql.insertData(tableName, datas));
+    }
+
+    /**
+     * 批量添加数据 在一个事务中提交
+     *
+     * @param tableName 表单名称
+     * @param datas     数据列表
+     * @return 每行的影响条数
+     */
+    public CompletableFuture<int[]> insertBatch(String tableName, Collection<SqlData> datas) {
+        return this.writeTable(tableName, () -> this.mySql.insertBatch(tableName, datas));
+    }
+
+    /**
+     * 添加或修改数据
+     *
+     * @param tableName  表单名称
+     * @param data       数据
+     * @param keyColumns 主键或唯一键字段
+     * @return 是否执行成功
+     */
+    public CompletableFuture<Boolean> upsert(String tableName, SqlData data, String... keyColumns) {
+        if (this.mySql.getWriteBehind() != null) {
+            return this.writeTable(tableName, () -> this.mySql.upsert(tableName, data, keyColumns));
+        }
+        return this.write(SqlDataManager.prepareUpsert(tableName, data, keyColumns));
+    }
+
+    /**
+     * 批量添加或修改数据 在一个事务中提交
+     *
+     * @param tableName  表单名称
+     * @param datas      数据列表
+     * @param keyColumns 主键或唯一键字段
+     * @return 每行的影响条数
+     */
+    public CompletableFuture<int[]> upsertAll(String tableName, Collection<SqlData> datas, String... keyColumns) {
+        return this.writeTable(tableName, () -> this.mySql.upsertAll(tableName, datas, keyColumns));
+    }
+
+    /**
+     * 在写入调度器中执行事务
+     *
+     * @param work 回调
+     * @return 是否提交成功
+     */
+    public CompletableFuture<Boolean> transaction(Transaction.Work work) {
+        return this.writeTable(null, () -> this.mySql.transaction(work));
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param tableName 表单名称
+     * @param data      数据
+     * @return 是否删除成功
+     */
+    public CompletableFuture<Boolean> deleteData(String tableName, SqlData data) {
+        if (this.mySql.getWriteBehind() != null) {
+            return this.writeTable(tableName, () -> this.mySql.deleteData(tableName, data));
+        }
+        return this.write(SqlDataManager.prepareDeleteData(tableName, data));
+    }
+
+    /**
+     * 获取数据条数
+     */
+    public CompletableFuture<Integer> getDataSize(String sql, String tableName, ChunkSqlType... sqlType) {
+        return this.supply(() -> this.mySql.getDataSize(sql, tableName, sqlType));
+    }
+
+    /**
+     * 获取数据
+     *
+     * @param tableName  表名称
+     * @param selectType 查询条件
+     * @return 数据
+     */
+    public CompletableFuture<SqlDataList<SqlData>> getData(String tableName, SelectType selectType) {
+        return this.supply(() -> this.mySql.getData(tableName, selectType));
+    }
+
+    /**
+     * 获取数据
+     *
+     * @param sql   执行查询SQL指令
+     * @param types 参数
+     * @return 数据
+     */
+    public CompletableFuture<SqlDataList<SqlData>> getData(String sql, ChunkSqlType... types) {
+        return this.supply(() -> this.mySql.getData(sql, types));
+    }
+
+    /**
+     * 使用查询构造器获取数据
+     *
+     * @param query 查询
+     * @return 数据
+     */
+    public CompletableFuture<SqlDataList<SqlData>> getData(Query query) {
+        return this.supply(() -> this.mySql.getData(query));
+    }
+
+    /**
+     * 只查询需要的字段
+     *
+     * @param tableName 表名称
+     * @param where     查询条件 每个字段都使用 = 判断
+     * @param columns   查询的字段 不填为全部字段
+     * @return 数据
+     */
+    public CompletableFuture<SqlDataList<SqlData>> getData(String tableName, SqlData where, String... columns) {
+        return this.supply(() -> this.mySql.getData(tableName, where, columns));
+    }
+
+    /**
+     * 流式获取数据 回调在异步线程中执行
+     *
+     * @param sql      执行查询SQL指令
+     * @param consumer 每行数据的回调
+     * @param types    参数
+     * @return 读取的行数 出现异常时为 -1
+     */
+    public CompletableFuture<Long> forEachData(String sql, Consumer<SqlData> consumer, ChunkSqlType... types) {
+        return this.supply(() -> this.mySql.forEachData(sql, consumer, types));
+    }
+
+    /**
+     * 流式导出整张表到本地文件
+     *
+     * @param tableName 表单名称
+     * @param file      导出的文件 以 .gz 结尾时使用 gzip 压缩
+     * @return 导出的行数 出现异常时为 -1
+     */
+    public CompletableFuture<Long> exportTable(String tableName, Path file) {
+        return this.supply(() -> this.mySql.exportTable(tableName, file));
+    }
+
+    /**
+     * 导入 exportTable 导出的文件
+     *
+     * @param file      导出的文件
+     * @param tableName 表单名称
+     * @return 导入的行数 出现异常时为 -1
+     */
+    public CompletableFuture<Long> importTable(Path file, String tableName) {
+        return this.supply(() -> this.mySql.importTable(file, tableName));
+    }
+
+    /**
+     * 关闭线程池 等待已提交的任务执行完毕
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                this.executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            this.executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (this.watchdog != null) {
+                this.watchdog.shutdownNow();
+            }
+        }
+    }
+
+    public boolean isShutdown() {
+        return this.executor.isShutdown();
+    }
+}
@@ -0,0 +1,158 @@
+package com.smallaswater.easysql.mysql.manager;
+
+import com.smallaswater.easysql.mysql.BaseMySql;
+import com.smallaswater.easysql.mysql.data.SqlData;
+import com.smallaswater.easysql.mysql.data.SqlDataManager;
+import com.smallaswater.easysql.mysql.entity.EntityMapper;
+import com.smallaswater.easysql.mysql.utils.Query;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 使用实体读写数据库
+ * 通过 {@link BaseMySql#entity(Class)} 获取
+ *
+ * @author SmallasWater
+ */
+public class EntitySqlManager<T> {
+
+    private final BaseMySql mysql;
+
+    @Getter
+    private final EntityMapper<T> mapper;
+
+    public EntitySqlManager(@NotNull BaseMySql mysql, @NotNull Class<T> type) {
+        this.mysql = mysql;
+        this.mapper = EntityMapper.of(type);
+    }
+
+    /**
+     * 按实体字段创建表
+     *
+     * @return 是否创建成功 表已存在时返回 false
+     */
+    public boolean createTable() {
+        return this.mysql.createTable(this.mapper.getTableName(), this.mapper.getTableTypes());
+    }
+
+    /**
+     * 按实体字段创建或迁移表 新增的字段会合并为一条 ALTER TABLE
+     *
+     * @return 是否成功
+     */
+    public boolean migrate() {
+        return this.mysql.migrate(this.mapper.getSchema());
+    }
+
+    /**
+     * 实体表的查询
+     *
+     * @param columns 字段 不填为 * 未查询的字段保持默认值
+     */
+    public Query query(String... columns) {
+        return Query.select(columns).from(this.mapper.getTableName());
+    }
+
+    /**
+     * 按主键查询
+     *
+     * @param id 主键值 顺序与 @Id 字段一致
+     * @return 实体 不存在或出现异常时返回 null
+     */
+    public T findById(Object... id) {
+        List<T> list = this.find(this.query().where(this.mapper.idOf(id)).limit(1));
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * 查询实体
+     *
+     * @param query 查询
+     * @return 实体列表 出现异常时返回 null
+     */
+    public List<T> find(@NotNull Query query) {
+        return SqlDataManager.select(this.mysql.getPool(), query, this.mapper::readAll);
+    }
+
+    /**
+     * @return 全部实体 出现异常时返回 null
+     */
+    public List<T> findAll() {
+        return this.find(this.query());
+    }
+
+    /**
+     * 保存实体 自增主键未设置时添加并写回主键 否则按主键添加或修改
+     *
+     * @param entity 实体
+     * @return 是否保存成功
+     */
+    public boolean save(@NotNull T entity) {
+        return this.saveAll(Collections.singletonList(entity));
+    }
+
+    /**
+     * 在一个事务中保存多个实体 新实体批量添加并写回主键 其余按主键批量添加或修改
+     *
+     * @param entities 实体列表
+     * @return 是否全部保存成功 失败时全部回滚
+     */
+    public boolean saveAll(@NotNull Collection<T> entities) {
+        ArrayList<T> created = new ArrayList<>();
+        ArrayList<SqlData> inserts = new ArrayList<>();
+        ArrayList<SqlData> upserts = new ArrayList<>();
+        for (T entity : entities) {
+            SqlData data = this.mapper.toSqlData(entity);
+            if (this.mapper.isNew(entity)) {
+                created.add(entity);
+                inserts.add(data);
+            } else {
+                upserts.add(data);
+            }
+        }
+        if (created.isEmpty() && upserts.isEmpty()) {
+            return true;
+        }
+        String tableName = this.mapper.getTableName();
+        String[] idColumns = this.mapper.getIdColumns();
+        long[] keys = this.mysql.transactionResult(transaction -> {
+            if (!upserts.isEmpty()) {
+                transaction.upsertAll(tableName, upserts, idColumns);
+            }
+            return transaction.insertReturnKeys(tableName, inserts);
+        });
+        if (keys == null) {
+            return false;
+        }
+        //提交后再写回主键 死锁重试时不会使用回滚掉的主键
+        for (int i = 0; i < keys.length; i++) {
+            this.mapper.setGeneratedId(created.get(i), keys[i]);
+        }
+        return true;
+    }
+
+    /**
+     * 按主键删除实体
+     *
+     * @param entity 实体
+     * @return 是否删除成功
+     */
+    public boolean delete(@NotNull T entity) {
+        return this.mysql.deleteData(this.mapper.getTableName(), this.mapper.getId(entity));
+    }
+
+    /**
+     * 按主键删除
+     *
+     * @param id 主键值
+     * @return 是否删除成功
+     */
+    public boolean deleteById(Object... id) {
+        return this.mysql.deleteData(this.mapper.getTableName(), this.mapper.idOf(id));
+    }
+}
@@ -31,4 +31,8 @@ public class PluginManager {
     public static void connect(Plugin plugin, BaseMySql baseMySql) {
         CONNECTION.put(plugin, baseMySql);
     }
+
+    public static void disconnect(Plugin plugin, BaseMySql baseMySql) {
+        CONNECTION.remove(plugin, baseMySql);
+    }
 }
@@ -29,7 +29,6 @@ public class SqlManager extends BaseMySql {
     }
 
     public void disable() {
-        PluginManager.getList().remove(this);
         this.shutdown();
         this.isEnable = false;
     }
@@ -5,11 +5,13 @@ import com.smallaswater.easysql.exceptions.MySqlLoginException;
 import com.smallaswater.easysql.mysql.data.SqlData;
 import com.smallaswater.easysql.mysql.data.SqlDataList;
 import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+import com.smallaswater.easysql.mysql.utils.Query;
 import com.smallaswater.easysql.mysql.utils.SelectType;
 import com.smallaswater.easysql.mysql.utils.TableType;
 import com.smallaswater.easysql.mysql.utils.UserData;
 import lombok.Getter;
 
+import java.util.Collection;
 import java.util.LinkedList;
 
 /**
@@ -70,13 +72,13 @@ public class UseTableSqlManager extends SqlManager {
      * @return 删除一个字段
      */
     public boolean deleteColumn(String args) {
-        return super.deleteColumn(args, this.tableName);
+        return super.deleteColumn(this.tableName, args);
     }
 
     @Deprecated //对于UseTableSqlManager来说不推荐使用此方法
     @Override
-    public boolean deleteColumn(String args, String tableName) {
-        return super.deleteColumn(args, tableName);
+    public boolean deleteColumn(String tableName, String args) {
+        return super.deleteColumn(tableName, args);
     }
 
     /**
@@ -121,6 +123,38 @@ public class UseTableSqlManager extends SqlManager {
         return this.insertData(this.tableName, datas);
     }
 
+    /**
+     * 批量添加数据 在一个事务中提交
+     *
+     * @param datas 数据列表
+     * @return 每行的影响条数
+     */
+    public int[] insertBatch(Collection<SqlData> datas) {
+        return this.insertBatch(this.tableName, datas);
+    }
+
+    /**
+     * 添加或修改数据
+     *
+     * @param data       数据
+     * @param keyColumns 主键或唯一键字段
+     * @return 是否执行成功
+     */
+    public boolean upsert(SqlData data, String... keyColumns) {
+        return this.upsert(this.tableName, data, keyColumns);
+    }
+
+    /**
+     * 批量添加或修改数据 在一个事务中提交
+     *
+     * @param datas      数据列表
+     * @param keyColumns 主键或唯一键字段
+     * @return 每行的影响条数
+     */
+    public int[] upsertAll(Collection<SqlData> datas, String... keyColumns) {
+        return this.upsertAll(this.tableName, datas, keyColumns);
+    }
+
     /**
      * 删除数据
      *
@@ -148,4 +182,36 @@ public class UseTableSqlManager extends SqlManager {
         return this.getData(this.tableName, selectType);
     }
 
+    /**
+     * 只查询需要的字段
+     *
+     * @param selectType 查询条件
+     * @param columns    查询的字段 不填为全部字段
+     * @return 数据
+     */
+    public SqlDataList<SqlData> getData(SelectType selectType, String... columns) {
+        return this.getData(this.tableName, selectType, columns);
+    }
+
+    /**
+     * 只查询需要的字段
+     *
+     * @param where   查询条件 每个字段都使用 = 判断
+     * @param columns 查询的字段 不填为全部字段
+     * @return 数据
+     */
+    public SqlDataList<SqlData> getData(SqlData where, String... columns) {
+        return this.getData(this.tableName, where, columns);
+    }
+
+    /**
+     * 创建查询本表的查询构造器
+     *
+     * @param columns 查询的字段 不填为全部字段
+     * @return 查询
+     */
+    public Query query(String... columns) {
+        return Query.select(columns).from(this.tableName);
+    }
+
 }
@@ -0,0 +1,389 @@
+package com.smallaswater.easysql.mysql.metrics;
+
+import cn.nukkit.Server;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.smallaswater.easysql.mysql.utils.CircuitBreaker;
+import com.smallaswater.easysql.mysql.utils.ConcurrencyLimiter;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+import com.smallaswater.easysql.mysql.utils.ReplicaSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 连接池的运行指标
+ * 按 操作 + 表名 统计耗时直方图 行数 错误数 并记录获取连接的等待时间与慢查询
+ * 每个 {@link LoginPool} 有一个实例 通过 {@link LoginPool#getMetrics()} 获取
+ *
+ * @author SmallasWater
+ */
+public class MetricsRegistry {
+
+    private static final Pattern TABLE = Pattern.compile(
+            "(?i)^\\s*(?:INSERT\\s+(?:IGNORE\\s+)?(?:INTO\\s+)?|REPLACE\\s+(?:INTO\\s+)?|UPDATE\\s+|DELETE\\s+FROM\\s+" +
+                    "|ALTER\\s+TABLE\\s+|DROP\\s+TABLE\\s+(?:IF\\s+EXISTS\\s+)?|TRUNCATE\\s+(?:TABLE\\s+)?" +
+                    "|CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?|.*?\\bFROM\\s+)`?(\\w+)`?");
+
+    /**
+     * 缓存的语句解析结果上限 超出时清空
+     */
+    private static final int MAX_STATEMENTS = 4096;
+
+    private static volatile long defaultSlowQueryThreshold = 1000;
+
+    private final LoginPool loginPool;
+
+    private final String name;
+
+    private volatile boolean enabled = true;
+
+    private volatile long slowQueryThreshold = defaultSlowQueryThreshold;
+
+    private final ConcurrentHashMap<String, OperationStats> statements = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram connectionWait = new LatencyHistogram();
+
+    private final LongAdder connectionErrors = new LongAdder();
+
+    private final LongAdder slowQueries = new LongAdder();
+
+    public MetricsRegistry(LoginPool loginPool, String name) {
+        this.loginPool = loginPool;
+        this.name = name;
+    }
+
+    /**
+     * 设置之后创建的连接池默认的慢查询阈值
+     *
+     * @param millis 阈值 (毫秒) 0 为不记录
+     */
+    public static void setDefaultSlowQueryThreshold(long millis) {
+        defaultSlowQueryThreshold = millis;
+    }
+
+    public static long getDefaultSlowQueryThreshold() {
+        return defaultSlowQueryThreshold;
+    }
+
+    /**
+     * @return 连接池名称 database@host
+     */
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 开关指标统计
+     *
+     * @param enabled 是否统计
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * 设置慢查询阈值 耗时超过阈值的语句会输出到控制台
+     *
+     * @param millis 阈值 (毫秒) 0 为不记录
+     */
+    public void setSlowQueryThreshold(long millis) {
+        this.slowQueryThreshold = millis;
+    }
+
+    /**
+     * 记录一次获取连接
+     *
+     * @param startNanos 开始时间 {@link System#nanoTime()}
+     * @param error      是否获取失败
+     */
+    public void recordConnection(long startNanos, boolean error) {
+        if (!this.enabled) {
+            return;
+        }
+        this.connectionWait.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        if (error) {
+            this.connectionErrors.increment();
+        }
+    }
+
+    /**
+     * 记录一次语句执行 耗时包含获取连接的时间
+     *
+     * @param sql        SQL 语句
+     * @param startNanos 开始时间 {@link System#nanoTime()}
+     * @param rows       返回或影响的行数
+     * @param error      是否出现异常
+     */
+    public void record(String sql, long startNanos, long rows, boolean error) {
+        if (!this.enabled) {
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        OperationStats stats = this.getStats(sql);
+        stats.latency.record(micros);
+        if (rows > 0) {
+            stats.rows.add(rows);
+        }
+        if (error) {
+            stats.errors.increment();
+        }
+        long threshold = this.slowQueryThreshold;
+        if (threshold > 0 && micros >= threshold * 1000) {
+            this.slowQueries.increment();
+            Server.getInstance().getLogger().warning("[EasyMySQL] 慢查询 " + (micros / 1000) + "ms (" + this.name + "): " + sql);
+        }
+    }
+
+    private OperationStats getStats(String sql) {
+        OperationStats stats = this.statements.get(sql);
+        if (stats == null) {
+            String operation = getOperation(sql);
+            String table = getTable(sql);
+            stats = this.operations.computeIfAbsent(operation + '\u0000' + table, k -> new OperationStats(operation, table));
+            if (this.statements.size() >= MAX_STATEMENTS) {
+                this.statements.clear();
+            }
+            this.statements.put(sql, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * @return 全部操作的统计
+     */
+    public Collection<OperationStats> getOperations() {
+        return Collections.unmodifiableCollection(this.operations.values());
+    }
+
+    /**
+     * 获取某个操作的统计
+     *
+     * @param operation 操作 例如 SELECT
+     * @param table     表名 小写
+     * @return 统计 没有记录时为 null
+     */
+    public OperationStats getOperation(String operation, String table) {
+        return this.operations.get(operation.toUpperCase() + '\u0000' + table.toLowerCase());
+    }
+
+    /**
+     * @return 获取连接的等待时间
+     */
+    public LatencyHistogram getConnectionWait() {
+        return connectionWait;
+    }
+
+    public long getConnectionErrors() {
+        return connectionErrors.sum();
+    }
+
+    public long getSlowQueries() {
+        return slowQueries.sum();
+    }
+
+    /**
+     * 读取连接池当前状态
+     *
+     * @return 连接池状态
+     */
+    public PoolStats getPoolStats() {
+        DruidDataSource dataSource = this.loginPool.dataSource;
+        return new PoolStats(dataSource.getActiveCount(), dataSource.getPoolingCount(), dataSource.getMaxActive(),
+                dataSource.getWaitThreadCount(), dataSource.getNotEmptyWaitCount(), dataSource.getNotEmptyWaitMillis());
+    }
+
+    /**
+     * 清空统计
+     */
+    public void reset() {
+        this.statements.clear();
+        this.operations.clear();
+        this.connectionWait.reset();
+        this.connectionErrors.reset();
+        this.slowQueries.reset();
+    }
+
+    /**
+     * 生成可读的统计信息 用于 /easysql stats
+     *
+     * @return 每行一条信息
+     */
+    public List<String> getReport() {
+        ArrayList<String> lines = new ArrayList<>();
+        PoolStats pool = this.getPoolStats();
+        lines.add("[EasyMySQL] " + this.name + " 连接: 活动 " + pool.getActive() + "/" + pool.getMaxActive() +
+                " 空闲 " + pool.getIdle() + " 等待线程 " + pool.getWaitThreads() +
+                " 获取连接 " + format(this.connectionWait) + " 失败 " + this.getConnectionErrors() +
+                " 慢查询 " + this.getSlowQueries());
+        CircuitBreaker breaker = this.loginPool.getCircuitBreaker();
+        ConcurrencyLimiter limiter = this.loginPool.getConcurrencyLimiter();
+        if (breaker != null || limiter != null) {
+            lines.add("  熔断器: " + (breaker == null ? "未开启" : breaker.getState().name()) +
+                    " 并发限制: " + (limiter == null ? "未开启" : limiter.getInflight() + "/" + limiter.getLimit()));
+        }
+        ReplicaSet replicas = this.loginPool.getReplicas();
+        if (replicas != null) {
+            for (ReplicaSet.Replica replica : replicas.getReplicas()) {
+                lines.add("  从库 " + replica.getName() + ": " + (replica.isHealthy() ? "正常" : "暂停") +
+                        " 延迟 " + replica.getLagMillis() + "ms 活动 " + replica.getDataSource().getActiveCount() +
+                        "/" + replica.getDataSource().getMaxActive());
+            }
+        }
+        ArrayList<OperationStats> list = new ArrayList<>(this.operations.values());
+        list.sort((a, b) -> Long.compare(b.latency.getTotal(), a.latency.getTotal()));
+        for (OperationStats stats : list) {
+            lines.add("  " + stats.operation + " " + stats.table + ": " + stats.latency.getCount() + " 次 " +
+                    format(stats.latency) + " 行数 " + stats.getRows() + " 错误 " + stats.getErrors());
+        }
+        return lines;
+    }
+
+    private static String format(LatencyHistogram histogram) {
+        return String.format("p50 %.2fms p99 %.2fms max %.2fms",
+                histogram.getPercentile(50) / 1000D, histogram.getPercentile(99) / 1000D, histogram.getMax() / 1000D);
+    }
+
+    private static String getOperation(String sql) {
+        String trim = sql.trim();
+        int end = 0;
+        while (end < trim.length() && Character.isLetter(trim.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? "OTHER" : trim.substring(0, end).toUpperCase();
+    }
+
+    private static String getTable(String sql) {
+        Matcher matcher = TABLE.matcher(sql);
+        return matcher.find() ? matcher.group(1).toLowerCase() : "";
+    }
+
+    /**
+     * 一种操作的统计
+     */
+    public static class OperationStats {
+
+        private final String operation;
+
+        private final String table;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private final LongAdder rows = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        OperationStats(String operation, String table) {
+            this.operation = operation;
+            this.table = table;
+        }
+
+        /**
+         * @return 操作 例如 SELECT INSERT
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return 表名 无法识别时为空字符串
+         */
+        public String getTable() {
+            return table;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+    }
+
+    /**
+     * 连接池状态
+     */
+    public static class PoolStats {
+
+        private final int active;
+
+        private final int idle;
+
+        private final int maxActive;
+
+        private final int waitThreads;
+
+        private final long waitCount;
+
+        private final long waitMillis;
+
+        PoolStats(int active, int idle, int maxActive, int waitThreads, long waitCount, long waitMillis) {
+            this.active = active;
+            this.idle = idle;
+            this.maxActive = maxActive;
+            this.waitThreads = waitThreads;
+            this.waitCount = waitCount;
+            this.waitMillis = waitMillis;
+        }
+
+        /**
+         * @return 正在使用的连接数
+         */
+        public int getActive() {
+            return active;
+        }
+
+        /**
+         * @return 空闲连接数
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getMaxActive() {
+            return maxActive;
+        }
+
+        /**
+         * @return 正在等待连接的线程数
+         */
+        public int getWaitThreads() {
+            return waitThreads;
+        }
+
+        /**
+         * @return 连接池为空时等待的累计次数
+         */
+        public long getWaitCount() {
+            return waitCount;
+        }
+
+        /**
+         * @return 连接池为空时等待的累计时间 (毫秒)
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.smallaswater.easysql.mysql.metrics;
+
+import com.smallaswater.easysql.mysql.utils.NamedThreadFactory;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * 以 Prometheus 文本格式导出指标
+ * 在本地端口提供 /metrics 接口
+ *
+ * @author SmallasWater
+ */
+public class PrometheusExporter {
+
+    private final Supplier<Collection<MetricsRegistry>> registries;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * @param registries 需要导出的指标 每次请求时调用
+     */
+    public PrometheusExporter(Supplier<Collection<MetricsRegistry>> registries) {
+        this.registries = registries;
+    }
+
+    /**
+     * 开始监听
+     *
+     * @param host 监听地址 建议 127.0.0.1
+     * @param port 端口
+     */
+    public synchronized void start(String host, int port) throws IOException {
+        if (this.server != null) {
+            return;
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = scrape(this.registries.get()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        this.executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("EasyMySQL-Metrics"));
+        server.setExecutor(this.executor);
+        server.start();
+        this.server = server;
+    }
+
+    /**
+     * 停止监听
+     */
+    public synchronized void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.executor.shutdownNow();
+            this.server = null;
+            this.executor = null;
+        }
+    }
+
+    /**
+     * 生成 Prometheus 文本格式的指标
+     *
+     * @param registries 指标
+     * @return 文本
+     */
+    public static String scrape(Collection<MetricsRegistry> registries) {
+        StringBuilder out = new StringBuilder();
+
+        header(out, "easysql_query_duration_seconds", "summary", "语句执行耗时 包含获取连接的时间");
+        for (MetricsRegistry registry : registries) {
+            for (MetricsRegistry.OperationStats stats : registry.getOperations()) {
+                summary(out, "easysql_query_duration_seconds", operationLabels(registry, stats), stats.getLatency());
+            }
+        }
+        header(out, "easysql_query_duration_max_seconds", "gauge", "语句执行的最大耗时");
+        for (MetricsRegistry registry : registries) {
+            for (MetricsRegistry.OperationStats stats : registry.getOperations()) {
+                sample(out, "easysql_query_duration_max_seconds", operationLabels(registry, stats), stats.getLatency().getMax() / 1e6);
+            }
+        }
+        header(out, "easysql_query_rows_total", "counter", "返回或影响的行数");
+        for (MetricsRegistry registry : registries) {
+            for (MetricsRegistry.OperationStats stats : registry.getOperations()) {
+                sample(out, "easysql_query_rows_total", operationLabels(registry, stats), stats.getRows());
+            }
+        }
+        header(out, "easysql_query_errors_total", "counter", "执行出现异常的次数");
+        for (MetricsRegistry registry : registries) {
+            for (MetricsRegistry.OperationStats stats : registry.getOperations()) {
+                sample(out, "easysql_query_errors_total", operationLabels(registry, stats), stats.getErrors());
+            }
+        }
+        header(out, "easysql_slow_queries_total", "counter", "慢查询次数");
+        for (MetricsRegistry registry : registries) {
+            sample(out, "easysql_slow_queries_total", poolLabels(registry), registry.getSlowQueries());
+        }
+        header(out, "easysql_connection_acquire_seconds", "summary", "获取连接的耗时");
+        for (MetricsRegistry registry : registries) {
+            summary(out, "easysql_connection_acquire_seconds", poolLabels(registry), registry.getConnectionWait());
+        }
+        header(out, "easysql_connection_errors_total", "counter", "获取连接失败的次数");
+        for (MetricsRegistry registry : registries) {
+            sample(out, "easysql_connection_errors_total", poolLabels(registry), registry.getConnectionErrors());
+        }
+
+        MetricsRegistry.PoolStats[] pools = new MetricsRegistry.PoolStats[registries.size()];
+        int i = 0;
+        for (MetricsRegistry registry : registries) {
+            pools[i++] = registry.getPoolStats();
+        }
+        header(out, "easysql_pool_active_connections", "gauge", "正在使用的连接数");
+        i = 0;
+        for (MetricsRegistry registry : registries) {
+            sample(out, "easysql_pool_active_connections", poolLabels(registry), pools[i++].getActive());
+        }
+        header(out, "easysql_pool_idle_connections", "gauge", "空闲连接数");
+        i = 0;
+        for (MetricsRegistry registry : registries) {
+            sample(out, "easysql_pool_idle_connections", poolLabels(registry), pools[i++].getIdle());
+        }
+        header(out, "easysql_pool_max_connections", "gauge", "最大连接数");
+        i = 0;
+        for (MetricsRegistry registry : registries) {
+            sample(out, "easysql_pool_max_connections", poolLabels(registry), pools[i++].getMaxActive());
+        }
+        header(out, "easysql_pool_waiting_threads", "gauge", "正在等待连接的线程数");
+        i = 0;
+        for (MetricsRegistry registry : registries) {
+            sample(out, "easysql_pool_waiting_threads", poolLabels(registry), pools[i++].getWaitThreads());
+        }
+        header(out, "easysql_pool_wait_total", "counter", "连接池为空时等待的次数");
+        i = 0;
+        for (MetricsRegistry registry : registries) {
+            sample(out, "easysql_pool_wait_total", poolLabels(registry), pools[i++].getWaitCount());
+        }
+        header(out, "easysql_pool_wait_seconds_total", "counter", "连接池为空时等待的时间");
+        i = 0;
+        for (MetricsRegistry registry : registries) {
+            sample(out, "easysql_pool_wait_seconds_total", poolLabels(registry), pools[i++].getWaitMillis() / 1e3);
+        }
+        return out.toString();
+    }
+
+    private static String poolLabels(MetricsRegistry registry) {
+        return "pool=\"" + escape(registry.getName()) + "\"";
+    }
+
+    private static String operationLabels(MetricsRegistry registry, MetricsRegistry.OperationStats stats) {
+        return poolLabels(registry) + ",operation=\"" + escape(stats.getOperation()) +
+                "\",table=\"" + escape(stats.getTable()) + "\"";
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        sample(out, name, labels + ",quantile=\"0.5\"", histogram.getPercentile(50) / 1e6);
+        sample(out, name, labels + ",quantile=\"0.99\"", histogram.getPercentile(99) / 1e6);
+        sample(out, name + "_sum", labels, histogram.getTotal() / 1e6);
+        sample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,120 @@
+package com.smallaswater.easysql.mysql.migration;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 解析 TableType 的字段定义 例如 int(10) auto_increment primary key
+ * 拆分为 类型 / 是否允许 NULL / 默认值 / 自增 以及行内的主键和唯一键
+ *
+ * @author SmallasWater
+ */
+class ColumnDefinition {
+
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "(?i)\\s+(?=(?:not\\s+null|null|default|auto_increment|primary\\s+key|unique|key|comment|collate|character\\s+set|charset|on\\s+update)\\b)");
+
+    private static final Pattern INLINE_KEY = Pattern.compile("(?i)\\s+(?:primary\\s+key|unique(?:\\s+key)?|key)\\b");
+
+    private static final Pattern DEFAULT = Pattern.compile("(?i)\\bdefault\\s+('(?:[^']|'')*'|\\S+)");
+
+    private static final Pattern INT_WIDTH = Pattern.compile("^(tinyint|smallint|mediumint|int|bigint)\\(\\d+\\)");
+
+    private static final Pattern LOB_LENGTH = Pattern.compile("^(text|blob)\\((\\d+)\\)$");
+
+    final String name;
+
+    /**
+     * 不包含行内主键与唯一键的字段定义
+     */
+    final String sql;
+
+    final String type;
+
+    final boolean nullable;
+
+    final boolean autoIncrement;
+
+    final boolean primaryKey;
+
+    final boolean unique;
+
+    /**
+     * 默认值 没有设置时为 null
+     */
+    final String defaultValue;
+
+    ColumnDefinition(String name, String definition) {
+        this.name = name;
+        String trimmed = definition.trim();
+        String lower = trimmed.toLowerCase();
+        Matcher matcher = ATTRIBUTE.matcher(trimmed);
+        String type = matcher.find() ? trimmed.substring(0, matcher.start()) : trimmed;
+        this.type = normalizeType(type);
+        this.primaryKey = lower.matches("(?s).*\\bprimary\\s+key\\b.*");
+        this.unique = lower.matches("(?s).*\\bunique\\b.*");
+        this.nullable = !this.primaryKey && !lower.matches("(?s).*\\bnot\\s+null\\b.*");
+        this.autoIncrement = lower.matches("(?s).*\\bauto_increment\\b.*");
+        Matcher value = DEFAULT.matcher(trimmed);
+        this.defaultValue = value.find() ? value.group(1) : null;
+        String sql = INLINE_KEY.matcher(trimmed).replaceAll("").trim();
+        if (this.primaryKey && !lower.matches("(?s).*\\bnot\\s+null\\b.*")) {
+            sql += " not null";
+        }
+        this.sql = sql;
+    }
+
+    /**
+     * 统一类型的写法 MySQL 8.0.19 起整数不再显示宽度 text(n) / blob(n) 会被转换为合适的类型
+     *
+     * @param type 字段类型
+     * @return 小写 无空格的类型
+     */
+    static String normalizeType(String type) {
+        String lower = type.toLowerCase().replaceAll("\\s+", " ").trim();
+        lower = lower.replace(" (", "(").replace(", ", ",");
+        if (lower.startsWith("integer")) {
+            lower = "int" + lower.substring(7);
+        } else if ("bool".equals(lower) || "boolean".equals(lower)) {
+            lower = "tinyint(1)";
+        }
+        if (!lower.startsWith("tinyint(1)")) {
+            lower = INT_WIDTH.matcher(lower).replaceFirst("$1");
+        }
+        Matcher lob = LOB_LENGTH.matcher(lower);
+        if (lob.matches()) {
+            long length = Long.parseLong(lob.group(2));
+            String prefix = length < 256 ? "tiny" : length < 65536 ? "" : length < 16777216 ? "medium" : "long";
+            lower = prefix + lob.group(1);
+        }
+        return lower;
+    }
+
+    /**
+     * 去掉引号后比较默认值 数字按数值比较
+     */
+    static boolean sameDefault(String declared, String liveDefault) {
+        String live = liveDefault;
+        String value = declared;
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            value = value.substring(1, value.length() - 1).replace("''", "'");
+        } else if ("null".equalsIgnoreCase(value)) {
+            return live == null;
+        }
+        if (live == null) {
+            return false;
+        }
+        if (live.length() >= 2 && live.startsWith("'") && live.endsWith("'")) {
+            //MariaDB 返回带引号的默认值
+            live = live.substring(1, live.length() - 1).replace("''", "'");
+        }
+        if (value.equalsIgnoreCase(live)) {
+            return true;
+        }
+        try {
+            return Double.parseDouble(value) == Double.parseDouble(live);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.smallaswater.easysql.mysql.migration;
+
+import cn.nukkit.Server;
+import com.smallaswater.easysql.mysql.data.QueryCache;
+import com.smallaswater.easysql.mysql.data.SqlData;
+import com.smallaswater.easysql.mysql.data.SqlDataList;
+import com.smallaswater.easysql.mysql.data.SqlDataManager;
+import com.smallaswater.easysql.mysql.utils.ChunkSqlType;
+import com.smallaswater.easysql.mysql.utils.LoginPool;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 表结构迁移
+ * 比较声明的 {@link TableSchema} 与数据库中的表 每张表只生成一条合并的 ALTER TABLE
+ * 只包含可以 INSTANT / INPLACE 执行的修改时加上 ALGORITHM 不支持时自动降级重试
+ * 执行过的语句记录在 easysql_schema_history 表中 每次修改表的版本号加一
+ * 默认不删除未声明的字段与索引 需要时使用 {@link #setDropUnknown(boolean)}
+ *
+ * @author SmallasWater
+ */
+public class SchemaMigrator {
+
+    public static final String HISTORY_TABLE = "easysql_schema_history";
+
+    private static final int ER_ALTER_OPERATION_NOT_SUPPORTED = 1845;
+
+    private static final int ER_ALTER_OPERATION_NOT_SUPPORTED_REASON = 1846;
+
+    private static final int INSTANT = 0;
+
+    private static final int INPLACE = 1;
+
+    private static final int COPY = 2;
+
+    private static final Pattern VERSION = Pattern.compile("^(\\d+)\\.(\\d+)\\.(\\d+)");
+
+    private static final Pattern VARCHAR = Pattern.compile("^varchar\\((\\d+)\\)$");
+
+    private final LoginPool loginPool;
+
+    private boolean dropUnknown;
+
+    public SchemaMigrator(@NotNull LoginPool loginPool) {
+        this.loginPool = loginPool;
+    }
+
+    /**
+     * @param dropUnknown 是否删除数据库中存在但没有声明的字段 索引与主键
+     */
+    public SchemaMigrator setDropUnknown(boolean dropUnknown) {
+        this.dropUnknown = dropUnknown;
+        return this;
+    }
+
+    /**
+     * 生成迁移语句 不执行
+     *
+     * @param schemas 声明的表结构
+     * @return 需要执行的语句 出现异常时返回 null
+     */
+    public List<String> plan(TableSchema... schemas) {
+        try (Connection connection = this.loginPool.getConnection()) {
+            ArrayList<String> list = new ArrayList<>();
+            for (Change change : this.diff(connection, schemas)) {
+                list.add(change.toSql(change.algorithm));
+            }
+            return list;
+        } catch (SQLException e) {
+            Server.getInstance().getLogger().error("读取表结构出现异常", e);
+            return null;
+        }
+    }
+
+    /**
+     * 将数据库中的表迁移到声明的结构 不存在的表会被创建
+     * 某张表失败时继续迁移其他表
+     *
+     * @param schemas 声明的表结构
+     * @return 是否全部成功
+     */
+    public boolean migrate(TableSchema... schemas) {
+        try (Connection connection = this.loginPool.getConnection()) {
+            List<Change> changes = this.diff(connection, schemas);
+            if (changes.isEmpty()) {
+                return true;
+            }
+            this.createHistoryTable(connection);
+            Map<String, Integer> versions = this.loadVersions(connection);
+            boolean success = true;
+            for (Change change : changes) {
+                int version = versions.getOrDefault(change.table.toLowerCase(), 0) + 1;
+                success &= this.execute(connection, change, version);
+            }
+            return success;
+        } catch (SQLException e) {
+            Server.getInstance().getLogger().error("迁移表结构出现异常", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param tableName 表名
+     * @return 表的迁移记录 按版本排序
+     */
+    public SqlDataList<SqlData> getHistory(@NotNull String tableName) {
+        return SqlDataManager.selectExecute(this.loginPool, "SELECT * FROM " + HISTORY_TABLE + " WHERE table_name = ? ORDER BY id",
+                new ChunkSqlType(1, tableName));
+    }
+
+    private List<Change> diff(Connection connection, TableSchema... schemas) throws SQLException {
+        ArrayList<Change> changes = new ArrayList<>();
+        if (schemas.length == 0) {
+            return changes;
+        }
+        Map<String, LiveTable> tables = this.loadTables(connection, schemas);
+        boolean[] instant = instantSupport(connection.getMetaData());
+        for (TableSchema schema : schemas) {
+            LiveTable live = tables.get(schema.getTableName().toLowerCase());
+            if (live == null) {
+                changes.add(new Change(schema.getTableName(), schema.toCreateSql(), COPY));
+                continue;
+            }
+            Change change = this.alter(schema, live, instant[0], instant[1]);
+            if (change != null) {
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
+    private Change alter(TableSchema schema, LiveTable live, boolean instantAdd, boolean instantDrop) {
+        ArrayList<String> drops = new ArrayList<>();
+        ArrayList<String> changes = new ArrayList<>();
+        ArrayList<String> adds = new ArrayList<>();
+        int algorithm = INSTANT;
+        HashSet<String> declaredIndexes = new HashSet<>();
+        for (TableSchema.Index index : schema.getIndexes()) {
+            declaredIndexes.add(index.name.toLowerCase());
+            TableSchema.Index current = live.indexes.get(index.name.toLowerCase());
+            if (current != null && current.unique == index.unique && equalsIgnoreCase(current.columns, index.columns)) {
+                continue;
+            }
+            if (current != null) {
+                drops.add("DROP INDEX " + current.name);
+            }
+            adds.add("ADD " + index.toSql());
+            algorithm = Math.max(algorithm, INPLACE);
+        }
+        if (this.dropUnknown) {
+            for (TableSchema.Index index : live.indexes.values()) {
+                if (!declaredIndexes.contains(index.name.toLowerCase())) {
+                    drops.add("DROP INDEX " + index.name);
+                    algorithm = Math.max(algorithm, INPLACE);
+                }
+            }
+        }
+        List<String> primaryKey = schema.getPrimaryKey();
+        if (!primaryKey.isEmpty() && !equalsIgnoreCase(primaryKey, live.primaryKey)) {
+            if (!live.primaryKey.isEmpty()) {
+                drops.add("DROP PRIMARY KEY");
+            }
+            adds.add("ADD PRIMARY KEY (" + String.join(",", primaryKey) + ")");
+            algorithm = Math.max(algorithm, INPLACE);
+        } else if (primaryKey.isEmpty() && !live.primaryKey.isEmpty() && this.dropUnknown) {
+            drops.add("DROP PRIMARY KEY");
+            algorithm = COPY;
+        }
+        HashSet<String> declaredColumns = new HashSet<>();
+        for (ColumnDefinition column : schema.getColumns()) {
+            declaredColumns.add(column.name.toLowerCase());
+            LiveColumn current = live.columns.get(column.name.toLowerCase());
+            if (current == null) {
+                changes.add("ADD COLUMN " + column.name + " " + column.sql);
+                algorithm = Math.max(algorithm, instantAdd && !column.autoIncrement ? INSTANT : INPLACE);
+                continue;
+            }
+            boolean sameType = column.type.equals(ColumnDefinition.normalizeType(current.type));
+            if (!sameType || column.nullable != current.nullable || column.autoIncrement != current.autoIncrement) {
+                changes.add("MODIFY COLUMN " + column.name + " " + column.sql);
+                algorithm = Math.max(algorithm, sameType || isWidening(current.type, column.type) ? INPLACE : COPY);
+            } else if (column.defaultValue != null && !ColumnDefinition.sameDefault(column.defaultValue, current.defaultValue)) {
+                changes.add("ALTER COLUMN " + column.name + " SET DEFAULT " + column.defaultValue);
+            }
+        }
+        if (this.dropUnknown) {
+            for (LiveColumn column : live.columns.values()) {
+                if (!declaredColumns.contains(column.name.toLowerCase())) {
+                    drops.add("DROP COLUMN " + column.name);
+                    algorithm = Math.max(algorithm, instantDrop ? INSTANT : INPLACE);
+                }
+            }
+        }
+        if (schema.getCharset() != null && !normalizeCharset(schema.getCharset()).equals(normalizeCharset(live.charset))) {
+            adds.add("CONVERT TO CHARACTER SET " + schema.getCharset());
+            algorithm = COPY;
+        }
+        if (drops.isEmpty() && changes.isEmpty() && adds.isEmpty()) {
+            return null;
+        }
+        if (algorithm == INSTANT && !instantAdd) {
+            //MySQL 8.0.12 之前没有 ALGORITHM=INSTANT
+            algorithm = INPLACE;
+        }
+        drops.addAll(changes);
+        drops.addAll(adds);
+        return new Change(schema.getTableName(), "ALTER TABLE " + schema.getTableName() + " " + String.join(", ", drops), algorithm);
+    }
+
+    /**
+     * 执行一条迁移语句 ALGORITHM 不支持时降级重试 并记录到迁移历史
+     */
+    private boolean execute(Connection connection, Change change, int version) {
+        int algorithm = change.algorithm;
+        String sql = change.toSql(algorithm);
+        boolean success = false;
+        long start = System.nanoTime();
+        while (true) {
+            try (Statement statement = connection.createStatement()) {
+                //大表的 ALTER 可能需要很长时间 不使用连接池的 query-timeout
+                statement.setQueryTimeout(0);
+                statement.execute(sql);
+                success = true;
+                break;
+            } catch (SQLException e) {
+                int code = e.getErrorCode();
+                if (algorithm < COPY && (code == ER_ALTER_OPERATION_NOT_SUPPORTED || code == ER_ALTER_OPERATION_NOT_SUPPORTED_REASON)) {
+                    sql = change.toSql(++algorithm);
+                    continue;
+                }
+                Server.getInstance().getLogger().error("迁移表 " + change.table + " 出现异常 " + sql, e);
+                break;
+            }
+        }
+        this.loginPool.getMetrics().record(sql, start, 0, !success);
+        this.loginPool.getSchema().invalidate(change.table);
+        QueryCache cache = this.loginPool.getQueryCache();
+        if (cache != null) {
+            cache.invalidateSql(sql);
+        }
+        this.record(connection, change.table, version, sql, success, start);
+        if (success) {
+            Server.getInstance().getLogger().info("已迁移表 " + change.table + " 到版本 " + version + ": " + sql);
+        }
+        return success;
+    }
+
+    private void record(Connection connection, String table, int version, String sql, boolean success, long start) {
+        String insert = "INSERT INTO " + HISTORY_TABLE + "(table_name,version,statement,success,execution_time,installed_at) VALUES (?,?,?,?,?,NOW())";
+        try (PreparedStatement statement = connection.prepareStatement(insert)) {
+            statement.setString(1, table);
+            statement.setInt(2, version);
+            statement.setString(3, sql);
+            statement.setBoolean(4, success);
+            statement.setLong(5, (System.nanoTime() - start) / 1000000L);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            Server.getInstance().getLogger().error("记录迁移历史出现异常", e);
+        }
+    }
+
+    private void createHistoryTable(Connection connection) throws SQLException {
+        if (this.loginPool.getSchema().isExistTable(HISTORY_TABLE)) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + HISTORY_TABLE + "(id bigint(20) not null auto_increment," +
+                    "table_name varchar(64) not null,version int(10) not null,statement text not null," +
+                    "success tinyint(1) not null,execution_time bigint(20) not null,installed_at datetime not null," +
+                    "PRIMARY KEY (id),KEY idx_table (table_name,version))engine=InnoDB default charset=utf8");
+        }
+        this.loginPool.getSchema().invalidate(HISTORY_TABLE);
+    }
+
+    private Map<String, Integer> loadVersions(Connection connection) throws SQLException {
+        HashMap<String, Integer> versions = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT table_name, MAX(version) FROM " + HISTORY_TABLE + " WHERE success = 1 GROUP BY table_name")) {
+            while (resultSet.next()) {
+                versions.merge(resultSet.getString(1).toLowerCase(), resultSet.getInt(2), Math::max);
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * 三条 information_schema 查询读取全部声明表的字段 索引与字符集
+     */
+    private Map<String, LiveTable> loadTables(Connection connection, TableSchema... schemas) throws SQLException {
+        String[] names = new String[schemas.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = schemas[i].getTableName().toLowerCase();
+        }
+        String where = " WHERE TABLE_SCHEMA = DATABASE() AND LOWER(TABLE_NAME) IN (" + String.join(",", Collections.nCopies(names.length, "?")) + ")";
+        HashMap<String, LiveTable> tables = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT TABLE_NAME, TABLE_COLLATION FROM information_schema.TABLES" + where)) {
+            try (ResultSet resultSet = bind(statement, names).executeQuery()) {
+                while (resultSet.next()) {
+                    String collation = resultSet.getString(2);
+                    int index = collation == null ? -1 : collation.indexOf('_');
+                    tables.put(resultSet.getString(1).toLowerCase(), new LiveTable(index < 0 ? collation : collation.substring(0, index)));
+                }
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT TABLE_NAME, COLUMN_NAME, COLUMN_TYPE, IS_NULLABLE, COLUMN_DEFAULT, EXTRA" +
+                " FROM information_schema.COLUMNS" + where + " ORDER BY TABLE_NAME, ORDINAL_POSITION")) {
+            try (ResultSet resultSet = bind(statement, names).executeQuery()) {
+                while (resultSet.next()) {
+                    LiveTable table = tables.get(resultSet.getString(1).toLowerCase());
+                    if (table != null) {
+                        LiveColumn column = new LiveColumn(resultSet.getString(2), resultSet.getString(3),
+                                "YES".equalsIgnoreCase(resultSet.getString(4)), resultSet.getString(5),
+                                String.valueOf(resultSet.getString(6)).toLowerCase().contains("auto_increment"));
+                        table.columns.put(column.name.toLowerCase(), column);
+                    }
+                }
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT TABLE_NAME, INDEX_NAME, NON_UNIQUE, COLUMN_NAME" +
+                " FROM information_schema.STATISTICS" + where + " ORDER BY TABLE_NAME, INDEX_NAME, SEQ_IN_INDEX")) {
+            try (ResultSet resultSet = bind(statement, names).executeQuery()) {
+                LinkedHashMap<String, ArrayList<String>> columns = new LinkedHashMap<>();
+                HashMap<String, Boolean> unique = new HashMap<>();
+                HashMap<String, String> indexNames = new HashMap<>();
+                while (resultSet.next()) {
+                    String key = resultSet.getString(1).toLowerCase() + "\0" + resultSet.getString(2);
+                    columns.computeIfAbsent(key, k -> new ArrayList<>()).add(resultSet.getString(4));
+                    unique.put(key, resultSet.getInt(3) == 0);
+                    indexNames.put(key, resultSet.getString(2));
+                }
+                for (Map.Entry<String, ArrayList<String>> entry : columns.entrySet()) {
+                    LiveTable table = tables.get(entry.getKey().substring(0, entry.getKey().indexOf('\0')));
+                    String name = indexNames.get(entry.getKey());
+                    if (table == null) {
+                        continue;
+                    }
+                    if ("PRIMARY".equalsIgnoreCase(name)) {
+                        table.primaryKey.addAll(entry.getValue());
+                    } else {
+                        table.indexes.put(name.toLowerCase(), new TableSchema.Index(name, unique.get(entry.getKey()),
+                                entry.getValue().toArray(new String[0])));
+                    }
+                }
+            }
+        }
+        return tables;
+    }
+
+    private static PreparedStatement bind(PreparedStatement statement, String[] names) throws SQLException {
+        for (int i = 0; i < names.length; i++) {
+            statement.setString(i + 1, names[i]);
+        }
+        return statement;
+    }
+
+    /**
+     * @return [是否支持 INSTANT 添加字段 (MySQL 8.0.12+), 是否支持 INSTANT 删除字段 (MySQL 8.0.29+)]
+     */
+    private static boolean[] instantSupport(DatabaseMetaData data) throws SQLException {
+        String version = data.getDatabaseProductVersion();
+        Matcher matcher = VERSION.matcher(version);
+        if (version.toLowerCase().contains("mariadb") || !matcher.find()) {
+            return new boolean[]{false, false};
+        }
+        int major = Integer.parseInt(matcher.group(1));
+        int minor = Integer.parseInt(matcher.group(2));
+        int patch = Integer.parseInt(matcher.group(3));
+        boolean mysql8 = major > 8 || major == 8 && minor > 0;
+        return new boolean[]{mysql8 || major == 8 && patch >= 12, mysql8 || major == 8 && patch >= 29};
+    }
+
+    /**
+     * varchar 只增加长度时可以 INPLACE (长度字节数不变时)
+     */
+    private static boolean isWidening(String liveType, String declaredType) {
+        Matcher live = VARCHAR.matcher(ColumnDefinition.normalizeType(liveType));
+        Matcher declared = VARCHAR.matcher(declaredType);
+        return live.matches() && declared.matches() && Integer.parseInt(declared.group(1)) >= Integer.parseInt(live.group(1));
+    }
+
+    private static String normalizeCharset(String charset) {
+        String lower = charset == null ? "" : charset.toLowerCase();
+        return "utf8".equals(lower) ? "utf8mb3" : lower;
+    }
+
+    private static boolean equalsIgnoreCase(List<String> a, List<String> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).equalsIgnoreCase(b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 一张表的迁移语句
+     */
+    private static final class Change {
+
+        private final String table;
+
+        private final String sql;
+
+        private final int algorithm;
+
+        private Change(String table, String sql, int algorithm) {
+            this.table = table;
+            this.sql = sql;
+            this.algorithm = algorithm;
+        }
+
+        private String toSql(int algorithm) {
+            if (algorithm == INSTANT) {
+                return this.sql + ", ALGORITHM=INSTANT";
+            } else if (algorithm == INPLACE) {
+                return this.sql + ", ALGORITHM=INPLACE";
+            }
+            return this.sql;
+        }
+    }
+
+    private static final class LiveTable {
+
+        private final String charset;
+
+        private final LinkedHashMap<String, LiveColumn> columns = new LinkedHashMap<>();
+
+        private final ArrayList<String> primaryKey = new ArrayList<>();
+
+        private final LinkedHashMap<String, TableSchema.Index> indexes = new LinkedHashMap<>();
+
+        private LiveTable(String charset) {
+            this.charset = charset;
+        }
+    }
+
+    private static final class LiveColumn {
+
+        private final String name;
+
+        private final String type;
+
+        private final boolean nullable;
+
+        private final String defaultValue;
+
+        private final boolean autoIncrement;
+
+        private LiveColumn(String name, String type, boolean nullable, String defaultValue, boolean autoIncrement) {
+            this.name = name;
+            this.type = type;
+            this.nullable = nullable;
+            this.defaultValue = defaultValue;
+            this.autoIncrement = autoIncrement;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.smallaswater.easysql.mysql.migration;
+
+import com.smallaswater.easysql.mysql.utils.QueryConditions;
+import com.smallaswater.easysql.mysql.utils.TableType;
+import com.smallaswater.easysql.mysql.utils.Types;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * 声明的表结构 由 {@link SchemaMigrator} 与数据库中的表比较后生成修改语句
+ * <pre>
+ * TableSchema.of("player",
+ *         new TableType("id", Types.ID),
+ *         new TableType("name", "varchar(32) not null"),
+ *         new TableType("money", "bigint(20) not null default 0"))
+ *         .unique("uk_name", "name")
+ *         .index("idx_money", "money")
+ *         .charset("utf8mb4");
+ * </pre>
+ * 行内的 primary key / unique 也会被识别 名称为 PRIMARY KEY 的 TableType 作为表的主键
+ *
+ * @author SmallasWater
+ */
+public class TableSchema {
+
+    private final String tableName;
+
+    private final LinkedHashMap<String, ColumnDefinition> columns = new LinkedHashMap<>();
+
+    private final ArrayList<String> primaryKey = new ArrayList<>();
+
+    private final LinkedHashMap<String, Index> indexes = new LinkedHashMap<>();
+
+    private String charset;
+
+    private String engine = "InnoDB";
+
+    private TableSchema(String tableName) {
+        this.tableName = QueryConditions.checkColumn(tableName);
+    }
+
+    /**
+     * @param tableName 表名
+     * @param columns   字段
+     */
+    public static TableSchema of(@NotNull String tableName, TableType... columns) {
+        TableSchema schema = new TableSchema(tableName);
+        for (TableType column : columns) {
+            schema.column(column);
+        }
+        return schema;
+    }
+
+    /**
+     * 添加字段
+     *
+     * @param column 字段 名称为 PRIMARY KEY 时作为主键 定义为 (字段,...)
+     */
+    public TableSchema column(@NotNull TableType column) {
+        if ("PRIMARY KEY".equalsIgnoreCase(column.getName().trim())) {
+            String definition = column.getDefinition().trim();
+            if (definition.startsWith("(") && definition.endsWith(")")) {
+                definition = definition.substring(1, definition.length() - 1);
+            }
+            return this.primaryKey(definition.split("\\s*,\\s*"));
+        }
+        return this.column(column.getName(), column.getDefinition());
+    }
+
+    public TableSchema column(@NotNull String name, @NotNull Types type) {
+        return this.column(name, type.toString());
+    }
+
+    /**
+     * @param name       字段名
+     * @param definition 字段定义 例如 varchar(32) not null default ''
+     */
+    public TableSchema column(@NotNull String name, @NotNull String definition) {
+        ColumnDefinition column = new ColumnDefinition(QueryConditions.checkColumn(name.replace("`", "")), definition);
+        this.columns.put(column.name.toLowerCase(), column);
+        if (column.primaryKey) {
+            this.primaryKey(column.name);
+        }
+        if (column.unique) {
+            this.unique(column.name, column.name);
+        }
+        return this;
+    }
+
+    /**
+     * @param columns 主键字段 不设置时保留数据库中的主键
+     */
+    public TableSchema primaryKey(String... columns) {
+        this.primaryKey.clear();
+        for (String column : columns) {
+            this.primaryKey.add(QueryConditions.checkColumn(column));
+        }
+        return this;
+    }
+
+    /**
+     * @param name    唯一键名称
+     * @param columns 字段
+     */
+    public TableSchema unique(@NotNull String name, String... columns) {
+        this.indexes.put(name.toLowerCase(), new Index(QueryConditions.checkColumn(name), true, columns));
+        return this;
+    }
+
+    /**
+     * @param name    索引名称
+     * @param columns 字段
+     */
+    public TableSchema index(@NotNull String name, String... columns) {
+        this.indexes.put(name.toLowerCase(), new Index(QueryConditions.checkColumn(name), false, columns));
+        return this;
+    }
+
+    /**
+     * @param charset 字符集 例如 utf8mb4 不设置时不修改已存在的表 新建的表使用 utf8
+     */
+    public TableSchema charset(String charset) {
+        this.charset = charset == null ? null : QueryConditions.checkColumn(charset);
+        return this;
+    }
+
+    /**
+     * @param engine 新建表使用的存储引擎 默认为 InnoDB
+     */
+    public TableSchema engine(@NotNull String engine) {
+        this.engine = QueryConditions.checkColumn(engine);
+        return this;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    public List<String> getPrimaryKey() {
+        return Collections.unmodifiableList(primaryKey);
+    }
+
+    Collection<ColumnDefinition> getColumns() {
+        return columns.values();
+    }
+
+    Collection<Index> getIndexes() {
+        return indexes.values();
+    }
+
+    /**
+     * @return 建表语句
+     */
+    String toCreateSql() {
+        StringJoiner joiner = new StringJoiner(",");
+        for (ColumnDefinition column : this.columns.values()) {
+            joiner.add(column.name + " " + column.sql);
+        }
+        if (!this.primaryKey.isEmpty()) {
+            joiner.add("PRIMARY KEY (" + String.join(",", this.primaryKey) + ")");
+        }
+        for (Index index : this.indexes.values()) {
+            joiner.add(index.toSql());
+        }
+        return "CREATE TABLE " + this.tableName + "(" + joiner + ")engine=" + this.engine
+                + " default charset=" + (this.charset == null ? "utf8" : this.charset);
+    }
+
+    /**
+     * 索引
+     */
+    static final class Index {
+
+        final String name;
+
+        final boolean unique;
+
+        final List<String> columns;
+
+        Index(String name, boolean unique, String... columns) {
+            if (columns.length == 0) {
+                throw new IllegalArgumentException("索引 " + name + " 没有字段");
+            }
+            this.name = name;
+            this.unique = unique;
+            ArrayList<String> list = new ArrayList<>(columns.length);
+            for (String column : columns) {
+                list.add(QueryConditions.checkColumn(column));
+            }
+            this.columns = list;
+        }
+
+        String toSql() {
+            return (this.unique ? "UNIQUE KEY " : "KEY ") + this.name + " (" + String.join(",", this.columns) + ")";
+        }
+    }
+}
@@ -1,7 +1,20 @@
 package com.smallaswater.easysql.mysql.utils;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
 /**
  * 这里 防SQL 注入
+ * 参数按 Java 类型绑定 (setInt / setLong / setDouble / setBytes / setTimestamp / setNull ...)
  *
  * @author SmallasWater
  */
@@ -9,18 +22,170 @@ public class ChunkSqlType {
 
     private final int i;
 
-    private final String value;
+    private final Object value;
 
     public ChunkSqlType(int i, String value) {
         this.i = i;
         this.value = value;
     }
 
+    public ChunkSqlType(int i, Object value) {
+        this.i = i;
+        this.value = value;
+    }
+
     public int getI() {
         return i;
     }
 
+    /**
+     * @return 参数的字符串形式
+     */
     public String getValue() {
+        return value == null ? null : String.valueOf(value);
+    }
+
+    /**
+     * @return 参数原始值
+     */
+    public Object getObject() {
         return value;
     }
+
+    /**
+     * 将参数绑定到语句
+     *
+     * @param statement 语句
+     */
+    public void bind(PreparedStatement statement) throws SQLException {
+        bind(statement, this.i, this.value);
+    }
+
+    /**
+     * 根据 Java 类型选择对应的 set 方法绑定参数
+     *
+     * @param statement 语句
+     * @param index     参数位置 1为第一个问号
+     * @param value     参数
+     */
+    public static void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, java.sql.Types.NULL);
+        } else if (value instanceof String) {
+            statement.setString(index, (String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            statement.setInt(index, ((Number) value).intValue());
+        } else if (value instanceof Long) {
+            statement.setLong(index, (Long) value);
+        } else if (value instanceof Double) {
+            statement.setDouble(index, (Double) value);
+        } else if (value instanceof Float) {
+            statement.setFloat(index, (Float) value);
+        } else if (value instanceof Boolean) {
+            statement.setBoolean(index, (Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            statement.setBigDecimal(index, (BigDecimal) value);
+        } else if (value instanceof byte[]) {
+            statement.setBytes(index, (byte[]) value);
+        } else if (value instanceof Timestamp) {
+            statement.setTimestamp(index, (Timestamp) value);
+        } else if (value instanceof java.sql.Date) {
+            statement.setDate(index, (java.sql.Date) value);
+        } else if (value instanceof Time) {
+            statement.setTime(index, (Time) value);
+        } else if (value instanceof java.util.Date) {
+            statement.setTimestamp(index, new Timestamp(((java.util.Date) value).getTime()));
+        } else if (value instanceof LocalDateTime) {
+            statement.setTimestamp(index, Timestamp.valueOf((LocalDateTime) value));
+        } else if (value instanceof LocalDate) {
+            statement.setDate(index, java.sql.Date.valueOf((LocalDate) value));
+        } else if (value instanceof Enum) {
+            statement.setString(index, ((Enum<?>) value).name());
+        } else {
+            statement.setString(index, value.toString());
+        }
+    }
+
+    /**
+     * 写入二进制格式 保留参数类型
+     *
+     * @param out 输出
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(this.i);
+        writeValue(out, this.value);
+    }
+
+    /**
+     * 读取 {@link #write(DataOutput)} 写入的参数
+     *
+     * @param in 输入
+     * @return 参数
+     */
+    public static ChunkSqlType read(DataInput in) throws IOException {
+        int index = in.readInt();
+        return new ChunkSqlType(index, readValue(in));
+    }
+
+    /**
+     * 以 类型标记 + 数据 的格式写入一个值
+     */
+    public static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(2);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(3);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(4);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(5);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(6);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof java.util.Date) {
+            out.writeByte(7);
+            out.writeLong(((java.util.Date) value).getTime());
+        } else {
+            out.writeByte(1);
+            byte[] bytes = (value instanceof Enum ? ((Enum<?>) value).name() : value.toString())
+                    .getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * 读取 {@link #writeValue(DataOutput, Object)} 写入的值
+     */
+    public static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case 0:
+                return null;
+            case 2:
+                return in.readInt();
+            case 3:
+                return in.readLong();
+            case 4:
+                return in.readDouble();
+            case 5:
+                return in.readBoolean();
+            case 6:
+            case 1:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return type == 6 ? bytes : new String(bytes, StandardCharsets.UTF_8);
+            case 7:
+                return new Timestamp(in.readLong());
+            default:
+                throw new IOException("未知的参数类型 " + type);
+        }
+    }
 }
@@ -0,0 +1,290 @@
+package com.smallaswater.easysql.mysql.utils;
+
+import cn.nukkit.Server;
+import lombok.Getter;
+
+/**
+ * 熔断器
+ * 统计最近 windowSize 次获取连接的结果 失败率或慢调用率超过阈值时打开
+ * 打开期间获取连接立即失败 openTime 后进入半开状态 放行 halfOpenCalls 次试探
+ * 试探全部成功时关闭 出现失败或慢调用时重新打开
+ * 失败为获取连接失败 或语句因超时 锁等待超时 连接错误等失败 耗时为每条语句的执行时间
+ *
+ * @author SmallasWater
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        /**
+         * 正常
+         */
+        CLOSED,
+        /**
+         * 熔断中 获取连接立即失败
+         */
+        OPEN,
+        /**
+         * 放行少量试探
+         */
+        HALF_OPEN
+    }
+
+    @Getter
+    private final int windowSize;
+    /**
+     * 至少统计到这么多次后才会打开
+     */
+    @Getter
+    private final int minCalls;
+    /**
+     * 失败率阈值 0 ~ 1
+     */
+    @Getter
+    private final double failureRateThreshold;
+    /**
+     * 慢调用率阈值 0 ~ 1
+     */
+    @Getter
+    private final double slowRateThreshold;
+    /**
+     * 超过此耗时视为慢调用 (毫秒)
+     */
+    @Getter
+    private final long slowCallThreshold;
+    /**
+     * 打开后等待多久进入半开状态 (毫秒)
+     */
+    @Getter
+    private final long openTime;
+    @Getter
+    private final int halfOpenCalls;
+
+    private volatile String name = "";
+
+    /**
+     * 0 为成功 1 为失败 2 为慢调用
+     */
+    private final byte[] window;
+
+    private int index;
+
+    private int count;
+
+    private int failures;
+
+    private int slowCalls;
+
+    private volatile State state = State.CLOSED;
+
+    private long openedAt;
+
+    private int trials;
+
+    private int trialSuccesses;
+
+    private CircuitBreaker(Builder builder) {
+        this.windowSize = builder.windowSize;
+        this.minCalls = builder.minCalls;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowRateThreshold = builder.slowRateThreshold;
+        this.slowCallThreshold = builder.slowCallThreshold;
+        this.openTime = builder.openTime;
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.window = new byte[builder.windowSize];
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @param name 连接池名称 用于日志
+     */
+    void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 获取连接前调用
+     *
+     * @return 是否允许获取连接
+     */
+    public synchronized boolean tryAcquire() {
+        switch (this.state) {
+            case OPEN:
+                if (System.currentTimeMillis() - this.openedAt < this.openTime) {
+                    return false;
+                }
+                this.transition(State.HALF_OPEN, null);
+                this.trials = 0;
+                this.trialSuccesses = 0;
+            case HALF_OPEN:
+                if (this.trials >= this.halfOpenCalls) {
+                    return false;
+                }
+                this.trials++;
+                return true;
+            case CLOSED:
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 允许获取连接后没有实际获取时调用 归还半开状态的试探次数
+     */
+    public synchronized void cancel() {
+        if (this.state == State.HALF_OPEN && this.trials > 0) {
+            this.trials--;
+        }
+    }
+
+    /**
+     * 记录一次成功的调用
+     *
+     * @param millis 耗时 (毫秒)
+     */
+    public synchronized void onSuccess(long millis) {
+        boolean slow = millis > this.slowCallThreshold;
+        if (this.state == State.HALF_OPEN) {
+            if (slow) {
+                this.open("试探调用耗时 " + millis + "ms");
+            } else if (++this.trialSuccesses >= this.halfOpenCalls) {
+                this.reset();
+                this.transition(State.CLOSED, null);
+            }
+            return;
+        }
+        this.add(slow ? (byte) 2 : (byte) 0);
+    }
+
+    /**
+     * 记录一次失败的调用
+     */
+    public synchronized void onError() {
+        if (this.state == State.HALF_OPEN) {
+            this.open("试探调用失败");
+            return;
+        }
+        this.add((byte) 1);
+    }
+
+    private void add(byte outcome) {
+        if (this.state != State.CLOSED) {
+            return;
+        }
+        if (this.count == this.windowSize) {
+            byte old = this.window[this.index];
+            if (old == 1) {
+                this.failures--;
+            } else if (old == 2) {
+                this.slowCalls--;
+            }
+        } else {
+            this.count++;
+        }
+        this.window[this.index] = outcome;
+        this.index = (this.index + 1) % this.windowSize;
+        if (outcome == 1) {
+            this.failures++;
+        } else if (outcome == 2) {
+            this.slowCalls++;
+        }
+        if (this.count >= this.minCalls) {
+            double failureRate = (double) this.failures / this.count;
+            double slowRate = (double) this.slowCalls / this.count;
+            if (failureRate >= this.failureRateThreshold) {
+                this.open(String.format("失败率 %.0f%%", failureRate * 100));
+            } else if (slowRate >= this.slowRateThreshold) {
+                this.open(String.format("慢调用率 %.0f%%", slowRate * 100));
+            }
+        }
+    }
+
+    private void open(String reason) {
+        this.openedAt = System.currentTimeMillis();
+        this.reset();
+        this.transition(State.OPEN, reason);
+    }
+
+    private void reset() {
+        this.index = 0;
+        this.count = 0;
+        this.failures = 0;
+        this.slowCalls = 0;
+    }
+
+    private void transition(State state, String reason) {
+        State old = this.state;
+        this.state = state;
+        if (old == state) {
+            return;
+        }
+        if (state == State.OPEN) {
+            Server.getInstance().getLogger().warning("[EasyMySQL] " + this.name + " 熔断器打开 (" + reason + ") " + this.openTime + "ms 内获取连接将立即失败");
+        } else if (state == State.CLOSED) {
+            Server.getInstance().getLogger().info("[EasyMySQL] " + this.name + " 熔断器已关闭 数据库恢复正常");
+        }
+    }
+
+    public static class Builder {
+
+        private int windowSize = 50;
+        private int minCalls = 20;
+        private double failureRateThreshold = 0.5;
+        private double slowRateThreshold = 0.8;
+        private long slowCallThreshold = 1000;
+        private long openTime = 10000;
+        private int halfOpenCalls = 5;
+
+        private Builder() {
+        }
+
+        public Builder windowSize(int windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        public Builder minCalls(int minCalls) {
+            this.minCalls = minCalls;
+            return this;
+        }
+
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        public Builder slowRateThreshold(double slowRateThreshold) {
+            this.slowRateThreshold = slowRateThreshold;
+            return this;
+        }
+
+        public Builder slowCallThreshold(long slowCallThreshold) {
+            this.slowCallThreshold = slowCallThreshold;
+            return this;
+        }
+
+        public Builder openTime(long openTime) {
+            this.openTime = openTime;
+            return this;
+        }
+
+        public Builder halfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            if (this.windowSize <= 0 || this.minCalls <= 0 || this.minCalls > this.windowSize || this.halfOpenCalls <= 0) {
+                throw new IllegalArgumentException("熔断器配置错误: window-size=" + this.windowSize +
+                        " min-calls=" + this.minCalls + " half-open-calls=" + this.halfOpenCalls);
+            }
+            return new CircuitBreaker(this);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.smallaswater.easysql.mysql.utils;
+
+import lombok.Getter;
+
+/**
+ * 自适应并发限制 (AIMD)
+ * 同时持有的连接数达到当前上限时 获取连接立即失败 不在连接池中排队
+ * 语句耗时低于 timeout 且并发接近上限时 上限缓慢增加 (每轮 +1)
+ * 获取连接失败 语句因过载失败或耗时超过 timeout 时 上限乘以 backoffRatio
+ *
+ * @author SmallasWater
+ */
+public class ConcurrencyLimiter {
+
+    @Getter
+    private final int minLimit;
+    @Getter
+    private final int maxLimit;
+    /**
+     * 超过此耗时视为过载 (毫秒)
+     */
+    @Getter
+    private final long timeout;
+    @Getter
+    private final double backoffRatio;
+
+    private double limit;
+
+    private int inflight;
+
+    private ConcurrencyLimiter(Builder builder) {
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.timeout = builder.timeout;
+        this.backoffRatio = builder.backoffRatio;
+        this.limit = builder.initialLimit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return 当前的并发上限
+     */
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    /**
+     * @return 当前的并发数
+     */
+    public synchronized int getInflight() {
+        return this.inflight;
+    }
+
+    /**
+     * @return 是否允许获取连接 允许时需要调用 {@link #release()}
+     */
+    public synchronized boolean tryAcquire() {
+        if (this.inflight >= (int) this.limit) {
+            return false;
+        }
+        this.inflight++;
+        return true;
+    }
+
+    /**
+     * 获取连接失败时调用 释放并发数并记录一次失败
+     *
+     * @param millis  耗时 (毫秒)
+     * @param dropped 是否获取连接失败
+     */
+    public synchronized void release(long millis, boolean dropped) {
+        this.record(millis, dropped);
+        this.inflight--;
+    }
+
+    /**
+     * 归还连接时调用 只释放并发数
+     */
+    public synchronized void release() {
+        this.inflight--;
+    }
+
+    /**
+     * 每条语句执行后调用 根据耗时调整上限
+     *
+     * @param millis  语句耗时 (毫秒)
+     * @param dropped 是否因数据库过载失败 (超时 锁等待超时 连接错误等)
+     */
+    public synchronized void record(long millis, boolean dropped) {
+        if (dropped || millis > this.timeout) {
+            this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+        } else if (this.inflight * 2 >= this.limit) {
+            //只有并发接近上限时才增加 避免空闲时上限无限增长
+            this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+        }
+    }
+
+    public static class Builder {
+
+        private int initialLimit = 20;
+        private int minLimit = 2;
+        private int maxLimit = 200;
+        private long timeout = 1000;
+        private double backoffRatio = 0.9;
+
+        private Builder() {
+        }
+
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public Builder minLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * @param maxLimit 最大并发 超过连接池 maxActive 没有意义
+         */
+        public Builder maxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        public Builder timeout(long timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        public ConcurrencyLimiter build() {
+            if (this.minLimit <= 0 || this.minLimit > this.maxLimit || this.initialLimit < this.minLimit
+                    || this.initialLimit > this.maxLimit || this.backoffRatio <= 0 || this.backoffRatio >= 1) {
+                throw new IllegalArgumentException("并发限制配置错误: initial=" + this.initialLimit + " min=" + this.minLimit +
+                        " max=" + this.maxLimit + " backoff-ratio=" + this.backoffRatio);
+            }
+            return new ConcurrencyLimiter(this);
+        }
+    }
+}
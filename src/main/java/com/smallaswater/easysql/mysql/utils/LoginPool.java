@@ -1,7 +1,20 @@
 package com.smallaswater.easysql.mysql.utils;
 
 import com.alibaba.druid.pool.DruidDataSource;
+import com.smallaswater.easysql.exceptions.DatabaseOverloadException;
+import com.smallaswater.easysql.mysql.data.QueryCache;
+import com.smallaswater.easysql.mysql.data.QueryContext;
+import com.smallaswater.easysql.mysql.data.SchemaCache;
+import com.smallaswater.easysql.mysql.data.WriteAheadLog;
 import com.smallaswater.easysql.mysql.manager.SqlManager;
+import com.smallaswater.easysql.mysql.metrics.MetricsRegistry;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author SmallasWater
@@ -15,14 +28,358 @@ public class LoginPool {
 
     private final String ip;
 
+    private final int port;
+
     private final String database;
 
+    private final AtomicInteger references = new AtomicInteger();
+
     private SqlManager manager;
 
+
+    private volatile QueryCache queryCache;
+
+    private final MetricsRegistry metrics;
+
+    private final SchemaCache schema;
+
+    private volatile ReplicaSet replicas;
+
+    private volatile WriteAheadLog writeAheadLog;
+
+    private volatile CircuitBreaker circuitBreaker;
+
+    private volatile ConcurrencyLimiter limiter;
+
     public LoginPool(String ip, String user, String database) {
+        this(ip, 3306, user, database);
+    }
+
+    public LoginPool(String ip, int port, String user, String database) {
         this.ip = ip;
+        this.port = port;
         this.user = user;
         this.database = database;
+        this.metrics = new MetricsRegistry(this, database + "@" + ip + ":" + port);
+        this.schema = new SchemaCache(this);
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getDatabase() {
+        return database;
+    }
+
+    /**
+     * 从连接池获取连接 并记录等待时间
+     * 设置了熔断器或并发限制时 熔断中或并发已满会立即抛出 {@link DatabaseOverloadException}
+     *
+     * @return 连接
+     */
+    public Connection getConnection() throws SQLException {
+        CircuitBreaker breaker = this.circuitBreaker;
+        ConcurrencyLimiter limiter = this.limiter;
+        if (breaker == null && limiter == null) {
+            long start = System.nanoTime();
+            try {
+                Connection connection = this.dataSource.getConnection();
+                this.metrics.recordConnection(start, false);
+                return connection;
+            } catch (SQLException | RuntimeException e) {
+                this.metrics.recordConnection(start, true);
+                throw e;
+            }
+        }
+        if (breaker != null && !breaker.tryAcquire()) {
+            throw new DatabaseOverloadException("数据库 " + this.metrics.getName() + " 熔断中");
+        }
+        if (limiter != null && !limiter.tryAcquire()) {
+            if (breaker != null) {
+                breaker.cancel();
+            }
+            throw new DatabaseOverloadException("数据库 " + this.metrics.getName() + " 并发已达上限 " + limiter.getLimit());
+        }
+        long start = System.nanoTime();
+        Connection connection;
+        try {
+            connection = this.dataSource.getConnection();
+            this.metrics.recordConnection(start, false);
+        } catch (SQLException | RuntimeException e) {
+            this.metrics.recordConnection(start, true);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (breaker != null) {
+                breaker.onError();
+            }
+            if (limiter != null) {
+                limiter.release(millis, true);
+            }
+            throw e;
+        }
+        return guard(connection, breaker, limiter);
+    }
+
+    /**
+     * 每条语句执行后向熔断器与并发限制记录结果和耗时 关闭连接时释放并发数
+     * 只统计语句本身的执行时间 持有连接的时间 (流式读取 事务) 不计入
+     */
+    private static Connection guard(Connection connection, CircuitBreaker breaker, ConcurrencyLimiter limiter) {
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicBoolean executed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed.compareAndSet(false, true)) {
+                        return null;
+                    }
+                    try {
+                        connection.close();
+                    } finally {
+                        if (breaker != null && !executed.get()) {
+                            //没有执行语句 归还半开状态的试探次数
+                            breaker.cancel();
+                        }
+                        if (limiter != null) {
+                            limiter.release();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    if (closed.get()) {
+                        return true;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            Object result;
+            try {
+                result = method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement && method.getReturnType().isInterface()) {
+                return guardStatement((Statement) result, method.getReturnType(), executed, breaker, limiter);
+            }
+            return result;
+        });
+    }
+
+    private static Object guardStatement(Statement statement, Class<?> type, AtomicBoolean executed,
+                                         CircuitBreaker breaker, ConcurrencyLimiter limiter) {
+        return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (!method.getName().startsWith("execute")) {
+                try {
+                    return method.invoke(statement, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            long start = System.nanoTime();
+            boolean failed = false;
+            boolean cancelled = false;
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException) {
+                    cancelled = isCancelled((SQLException) e.getCause());
+                    failed = !cancelled && isOverload((SQLException) e.getCause());
+                }
+                throw e.getCause();
+            } finally {
+                //调用者取消或超过自己设置的超时时间 与数据库的负载无关 不计入
+                if (!cancelled) {
+                    record(executed, breaker, limiter, start, failed);
+                }
+            }
+        });
+    }
+
+    private static void record(AtomicBoolean executed, CircuitBreaker breaker, ConcurrencyLimiter limiter, long start, boolean failed) {
+        executed.set(true);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (breaker != null) {
+            if (failed) {
+                breaker.onError();
+            } else {
+                breaker.onSuccess(millis);
+            }
+        }
+        if (limiter != null) {
+            limiter.record(millis, failed);
+        }
+    }
+
+    /**
+     * 是否被 {@link QueryContext} 中止
+     * 包括调用 cancel 以及超过单次调用设置的超时时间 连接池默认的超时不算在内
+     */
+    private static boolean isCancelled(SQLException e) {
+        QueryContext context = QueryContext.current();
+        if (context == null) {
+            return false;
+        }
+        return context.isCancelled() || (context.getTimeout() > 0 && e instanceof SQLTimeoutException);
+    }
+
+    /**
+     * 是否为数据库过载或不可用导致的失败
+     * 语法错误 主键冲突 被取消的查询 (1317) 等由调用者导致的错误不计入
+     */
+    private static boolean isOverload(SQLException e) {
+        if (e instanceof SQLTimeoutException || e instanceof SQLTransientConnectionException
+                || e instanceof SQLNonTransientConnectionException || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        if (state != null && state.startsWith("08")) {
+            return true;
+        }
+        switch (e.getErrorCode()) {
+            //锁等待超时 语句执行超时 连接数过多 服务器关闭中 内存不足
+            case 1205:
+            case 3024:
+            case 1040:
+            case 1053:
+            case 1037:
+            case 1041:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 获取执行查询的连接 配置了从库时按 {@link ReplicaSet#route(String)} 选择从库
+     * 没有可用的从库时使用主库
+     *
+     * @param sql 查询语句
+     * @return 连接
+     */
+    public Connection getReadConnection(String sql) throws SQLException {
+        ReplicaSet replicas = this.replicas;
+        if (replicas != null) {
+            ReplicaSet.Replica replica = replicas.route(sql);
+            if (replica != null) {
+                long start = System.nanoTime();
+                try {
+                    Connection connection = replica.getConnection();
+                    this.metrics.recordConnection(start, false);
+                    return connection;
+                } catch (SQLException | RuntimeException e) {
+                    replicas.markDown(replica, e);
+                }
+            }
+        }
+        return this.getConnection();
+    }
+
+    /**
+     * 在主库执行写入后调用 之后一段时间内该表的查询使用主库
+     *
+     * @param sql 写入语句
+     */
+    public void onWrite(String sql) {
+        ReplicaSet replicas = this.replicas;
+        if (replicas != null) {
+            replicas.onWrite(sql);
+        }
+    }
+
+    /**
+     * @return 只读从库 未配置时为 null
+     */
+    public ReplicaSet getReplicas() {
+        return replicas;
+    }
+
+    void setReplicas(ReplicaSet replicas) {
+        this.replicas = replicas;
+    }
+
+    /**
+     * @return 熔断器 未设置时为 null
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * 设置熔断器 同一连接池的所有插件共享
+     *
+     * @param circuitBreaker 熔断器 null 为关闭
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        if (circuitBreaker != null) {
+            circuitBreaker.setName(this.metrics.getName());
+        }
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return 并发限制 未设置时为 null
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return limiter;
+    }
+
+    /**
+     * 设置并发限制 同一连接池的所有插件共享
+     *
+     * @param limiter 并发限制 null 为关闭
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * @return 本连接池的运行指标
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return 表结构缓存
+     */
+    public SchemaCache getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return 正在使用本连接池的数量
+     */
+    public int getReferences() {
+        return references.get();
+    }
+
+    void retain() {
+        this.references.incrementAndGet();
+    }
+
+    int releaseReference() {
+        return this.references.decrementAndGet();
     }
 
     public void setManager(SqlManager manager) {
@@ -33,15 +390,63 @@ public class LoginPool {
         return manager;
     }
 
+    /**
+     * @return 查询结果缓存 未开启时为 null
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * 设置查询结果缓存 null 为关闭
+     *
+     * @param queryCache 查询结果缓存
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * @return 预写日志 未开启时为 null
+     */
+    public WriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * 设置预写日志 旧的日志会被关闭 未重放的写入保留在磁盘上
+     *
+     * @param writeAheadLog 预写日志 null 为关闭
+     */
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        WriteAheadLog old;
+        synchronized (this) {
+            old = this.writeAheadLog;
+            this.writeAheadLog = writeAheadLog;
+        }
+        if (old != null && old != writeAheadLog) {
+            old.close();
+        }
+    }
+
     @Override
     public boolean equals(Object pool) {
         if (pool instanceof LoginPool) {
             return ((LoginPool) pool).database.equalsIgnoreCase(database) &&
                     ((LoginPool) pool).user.equalsIgnoreCase(user) &&
-                    ((LoginPool) pool).ip.equalsIgnoreCase(ip);
+                    ((LoginPool) pool).ip.equalsIgnoreCase(ip) &&
+                    ((LoginPool) pool).port == port;
         }
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        int hash = database.toLowerCase().hashCode();
+        hash = 31 * hash + user.toLowerCase().hashCode();
+        hash = 31 * hash + ip.toLowerCase().hashCode();
+        return 31 * hash + port;
+    }
+
 
 }
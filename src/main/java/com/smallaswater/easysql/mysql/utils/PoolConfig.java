@@ -0,0 +1,411 @@
+package com.smallaswater.easysql.mysql.utils;
+
+import cn.nukkit.utils.ConfigSection;
+import com.alibaba.druid.pool.DruidDataSource;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 连接池配置
+ * 通过 {@link #builder()} 创建 或通过 {@link #fromConfig(ConfigSection)} 从插件的 config.yml 读取
+ *
+ * @author SmallasWater
+ */
+public class PoolConfig {
+
+    private static final PoolConfig DEFAULT = builder().build();
+
+    @Getter
+    private final int initialSize;
+    @Getter
+    private final int minIdle;
+    @Getter
+    private final int maxActive;
+    /**
+     * 连接池耗尽时获取连接的最长等待时间 (毫秒)
+     */
+    @Getter
+    private final long maxWait;
+    @Getter
+    private final boolean keepAlive;
+    @Getter
+    private final boolean testWhileIdle;
+    @Getter
+    private final boolean testOnBorrow;
+    @Getter
+    private final String validationQuery;
+    /**
+     * 空闲连接检测间隔 (毫秒)
+     */
+    @Getter
+    private final long evictionInterval;
+    /**
+     * 连接最小空闲时间 超过后可被回收 (毫秒)
+     */
+    @Getter
+    private final long minEvictableIdleTime;
+    /**
+     * 创建连接失败后的重试间隔 (毫秒)
+     */
+    @Getter
+    private final long connectErrorInterval;
+    @Getter
+    private final int connectErrorRetryAttempts;
+    /**
+     * 为 true 时 创建连接连续失败 connectErrorRetryAttempts 次后不再重连 数据库恢复后连接池也无法使用
+     */
+    @Getter
+    private final boolean breakAfterAcquireFailure;
+    @Getter
+    private final boolean poolPreparedStatements;
+    @Getter
+    private final int preparedStatementCacheSize;
+    /**
+     * 建立 TCP 连接的超时时间 (毫秒) 0 为不限制
+     */
+    @Getter
+    private final int connectTimeout;
+    /**
+     * 网络读写超时时间 (毫秒) 0 为不限制
+     */
+    @Getter
+    private final int socketTimeout;
+    /**
+     * 每条语句的默认超时时间 (秒) 超时后中止语句 (KILL QUERY) 0 为不限制
+     * 表结构语句 (CREATE / ALTER / DROP) 不使用此设置 单次调用可以通过 QueryContext 或 Query.timeout 设置
+     */
+    @Getter
+    private final int queryTimeout;
+
+    private final LinkedHashMap<String, String> properties;
+
+    private PoolConfig(Builder builder) {
+        this.initialSize = builder.initialSize;
+        this.minIdle = builder.minIdle;
+        this.maxActive = builder.maxActive;
+        this.maxWait = builder.maxWait;
+        this.keepAlive = builder.keepAlive;
+        this.testWhileIdle = builder.testWhileIdle;
+        this.testOnBorrow = builder.testOnBorrow;
+        this.validationQuery = builder.validationQuery;
+        this.evictionInterval = builder.evictionInterval;
+        this.minEvictableIdleTime = builder.minEvictableIdleTime;
+        this.connectErrorInterval = builder.connectErrorInterval;
+        this.connectErrorRetryAttempts = builder.connectErrorRetryAttempts;
+        this.breakAfterAcquireFailure = builder.breakAfterAcquireFailure;
+        this.poolPreparedStatements = builder.poolPreparedStatements;
+        this.preparedStatementCacheSize = builder.preparedStatementCacheSize;
+        this.connectTimeout = builder.connectTimeout;
+        this.socketTimeout = builder.socketTimeout;
+        this.queryTimeout = builder.queryTimeout;
+        this.properties = new LinkedHashMap<>(builder.properties);
+    }
+
+    /**
+     * @return 默认配置
+     */
+    public static PoolConfig defaults() {
+        return DEFAULT;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return 以当前配置为基础的 Builder
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.initialSize = this.initialSize;
+        builder.minIdle = this.minIdle;
+        builder.maxActive = this.maxActive;
+        builder.maxWait = this.maxWait;
+        builder.keepAlive = this.keepAlive;
+        builder.testWhileIdle = this.testWhileIdle;
+        builder.testOnBorrow = this.testOnBorrow;
+        builder.validationQuery = this.validationQuery;
+        builder.evictionInterval = this.evictionInterval;
+        builder.minEvictableIdleTime = this.minEvictableIdleTime;
+        builder.connectErrorInterval = this.connectErrorInterval;
+        builder.connectErrorRetryAttempts = this.connectErrorRetryAttempts;
+        builder.breakAfterAcquireFailure = this.breakAfterAcquireFailure;
+        builder.poolPreparedStatements = this.poolPreparedStatements;
+        builder.preparedStatementCacheSize = this.preparedStatementCacheSize;
+        builder.connectTimeout = this.connectTimeout;
+        builder.socketTimeout = this.socketTimeout;
+        builder.queryTimeout = this.queryTimeout;
+        builder.properties.clear();
+        builder.properties.putAll(this.properties);
+        return builder;
+    }
+
+    /**
+     * @return JDBC URL 参数
+     */
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    /**
+     * 生成 JDBC URL
+     *
+     * @param data 数据库用户信息
+     * @return JDBC URL
+     */
+    public String getJdbcUrl(UserData data) {
+        StringBuilder builder = new StringBuilder("jdbc:mysql://")
+                .append(data.getHost()).append(':').append(data.getPort()).append('/').append(data.getDatabase());
+        char separator = '?';
+        for (Map.Entry<String, String> entry : this.properties.entrySet()) {
+            builder.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+            separator = '&';
+        }
+        if (this.connectTimeout > 0 && !this.properties.containsKey("connectTimeout")) {
+            builder.append(separator).append("connectTimeout=").append(this.connectTimeout);
+            separator = '&';
+        }
+        if (this.socketTimeout > 0 && !this.properties.containsKey("socketTimeout")) {
+            builder.append(separator).append("socketTimeout=").append(this.socketTimeout);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 将配置应用到连接池
+     *
+     * @param dataSource 连接池
+     * @param data       数据库用户信息
+     */
+    public void apply(DruidDataSource dataSource, UserData data) {
+        dataSource.setUrl(this.getJdbcUrl(data));
+        dataSource.setUsername(data.getUser());
+        dataSource.setPassword(data.getPassWorld());
+        dataSource.setInitialSize(this.initialSize);
+        dataSource.setMinIdle(this.minIdle);
+        dataSource.setMaxActive(this.maxActive);
+        dataSource.setMaxWait(this.maxWait);
+        dataSource.setKeepAlive(this.keepAlive);
+        dataSource.setTestWhileIdle(this.testWhileIdle);
+        dataSource.setTestOnBorrow(this.testOnBorrow);
+        dataSource.setValidationQuery(this.validationQuery);
+        dataSource.setTimeBetweenEvictionRunsMillis(this.evictionInterval);
+        dataSource.setMinEvictableIdleTimeMillis(this.minEvictableIdleTime);
+        dataSource.setTimeBetweenConnectErrorMillis(this.connectErrorInterval);
+        dataSource.setConnectionErrorRetryAttempts(this.connectErrorRetryAttempts);
+        dataSource.setBreakAfterAcquireFailure(this.breakAfterAcquireFailure);
+        dataSource.setPoolPreparedStatements(this.poolPreparedStatements);
+        dataSource.setMaxPoolPreparedStatementPerConnectionSize(this.preparedStatementCacheSize);
+        dataSource.setQueryTimeout(this.queryTimeout);
+    }
+
+    /**
+     * 从配置文件读取 未填写的项使用默认值
+     * <pre>
+     * pool:
+     *   initial-size: 3
+     *   min-idle: 1
+     *   max-active: 30
+     *   max-wait: 5000
+     *   keep-alive: true
+     *   test-while-idle: true
+     *   test-on-borrow: false
+     *   validation-query: SELECT 1
+     *   eviction-interval: 60000
+     *   min-evictable-idle-time: 300000
+     *   connect-error-interval: 3000
+     *   connect-error-retry-attempts: 3
+     *   break-after-acquire-failure: true
+     *   pool-prepared-statements: true
+     *   prepared-statement-cache-size: 100
+     *   connect-timeout: 5000
+     *   socket-timeout: 0
+     *   query-timeout: 30
+     *   properties:
+     *     useSSL: false
+     * </pre>
+     *
+     * @param section 配置节点 例如 getConfig().getSection("pool")
+     * @return 连接池配置
+     */
+    public static PoolConfig fromConfig(ConfigSection section) {
+        Builder builder = builder();
+        if (section == null) {
+            return builder.build();
+        }
+        builder.initialSize(section.getInt("initial-size", builder.initialSize))
+                .minIdle(section.getInt("min-idle", builder.minIdle))
+                .maxActive(section.getInt("max-active", builder.maxActive))
+                .maxWait(section.getLong("max-wait", builder.maxWait))
+                .keepAlive(section.getBoolean("keep-alive", builder.keepAlive))
+                .testWhileIdle(section.getBoolean("test-while-idle", builder.testWhileIdle))
+                .testOnBorrow(section.getBoolean("test-on-borrow", builder.testOnBorrow))
+                .validationQuery(section.getString("validation-query", builder.validationQuery))
+                .evictionInterval(section.getLong("eviction-interval", builder.evictionInterval))
+                .minEvictableIdleTime(section.getLong("min-evictable-idle-time", builder.minEvictableIdleTime))
+                .connectErrorInterval(section.getLong("connect-error-interval", builder.connectErrorInterval))
+                .connectErrorRetryAttempts(section.getInt("connect-error-retry-attempts", builder.connectErrorRetryAttempts))
+                .breakAfterAcquireFailure(section.getBoolean("break-after-acquire-failure", builder.breakAfterAcquireFailure))
+                .poolPreparedStatements(section.getBoolean("pool-prepared-statements", builder.poolPreparedStatements))
+                .preparedStatementCacheSize(section.getInt("prepared-statement-cache-size", builder.preparedStatementCacheSize))
+                .connectTimeout(section.getInt("connect-timeout", builder.connectTimeout))
+                .socketTimeout(section.getInt("socket-timeout", builder.socketTimeout))
+                .queryTimeout(section.getInt("query-timeout", builder.queryTimeout));
+        ConfigSection properties = section.getSection("properties");
+        if (properties != null) {
+            for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                builder.property(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+        }
+        return builder.build();
+    }
+
+    public static class Builder {
+
+        private int initialSize = 3;
+        private int minIdle = 1;
+        private int maxActive = 30;
+        private long maxWait = 5000;
+        private boolean keepAlive = true;
+        private boolean testWhileIdle = true;
+        private boolean testOnBorrow = false;
+        private String validationQuery = "SELECT 1";
+        private long evictionInterval = 60000;
+        private long minEvictableIdleTime = 300000;
+        private long connectErrorInterval = 3000;
+        private int connectErrorRetryAttempts = 3;
+        private boolean breakAfterAcquireFailure = false;
+        private boolean poolPreparedStatements = true;
+        private int preparedStatementCacheSize = 100;
+        private int connectTimeout = 5000;
+        private int socketTimeout = 0;
+        private int queryTimeout = 30;
+        private final LinkedHashMap<String, String> properties = new LinkedHashMap<>();
+
+        private Builder() {
+            this.properties.put("autoReconnect", "true");
+            this.properties.put("failOverReadOnly", "false");
+            this.properties.put("rewriteBatchedStatements", "true");
+            this.properties.put("useServerPrepStmts", "true");
+            this.properties.put("cachePrepStmts", "true");
+            this.properties.put("prepStmtCacheSize", "250");
+            this.properties.put("prepStmtCacheSqlLimit", "2048");
+            this.properties.put("serverTimezone", "GMT");
+            this.properties.put("characterEncoding", "utf8");
+            this.properties.put("useSSL", "false");
+        }
+
+        public Builder initialSize(int initialSize) {
+            this.initialSize = initialSize;
+            return this;
+        }
+
+        public Builder minIdle(int minIdle) {
+            this.minIdle = minIdle;
+            return this;
+        }
+
+        public Builder maxActive(int maxActive) {
+            this.maxActive = maxActive;
+            return this;
+        }
+
+        public Builder maxWait(long maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        public Builder keepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder testWhileIdle(boolean testWhileIdle) {
+            this.testWhileIdle = testWhileIdle;
+            return this;
+        }
+
+        public Builder testOnBorrow(boolean testOnBorrow) {
+            this.testOnBorrow = testOnBorrow;
+            return this;
+        }
+
+        public Builder validationQuery(String validationQuery) {
+            this.validationQuery = validationQuery;
+            return this;
+        }
+
+        public Builder evictionInterval(long evictionInterval) {
+            this.evictionInterval = evictionInterval;
+            return this;
+        }
+
+        public Builder minEvictableIdleTime(long minEvictableIdleTime) {
+            this.minEvictableIdleTime = minEvictableIdleTime;
+            return this;
+        }
+
+        public Builder connectErrorInterval(long connectErrorInterval) {
+            this.connectErrorInterval = connectErrorInterval;
+            return this;
+        }
+
+        public Builder connectErrorRetryAttempts(int connectErrorRetryAttempts) {
+            this.connectErrorRetryAttempts = connectErrorRetryAttempts;
+            return this;
+        }
+
+        public Builder breakAfterAcquireFailure(boolean breakAfterAcquireFailure) {
+            this.breakAfterAcquireFailure = breakAfterAcquireFailure;
+            return this;
+        }
+
+        public Builder poolPreparedStatements(boolean poolPreparedStatements) {
+            this.poolPreparedStatements = poolPreparedStatements;
+            return this;
+        }
+
+        public Builder preparedStatementCacheSize(int preparedStatementCacheSize) {
+            this.preparedStatementCacheSize = preparedStatementCacheSize;
+            return this;
+        }
+
+        public Builder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder socketTimeout(int socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        public Builder queryTimeout(int queryTimeout) {
+            this.queryTimeout = queryTimeout;
+            return this;
+        }
+
+        /**
+         * 设置 JDBC URL 参数 value 为 null 时移除
+         */
+        public Builder property(String key, String value) {
+            if (value == null) {
+                this.properties.remove(key);
+            } else {
+                this.properties.put(key, value);
+            }
+            return this;
+        }
+
+        public PoolConfig build() {
+            if (this.maxActive <= 0 || this.minIdle > this.maxActive || this.initialSize > this.maxActive) {
+                throw new IllegalArgumentException("连接池大小配置错误: initialSize=" + this.initialSize +
+                        " minIdle=" + this.minIdle + " maxActive=" + this.maxActive);
+            }
+            return new PoolConfig(this);
+        }
+    }
+}
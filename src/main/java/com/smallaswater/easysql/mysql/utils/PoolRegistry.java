@@ -0,0 +1,185 @@
+package com.smallaswater.easysql.mysql.utils;
+
+import cn.nukkit.Server;
+import com.smallaswater.easysql.mysql.data.WriteAheadLog;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 连接池注册表
+ * 以 host + port + user + database 为键 相同数据库的插件共享同一个 DruidDataSource
+ * 连接池只在第一次创建时配置 之后的插件只增加引用计数 最后一个引用释放时关闭连接池
+ *
+ * @author SmallasWater
+ */
+public class PoolRegistry {
+
+    private static final ConcurrentHashMap<Key, LoginPool> POOLS = new ConcurrentHashMap<>();
+
+    private PoolRegistry() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * 获取连接池 不存在时按 {@link UserData#getPoolConfig()} 创建
+     * 不增加引用计数 连接池可能在最后一个插件断开时关闭
+     *
+     * @param data 数据库用户信息
+     * @return 连接池
+     */
+    public static LoginPool get(@NotNull UserData data) {
+        return POOLS.computeIfAbsent(new Key(data.getHost(), data.getPort(), data.getUser(), data.getDatabase()), k -> create(data));
+    }
+
+    /**
+     * 获取连接池并增加引用计数 不存在时按 {@link UserData#getPoolConfig()} 创建
+     * 使用完毕后需要调用 {@link #release(LoginPool)}
+     *
+     * @param data 数据库用户信息
+     * @return 连接池
+     */
+    public static LoginPool acquire(@NotNull UserData data) {
+        Key key = new Key(data.getHost(), data.getPort(), data.getUser(), data.getDatabase());
+        return POOLS.compute(key, (k, pool) -> {
+            if (pool == null) {
+                pool = create(data);
+            } else {
+                //共享的连接池只允许扩大 不覆盖其他插件的配置
+                int maxActive = data.getPoolConfig().getMaxActive();
+                if (maxActive > pool.dataSource.getMaxActive()) {
+                    pool.dataSource.setMaxActive(maxActive);
+                }
+            }
+            pool.retain();
+            return pool;
+        });
+    }
+
+    private static LoginPool create(UserData data) {
+        LoginPool pool = new LoginPool(data.getHost(), data.getPort(), data.getUser(), data.getDatabase());
+        pool.dataSource.setDriverClassName("com.mysql.cj.jdbc.Driver");
+        data.getPoolConfig().apply(pool.dataSource, data);
+        try {
+            pool.dataSource.addFilters("wall");
+        } catch (Exception e) {
+            Server.getInstance().getLogger().error("添加 Druid 过滤器出现异常", e);
+        }
+        if (!data.getReplicas().isEmpty()) {
+            pool.setReplicas(new ReplicaSet(pool.getMetrics().getName(), data));
+        }
+        return pool;
+    }
+
+    /**
+     * 释放一次引用 最后一个引用释放时关闭连接池
+     *
+     * @param pool 连接池
+     * @return 连接池是否已关闭
+     */
+    public static boolean release(@NotNull LoginPool pool) {
+        boolean[] close = new boolean[1];
+        Key key = Key.of(pool);
+        POOLS.computeIfPresent(key, (k, current) -> {
+            if (current != pool) {
+                return current;
+            }
+            if (current.releaseReference() <= 0) {
+                close[0] = true;
+                return null;
+            }
+            return current;
+        });
+        if (!close[0] && POOLS.get(key) != pool) {
+            //不是通过注册表创建的连接池
+            close[0] = !pool.dataSource.isClosed();
+        }
+        if (close[0]) {
+            close(pool);
+        }
+        return close[0];
+    }
+
+    /**
+     * @return 当前已注册的连接池
+     */
+    public static List<LoginPool> getPools() {
+        return new ArrayList<>(POOLS.values());
+    }
+
+    /**
+     * 关闭全部连接池 插件关闭时使用
+     */
+    public static void closeAll() {
+        for (LoginPool pool : getPools()) {
+            if (POOLS.remove(Key.of(pool), pool)) {
+                close(pool);
+            }
+        }
+    }
+
+    private static void close(LoginPool pool) {
+        WriteAheadLog log = pool.getWriteAheadLog();
+        if (log != null) {
+            //连接池关闭前尝试重放 未重放的写入保留到下次启动
+            log.flush();
+            pool.setWriteAheadLog(null);
+        }
+        pool.dataSource.close();
+        ReplicaSet replicas = pool.getReplicas();
+        if (replicas != null) {
+            pool.setReplicas(null);
+            replicas.close();
+        }
+    }
+
+    /**
+     * 注册表的键 不区分大小写
+     * 查找已存在的连接池时不需要创建 LoginPool
+     */
+    private static final class Key {
+
+        private final String host;
+
+        private final int port;
+
+        private final String user;
+
+        private final String database;
+
+        private final int hash;
+
+        Key(String host, int port, String user, String database) {
+            this.host = host.toLowerCase();
+            this.port = port;
+            this.user = user.toLowerCase();
+            this.database = database.toLowerCase();
+            this.hash = Objects.hash(this.host, port, this.user, this.database);
+        }
+
+        static Key of(LoginPool pool) {
+            return new Key(pool.getIp(), pool.getPort(), pool.getUser(), pool.getDatabase());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return this.port == key.port && this.host.equals(key.host) && this.user.equals(key.user)
+                    && this.database.equals(key.database);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
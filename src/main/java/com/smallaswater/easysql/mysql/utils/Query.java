@@ -0,0 +1,322 @@
+package com.smallaswater.easysql.mysql.utils;
+
+import com.smallaswater.easysql.mysql.data.PreparedSql;
+import com.smallaswater.easysql.mysql.data.SqlData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * 参数化查询构造器
+ * <pre>
+ * Query.select("name", "money").from("player")
+ *         .gt("money", 100)
+ *         .or(q -&gt; q.eq("vip", true).in("level", 10, 20, 30))
+ *         .orderByDesc("money").orderBy("id")
+ *         .limit(20)
+ *         .seek(lastMoney, lastId);
+ * </pre>
+ * 所有值都以 ? 参数绑定 字段名只允许字母 数字 下划线 点和反引号
+ * 需要查询 COUNT(*) 等表达式时使用 {@link #selectRaw(String...)}
+ *
+ * @author SmallasWater
+ */
+public class Query extends QueryConditions<Query> {
+
+    private final List<String> columns;
+
+    private String tableName;
+
+    private final ArrayList<String> groupBy = new ArrayList<>();
+
+    private String having;
+
+    private Object[] havingParameters = new Object[0];
+
+    private final ArrayList<String> orderBy = new ArrayList<>();
+
+    private final ArrayList<Boolean> descending = new ArrayList<>();
+
+    private Object[] seek;
+
+    private int limit = -1;
+
+    private int offset;
+
+    private int timeout;
+
+    private Query(List<String> columns) {
+        super(" AND ");
+        this.columns = columns;
+    }
+
+    /**
+     * 查询指定字段
+     *
+     * @param columns 字段 可以为 * 或 表名.* 不填为 *
+     */
+    public static Query select(String... columns) {
+        String[] checked = columns.clone();
+        for (String column : checked) {
+            if (!"*".equals(column)) {
+                checkColumn(column.endsWith(".*") ? column.substring(0, column.length() - 2) : column);
+            }
+        }
+        return new Query(Arrays.asList(checked));
+    }
+
+    /**
+     * 查询表达式 例如 COUNT(*) c, MAX(money) m
+     * 表达式直接写入语句 不做检查 请不要拼接玩家输入
+     *
+     * @param expressions 表达式
+     */
+    public static Query selectRaw(String... expressions) {
+        return new Query(Arrays.asList(expressions.clone()));
+    }
+
+    /**
+     * 查询表的全部字段
+     *
+     * @param tableName 表名
+     */
+    public static Query selectFrom(String tableName) {
+        return select().from(tableName);
+    }
+
+    public Query from(@NotNull String tableName) {
+        this.tableName = checkColumn(tableName);
+        return this;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public Query where(@NotNull SelectType selectType) {
+        return this.add(checkColumn(selectType.getKey()) + " " + selectType.getType().getSymbol() + " ?", selectType.getValue());
+    }
+
+    /**
+     * 每个字段都使用 = 判断 值为 null 时为 IS NULL
+     *
+     * @param where 字段与值
+     */
+    public Query where(@NotNull SqlData where) {
+        for (Map.Entry<String, Object> entry : where.getData().entrySet()) {
+            this.eq(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    public Query groupBy(String... columns) {
+        for (String column : columns) {
+            this.groupBy.add(checkColumn(column));
+        }
+        return this;
+    }
+
+    /**
+     * @param condition  分组后的条件 例如 COUNT(*) &gt; ?
+     * @param parameters 参数
+     */
+    public Query having(String condition, Object... parameters) {
+        this.having = condition;
+        this.havingParameters = parameters;
+        return this;
+    }
+
+    /**
+     * 升序排序
+     */
+    public Query orderBy(String column) {
+        this.orderBy.add(checkColumn(column));
+        this.descending.add(false);
+        return this;
+    }
+
+    /**
+     * 降序排序
+     */
+    public Query orderByDesc(String column) {
+        this.orderBy.add(checkColumn(column));
+        this.descending.add(true);
+        return this;
+    }
+
+    /**
+     * @param limit 最多返回的行数
+     */
+    public Query limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * 跳过的行数 数值越大越慢 翻页请使用 {@link #seek(Object...)}
+     *
+     * @param offset 跳过的行数
+     */
+    public Query offset(int offset) {
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * @param timeout 查询的超时时间 (秒) 超时后中止查询 0 为使用连接池的 query-timeout
+     */
+    public Query timeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * 键集分页 (seek) 从上一页最后一行之后开始读取
+     * 需要先设置 orderBy 排序字段需要能唯一确定一行 (例如最后加上主键)
+     * 通过索引直接定位 第 500 页与第 1 页的开销相同
+     *
+     * @param lastValues 上一页最后一行的排序字段值 顺序与 orderBy 一致 为空时读取第一页
+     */
+    public Query seek(Object... lastValues) {
+        if (lastValues.length == 0) {
+            this.seek = null;
+            return this;
+        }
+        if (lastValues.length != this.orderBy.size()) {
+            throw new IllegalArgumentException("seek 的参数数量 " + lastValues.length + " 与排序字段数量 " + this.orderBy.size() + " 不一致");
+        }
+        this.seek = lastValues.clone();
+        return this;
+    }
+
+    /**
+     * 键集分页 从上一页最后一行读取排序字段值
+     *
+     * @param lastRow 上一页最后一行 为 null 时读取第一页
+     */
+    public Query seekAfter(SqlData lastRow) {
+        if (lastRow == null) {
+            this.seek = null;
+            return this;
+        }
+        Object[] values = new Object[this.orderBy.size()];
+        for (int i = 0; i < values.length; i++) {
+            String column = this.orderBy.get(i);
+            values[i] = lastRow.get(column.substring(column.lastIndexOf('.') + 1).replace("`", ""), null);
+        }
+        return this.seek(values);
+    }
+
+    /**
+     * 生成查询语句
+     *
+     * @return 语句及参数
+     */
+    public PreparedSql build() {
+        return this.build(this.columns.isEmpty() ? "*" : String.join(",", this.columns), true);
+    }
+
+    /**
+     * 生成统计条数的语句 结果字段为 c
+     * 忽略排序与分页 有 GROUP BY 或 HAVING 时统计分组数
+     *
+     * @return 语句及参数
+     */
+    public PreparedSql buildCount() {
+        if (this.groupBy.isEmpty() && this.having == null) {
+            return this.build("COUNT(*) c", false);
+        }
+        PreparedSql groups = this.build(this.columns.isEmpty() ? "1" : String.join(",", this.columns), false);
+        return new PreparedSql("SELECT COUNT(*) c FROM (" + groups.getSql() + ") t", groups.getTypes());
+    }
+
+    private PreparedSql build(String projection, boolean page) {
+        if (this.tableName == null) {
+            throw new NullPointerException("未设置查询的表名");
+        }
+        StringBuilder sql = new StringBuilder("SELECT ").append(projection).append(" FROM ").append(this.tableName);
+        ArrayList<Object> parameters = new ArrayList<>(this.parameters);
+        String where = this.sql.toString();
+        if (page && this.seek != null) {
+            String seek = this.buildSeek(parameters);
+            where = where.isEmpty() ? seek : "(" + where + ") AND " + seek;
+        }
+        if (!where.isEmpty()) {
+            sql.append(" WHERE ").append(where);
+        }
+        if (!this.groupBy.isEmpty()) {
+            sql.append(" GROUP BY ").append(String.join(",", this.groupBy));
+        }
+        if (this.having != null) {
+            sql.append(" HAVING ").append(this.having);
+            parameters.addAll(Arrays.asList(this.havingParameters));
+        }
+        if (page) {
+            for (int i = 0; i < this.orderBy.size(); i++) {
+                sql.append(i == 0 ? " ORDER BY " : ",").append(this.orderBy.get(i)).append(this.descending.get(i) ? " DESC" : " ASC");
+            }
+            if (this.limit >= 0) {
+                sql.append(" LIMIT ?");
+                parameters.add(this.limit);
+                if (this.offset > 0) {
+                    sql.append(" OFFSET ?");
+                    parameters.add(this.offset);
+                }
+            }
+        }
+        ChunkSqlType[] types = new ChunkSqlType[parameters.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = new ChunkSqlType(i + 1, parameters.get(i));
+        }
+        return new PreparedSql(sql.toString(), types);
+    }
+
+    /**
+     * (a &gt; ?) OR (a = ? AND b &gt; ?) ... 升序为 &gt; 降序为 &lt;
+     */
+    private String buildSeek(List<Object> parameters) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < this.seek.length; i++) {
+            if (i > 0) {
+                builder.append(" OR ");
+            }
+            builder.append("(");
+            for (int j = 0; j < i; j++) {
+                builder.append(this.orderBy.get(j)).append(" = ? AND ");
+                parameters.add(this.seek[j]);
+            }
+            builder.append(this.orderBy.get(i)).append(this.descending.get(i) ? " < ?" : " > ?").append(")");
+            parameters.add(this.seek[i]);
+        }
+        return builder.append(")").toString();
+    }
+
+    @Override
+    protected Query self() {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return this.build().toString();
+    }
+
+    /**
+     * 条件组 内部的条件使用 AND 或 OR 连接
+     */
+    public static final class Group extends QueryConditions<Group> {
+
+        Group(String connector) {
+            super(connector);
+        }
+
+        @Override
+        protected Group self() {
+            return this;
+        }
+    }
+}
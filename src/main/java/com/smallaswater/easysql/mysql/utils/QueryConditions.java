@@ -0,0 +1,173 @@
+package com.smallaswater.easysql.mysql.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 查询条件 由 {@link Query} 与 {@link Query.Group} 共用
+ *
+ * @param <T> 返回类型
+ * @author SmallasWater
+ */
+public abstract class QueryConditions<T extends QueryConditions<T>> {
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[\\w.`]+");
+
+    private final String connector;
+
+    final StringBuilder sql = new StringBuilder();
+
+    final ArrayList<Object> parameters = new ArrayList<>();
+
+    QueryConditions(String connector) {
+        this.connector = connector;
+    }
+
+    protected abstract T self();
+
+    T add(String condition, Object... values) {
+        if (this.sql.length() > 0) {
+            this.sql.append(this.connector);
+        }
+        this.sql.append(condition);
+        this.parameters.addAll(Arrays.asList(values));
+        return this.self();
+    }
+
+    /**
+     * column = ?  值为 null 时为 IS NULL
+     */
+    public T eq(String column, Object value) {
+        if (value == null) {
+            return this.isNull(column);
+        }
+        return this.add(checkColumn(column) + " = ?", value);
+    }
+
+    /**
+     * column != ?  值为 null 时为 IS NOT NULL
+     */
+    public T ne(String column, Object value) {
+        if (value == null) {
+            return this.isNotNull(column);
+        }
+        return this.add(checkColumn(column) + " != ?", value);
+    }
+
+    public T gt(String column, Object value) {
+        return this.add(checkColumn(column) + " > ?", value);
+    }
+
+    public T ge(String column, Object value) {
+        return this.add(checkColumn(column) + " >= ?", value);
+    }
+
+    public T lt(String column, Object value) {
+        return this.add(checkColumn(column) + " < ?", value);
+    }
+
+    public T le(String column, Object value) {
+        return this.add(checkColumn(column) + " <= ?", value);
+    }
+
+    /**
+     * @param pattern 例如 %name%
+     */
+    public T like(String column, String pattern) {
+        return this.add(checkColumn(column) + " LIKE ?", pattern);
+    }
+
+    public T between(String column, Object from, Object to) {
+        return this.add(checkColumn(column) + " BETWEEN ? AND ?", from, to);
+    }
+
+    public T isNull(String column) {
+        return this.add(checkColumn(column) + " IS NULL");
+    }
+
+    public T isNotNull(String column) {
+        return this.add(checkColumn(column) + " IS NOT NULL");
+    }
+
+    public T in(String column, Object... values) {
+        return this.in(column, Arrays.asList(values));
+    }
+
+    /**
+     * column IN (?,?,?) 列表为空时条件恒为假
+     */
+    public T in(String column, Collection<?> values) {
+        return this.inList(checkColumn(column), values, " IN (", "1 = 0");
+    }
+
+    public T notIn(String column, Object... values) {
+        return this.notIn(column, Arrays.asList(values));
+    }
+
+    /**
+     * column NOT IN (?,?,?) 列表为空时条件恒为真
+     */
+    public T notIn(String column, Collection<?> values) {
+        return this.inList(checkColumn(column), values, " NOT IN (", "1 = 1");
+    }
+
+    private T inList(String column, Collection<?> values, String operator, String empty) {
+        if (values.isEmpty()) {
+            return this.add(empty);
+        }
+        StringBuilder builder = new StringBuilder(column).append(operator);
+        for (int i = 0; i < values.size(); i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        return this.add(builder.append(")").toString(), values.toArray());
+    }
+
+    /**
+     * 自定义条件 外面会加上括号 条件中的 OR 不会影响其他条件
+     *
+     * @param condition  条件 例如 money + bank &gt; ?
+     * @param parameters 参数
+     */
+    public T where(String condition, Object... parameters) {
+        return this.add("(" + condition + ")", parameters);
+    }
+
+    /**
+     * 添加一组使用 AND 连接的条件
+     */
+    public T and(Consumer<Query.Group> group) {
+        return this.group(" AND ", group);
+    }
+
+    /**
+     * 添加一组使用 OR 连接的条件
+     */
+    public T or(Consumer<Query.Group> group) {
+        return this.group(" OR ", group);
+    }
+
+    private T group(String connector, Consumer<Query.Group> consumer) {
+        Query.Group group = new Query.Group(connector);
+        consumer.accept(group);
+        if (group.sql.length() == 0) {
+            return this.self();
+        }
+        return this.add("(" + group.sql + ")", group.parameters.toArray());
+    }
+
+    /**
+     * 检查字段名或表名 只允许字母 数字 下划线 点和反引号
+     *
+     * @param column 字段名
+     * @return 字段名
+     */
+    public static String checkColumn(String column) {
+        if (column == null || !IDENTIFIER.matcher(column).matches()) {
+            throw new IllegalArgumentException("非法的字段名 " + column);
+        }
+        return column;
+    }
+}
@@ -0,0 +1,136 @@
+package com.smallaswater.easysql.mysql.utils;
+
+import cn.nukkit.utils.ConfigSection;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 读写分离配置
+ * 通过 {@link #builder()} 创建 或通过 {@link #fromConfig(ConfigSection)} 从插件的 config.yml 读取
+ *
+ * @author SmallasWater
+ */
+public class ReplicaConfig {
+
+    private static final ReplicaConfig DEFAULT = builder().build();
+
+    /**
+     * 从库的选择方式
+     */
+    public enum Strategy {
+        /**
+         * 轮询
+         */
+        ROUND_ROBIN,
+        /**
+         * 活动连接最少的从库
+         */
+        LEAST_LOADED
+    }
+
+    @Getter
+    private final Strategy strategy;
+    /**
+     * 允许的最大复制延迟 (秒) 超过后从库不再接收查询
+     */
+    @Getter
+    private final long maxLag;
+    /**
+     * 从库状态检测间隔 (毫秒)
+     */
+    @Getter
+    private final long checkInterval;
+    /**
+     * 写入一张表后 该表的查询在此时间内使用主库 (毫秒) 0 为关闭
+     * 从库的复制延迟更长时按延迟计算
+     */
+    @Getter
+    private final long stickyTime;
+
+    private ReplicaConfig(Builder builder) {
+        this.strategy = builder.strategy;
+        this.maxLag = builder.maxLag;
+        this.checkInterval = builder.checkInterval;
+        this.stickyTime = builder.stickyTime;
+    }
+
+    /**
+     * @return 默认配置
+     */
+    public static ReplicaConfig defaults() {
+        return DEFAULT;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 从配置文件读取 未填写的项使用默认值
+     * <pre>
+     * replica:
+     *   strategy: round_robin
+     *   max-lag: 5
+     *   check-interval: 5000
+     *   sticky-time: 2000
+     * </pre>
+     *
+     * @param section 配置节点 为 null 时返回默认配置
+     * @return 读写分离配置
+     */
+    public static ReplicaConfig fromConfig(ConfigSection section) {
+        Builder builder = builder();
+        if (section == null) {
+            return builder.build();
+        }
+        String strategy = section.getString("strategy", builder.strategy.name());
+        try {
+            builder.strategy(Strategy.valueOf(strategy.toUpperCase().replace('-', '_')));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("未知的从库选择方式: " + strategy);
+        }
+        return builder.maxLag(section.getLong("max-lag", builder.maxLag))
+                .checkInterval(section.getLong("check-interval", builder.checkInterval))
+                .stickyTime(section.getLong("sticky-time", builder.stickyTime))
+                .build();
+    }
+
+    public static class Builder {
+
+        private Strategy strategy = Strategy.ROUND_ROBIN;
+        private long maxLag = 5;
+        private long checkInterval = 5000;
+        private long stickyTime = 2000;
+
+        private Builder() {
+        }
+
+        public Builder strategy(@NotNull Strategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        public Builder maxLag(long maxLag) {
+            this.maxLag = maxLag;
+            return this;
+        }
+
+        public Builder checkInterval(long checkInterval) {
+            this.checkInterval = checkInterval;
+            return this;
+        }
+
+        public Builder stickyTime(long stickyTime) {
+            this.stickyTime = stickyTime;
+            return this;
+        }
+
+        public ReplicaConfig build() {
+            if (this.maxLag < 0 || this.checkInterval <= 0) {
+                throw new IllegalArgumentException("读写分离配置错误: max-lag=" + this.maxLag +
+                        " check-interval=" + this.checkInterval);
+            }
+            return new ReplicaConfig(this);
+        }
+    }
+}
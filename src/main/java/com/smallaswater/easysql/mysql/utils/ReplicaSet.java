@@ -0,0 +1,457 @@
+package com.smallaswater.easysql.mysql.utils;
+
+import cn.nukkit.Server;
+import com.alibaba.druid.pool.DruidDataSource;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 只读从库
+ * SELECT 语句按 {@link ReplicaConfig#getStrategy()} 分配到正常的从库 写入 事务 以及加锁的查询使用主库
+ * 定时读取从库的复制延迟 延迟超过 {@link ReplicaConfig#getMaxLag()} 或复制停止的从库不再接收查询
+ * 写入一张表后 该表的查询在 {@link ReplicaConfig#getStickyTime()} 内使用主库 保证能读到刚写入的数据
+ *
+ * @author SmallasWater
+ */
+public class ReplicaSet {
+
+    private static final int MAX_CACHED_SQL = 4096;
+
+    /**
+     * 检测语句的超时时间 (秒)
+     */
+    private static final int CHECK_TIMEOUT = 3;
+
+    /**
+     * 必须在主库执行的查询
+     */
+    private static final Pattern PRIMARY_ONLY = Pattern.compile(
+            "(?i)\\b(?:FOR\\s+UPDATE|FOR\\s+SHARE|LOCK\\s+IN\\s+SHARE\\s+MODE|LAST_INSERT_ID|FOUND_ROWS|GET_LOCK|RELEASE_LOCK|IS_FREE_LOCK|information_schema)\\b");
+
+    private static final Pattern READ_TABLES = Pattern.compile(
+            "(?i)\\b(?:FROM|JOIN)\\s+(`?\\w+`?(?:\\.`?\\w+`?)?(?:\\s+(?:AS\\s+)?\\w+)?(?:\\s*,\\s*`?\\w+`?(?:\\.`?\\w+`?)?(?:\\s+(?:AS\\s+)?\\w+)?)*)");
+
+    private static final Pattern WRITE_TABLE = Pattern.compile(
+            "(?i)^\\s*(?:INSERT\\s+(?:IGNORE\\s+)?(?:INTO\\s+)?|REPLACE\\s+(?:INTO\\s+)?|UPDATE\\s+(?:IGNORE\\s+)?|DELETE\\s+FROM\\s+|TRUNCATE\\s+(?:TABLE\\s+)?|(?:CREATE|ALTER|DROP)\\s+(?:TEMPORARY\\s+)?TABLE\\s+(?:IF\\s+(?:NOT\\s+)?EXISTS\\s+)?)`?(\\w+)`?(?:\\.`?(\\w+)`?)?");
+
+    /**
+     * 无法识别表名的写入 所有查询都按此时间判断
+     */
+    private static final String ANY_TABLE = "*";
+
+    private static final String[] NO_TABLES = new String[0];
+
+    private final String name;
+
+    private final ReplicaConfig config;
+
+    private final List<Replica> replicas;
+
+    private final ConcurrentHashMap<String, String[]> tables = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ScheduledExecutorService checker;
+
+    /**
+     * @param name    主库名称 用于日志
+     * @param primary 主库用户信息 从库使用主库的连接池配置
+     */
+    public ReplicaSet(@NotNull String name, @NotNull UserData primary) {
+        this.name = name;
+        this.config = primary.getReplicaConfig();
+        ArrayList<Replica> replicas = new ArrayList<>();
+        for (UserData data : primary.getReplicas()) {
+            DruidDataSource dataSource = new DruidDataSource();
+            dataSource.setDriverClassName("com.mysql.cj.jdbc.Driver");
+            primary.getPoolConfig().apply(dataSource, data);
+            try {
+                dataSource.addFilters("wall");
+            } catch (Exception e) {
+                Server.getInstance().getLogger().error("添加 Druid 过滤器出现异常", e);
+            }
+            replicas.add(new Replica(data.getHost() + ":" + data.getPort(), dataSource));
+        }
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.checker = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("EasyMySQL-Replica-" + name));
+        this.checker.scheduleWithFixedDelay(this::checkAll, 0, this.config.getCheckInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 选择执行查询的从库
+     *
+     * @param sql 查询语句
+     * @return 从库 需要使用主库时为 null
+     */
+    public Replica route(@NotNull String sql) {
+        if (!isSelect(sql) || PRIMARY_ONLY.matcher(sql).find()) {
+            return null;
+        }
+        Replica replica = this.choose();
+        if (replica == null) {
+            return null;
+        }
+        long window = this.config.getStickyTime();
+        if (window > 0 && !this.lastWrites.isEmpty()) {
+            window = Math.max(window, replica.lagMillis + 1000);
+            long since = System.currentTimeMillis() - window;
+            Long any = this.lastWrites.get(ANY_TABLE);
+            if (any != null && any > since) {
+                return null;
+            }
+            for (String table : this.getTables(sql)) {
+                Long time = this.lastWrites.get(table);
+                if (time != null && time > since) {
+                    return null;
+                }
+            }
+        }
+        return replica;
+    }
+
+    /**
+     * 在主库执行写入后调用 记录写入的表
+     *
+     * @param sql 写入语句
+     */
+    public void onWrite(@NotNull String sql) {
+        if (this.config.getStickyTime() <= 0) {
+            return;
+        }
+        String table = parseWriteTable(sql);
+        if (table == null) {
+            table = ANY_TABLE;
+        }
+        long now = System.currentTimeMillis();
+        this.lastWrites.put(table, now);
+        if (this.lastWrites.size() > MAX_CACHED_SQL) {
+            long since = now - Math.max(this.config.getStickyTime(), this.config.getMaxLag() * 1000 + 1000);
+            this.lastWrites.values().removeIf(time -> time <= since);
+        }
+    }
+
+    /**
+     * 获取从库连接失败后调用 从库在下次检测正常前不再接收查询
+     *
+     * @param replica 从库
+     * @param e       异常
+     */
+    public void markDown(@NotNull Replica replica, Exception e) {
+        if (replica.healthy) {
+            replica.healthy = false;
+            Server.getInstance().getLogger().warning("[EasyMySQL] 从库 " + replica.name + " (" + this.name + ") 无法连接 查询改为使用主库: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return 全部从库
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * 停止检测并关闭从库的连接池
+     */
+    public void close() {
+        this.checker.shutdownNow();
+        for (Replica replica : this.replicas) {
+            replica.dataSource.close();
+        }
+    }
+
+    private Replica choose() {
+        Replica chosen = null;
+        int size = this.replicas.size();
+        if (this.config.getStrategy() == ReplicaConfig.Strategy.LEAST_LOADED) {
+            int least = Integer.MAX_VALUE;
+            for (Replica replica : this.replicas) {
+                int active = replica.dataSource.getActiveCount();
+                if (replica.healthy && active < least) {
+                    least = active;
+                    chosen = replica;
+                }
+            }
+        } else {
+            int start = this.next.getAndIncrement() & Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                Replica replica = this.replicas.get((start + i) % size);
+                if (replica.healthy) {
+                    chosen = replica;
+                    break;
+                }
+            }
+        }
+        return chosen;
+    }
+
+    private static boolean isSelect(String sql) {
+        int i = skipBlank(sql, 0);
+        if (sql.regionMatches(true, i, "WITH", 0, 4)) {
+            return isSelect(sql, skipCommonTableExpressions(sql, i + 4));
+        }
+        return isSelect(sql, i);
+    }
+
+    private static boolean isSelect(String sql, int i) {
+        return i >= 0 && sql.regionMatches(true, i, "SELECT", 0, 6);
+    }
+
+    /**
+     * 跳过空白与左括号
+     */
+    private static int skipBlank(String sql, int i) {
+        while (i < sql.length() && (Character.isWhitespace(sql.charAt(i)) || sql.charAt(i) == '(')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 跳过 WITH 之后的公用表表达式 MySQL 8 允许 WITH ... UPDATE / DELETE 只有主语句为 SELECT 时才能使用从库
+     *
+     * @param i WITH 之后的位置
+     * @return 主语句的位置 无法识别时为 -1
+     */
+    private static int skipCommonTableExpressions(String sql, int i) {
+        int depth = 0;
+        char quote = 0;
+        boolean closed = false;
+        for (; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth < 0) {
+                    return -1;
+                }
+                closed = depth == 0;
+            } else if (depth == 0 && closed && !Character.isWhitespace(c)) {
+                //表达式结束后 逗号为下一个表达式 AS 为字段列表之后的定义 其他为主语句
+                if (c == ',') {
+                    closed = false;
+                } else if (!sql.regionMatches(true, i, "AS", 0, 2) || (i + 2 < sql.length() && Character.isLetterOrDigit(sql.charAt(i + 2)))) {
+                    return skipBlank(sql, i);
+                } else {
+                    closed = false;
+                    i++;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 查询使用的表 (小写)
+     */
+    private String[] getTables(String sql) {
+        String[] cached = this.tables.get(sql);
+        if (cached != null) {
+            return cached;
+        }
+        List<String> list = parseReadTables(sql);
+        String[] result = list.isEmpty() ? NO_TABLES : list.toArray(new String[0]);
+        if (this.tables.size() >= MAX_CACHED_SQL) {
+            this.tables.clear();
+        }
+        this.tables.put(sql, result);
+        return result;
+    }
+
+    /**
+     * 解析查询使用的表 包括逗号连接的多张表 去掉库名前缀
+     *
+     * @param sql 查询语句
+     * @return 表名 (小写)
+     */
+    public static List<String> parseReadTables(@NotNull String sql) {
+        ArrayList<String> list = new ArrayList<>();
+        Matcher matcher = READ_TABLES.matcher(sql);
+        while (matcher.find()) {
+            for (String part : matcher.group(1).split(",")) {
+                String table = part.trim().split("\\s+")[0].replace("`", "").toLowerCase();
+                int dot = table.indexOf('.');
+                list.add(dot >= 0 ? table.substring(dot + 1) : table);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 解析写入语句的表 去掉库名前缀
+     *
+     * @param sql 写入语句
+     * @return 表名 (小写) 无法识别时为 null
+     */
+    public static String parseWriteTable(@NotNull String sql) {
+        Matcher matcher = WRITE_TABLE.matcher(sql);
+        if (!matcher.lookingAt()) {
+            return null;
+        }
+        return (matcher.group(2) != null ? matcher.group(2) : matcher.group(1)).toLowerCase();
+    }
+
+    private void checkAll() {
+        for (Replica replica : this.replicas) {
+            try {
+                this.check(replica);
+            } catch (Throwable e) {
+                Server.getInstance().getLogger().error("检测从库 " + replica.name + " 出现异常", e);
+            }
+        }
+    }
+
+    private void check(Replica replica) {
+        boolean healthy;
+        String reason = null;
+        try (Connection connection = replica.dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(CHECK_TIMEOUT);
+            Long lag = this.readLag(replica, statement);
+            if (lag == null) {
+                healthy = false;
+                reason = "复制已停止";
+            } else {
+                replica.lagMillis = lag * 1000;
+                healthy = lag <= this.config.getMaxLag();
+                if (!healthy) {
+                    reason = "复制延迟 " + lag + " 秒";
+                }
+            }
+        } catch (SQLException e) {
+            healthy = false;
+            reason = e.getMessage();
+        }
+        if (replica.healthy != healthy) {
+            replica.healthy = healthy;
+            if (healthy) {
+                Server.getInstance().getLogger().info("[EasyMySQL] 从库 " + replica.name + " (" + this.name + ") 已恢复");
+            } else {
+                Server.getInstance().getLogger().warning("[EasyMySQL] 从库 " + replica.name + " (" + this.name + ") 暂停使用: " + reason);
+            }
+        }
+    }
+
+    /**
+     * 读取复制延迟 MySQL 8.0.22 起使用 SHOW REPLICA STATUS
+     *
+     * @return 延迟 (秒) 不是从库时为 0 复制停止时为 null
+     */
+    private Long readLag(Replica replica, Statement statement) throws SQLException {
+        if (replica.statusSql == null) {
+            statement.execute("SELECT 1");
+            return 0L;
+        }
+        ResultSet resultSet;
+        try {
+            resultSet = statement.executeQuery(replica.statusSql);
+        } catch (SQLException e) {
+            if (e.getErrorCode() == 1064 && replica.statusSql.contains("REPLICA")) {
+                //旧版本 MySQL 与 MariaDB
+                replica.statusSql = "SHOW SLAVE STATUS";
+                return this.readLag(replica, statement);
+            }
+            if (e.getErrorCode() == 1227) {
+                Server.getInstance().getLogger().warning("[EasyMySQL] 从库 " + replica.name + " 的用户没有 REPLICATION CLIENT 权限 无法检测复制延迟");
+                replica.statusSql = null;
+                return this.readLag(replica, statement);
+            }
+            throw e;
+        }
+        try (ResultSet rs = resultSet) {
+            int column = 0;
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                String label = meta.getColumnLabel(i);
+                if ("Seconds_Behind_Source".equalsIgnoreCase(label) || "Seconds_Behind_Master".equalsIgnoreCase(label)) {
+                    column = i;
+                    break;
+                }
+            }
+            long max = 0;
+            while (rs.next()) {
+                if (column == 0) {
+                    continue;
+                }
+                long lag = rs.getLong(column);
+                if (rs.wasNull()) {
+                    return null;
+                }
+                max = Math.max(max, lag);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * 从库
+     */
+    public static final class Replica {
+
+        private final String name;
+
+        private final DruidDataSource dataSource;
+
+        private volatile boolean healthy = true;
+
+        private volatile long lagMillis;
+
+        private volatile String statusSql = "SHOW REPLICA STATUS";
+
+        Replica(String name, DruidDataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        public Connection getConnection() throws SQLException {
+            return this.dataSource.getConnection();
+        }
+
+        /**
+         * @return 地址:端口
+         */
+        public String getName() {
+            return name;
+        }
+
+        public DruidDataSource getDataSource() {
+            return dataSource;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * @return 最近一次检测的复制延迟 (毫秒)
+         */
+        public long getLagMillis() {
+            return lagMillis;
+        }
+    }
+}
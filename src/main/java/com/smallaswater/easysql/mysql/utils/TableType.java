@@ -16,12 +16,35 @@ public class TableType {
     @Getter
     private final Types type;
 
+    private final String definition;
+
     public TableType(String name, Types type) {
         this.name = name;
         this.type = type;
+        this.definition = null;
+    }
+
+    /**
+     * 直接使用字段定义 例如 bigint(20) not null
+     * 不修改 {@link Types} 中共享的枚举值
+     *
+     * @param name       字段名
+     * @param definition 字段定义
+     */
+    public TableType(String name, String definition) {
+        this.name = name;
+        this.type = null;
+        this.definition = definition;
+    }
+
+    /**
+     * @return 字段定义
+     */
+    public String getDefinition() {
+        return definition != null ? definition : type.toString();
     }
 
     public String toTable() {
-        return name + " " + type.toString();
+        return name + " " + getDefinition();
     }
 }
@@ -1,5 +1,13 @@
 package com.smallaswater.easysql.mysql.utils;
 
+import cn.nukkit.utils.ConfigSection;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 数据库用户信息
  *
@@ -17,6 +25,11 @@ public class UserData {
 
     private final String database;
 
+    private PoolConfig poolConfig = PoolConfig.defaults();
+
+    private final ArrayList<UserData> replicas = new ArrayList<>();
+
+    private ReplicaConfig replicaConfig = ReplicaConfig.defaults();
 
     public UserData(String user, String passWorld, String host, int port, String database) {
         this.host = host;
@@ -26,6 +39,129 @@ public class UserData {
         this.database = database;
     }
 
+    public UserData(String user, String passWorld, String host, int port, String database, @NotNull PoolConfig poolConfig) {
+        this(user, passWorld, host, port, database);
+        this.poolConfig = poolConfig;
+    }
+
+    /**
+     * 从配置文件读取
+     * <pre>
+     * mysql:
+     *   host: localhost
+     *   port: 3306
+     *   user: root
+     *   password: ""
+     *   database: test
+     *   pool:
+     *     max-active: 16
+     *   replicas:
+     *     - "192.168.1.2:3306"
+     *     - host: 192.168.1.3
+     *       port: 3306
+     *       user: reader
+     *       password: ""
+     *   replica:
+     *     strategy: least_loaded
+     * </pre>
+     * pool 节点的内容见 {@link PoolConfig#fromConfig(ConfigSection)}
+     * replicas 为只读从库 未填写的用户名与密码和主库相同 replica 节点的内容见 {@link ReplicaConfig#fromConfig(ConfigSection)}
+     *
+     * @param section 配置节点 例如 getConfig().getSection("mysql")
+     * @return 数据库用户信息
+     */
+    public static UserData fromConfig(@NotNull ConfigSection section) {
+        UserData data = new UserData(
+                section.getString("user", "root"),
+                section.getString("password", ""),
+                section.getString("host", "localhost"),
+                section.getInt("port", 3306),
+                section.getString("database", ""),
+                PoolConfig.fromConfig(section.getSection("pool")));
+        List<?> replicas = section.getList("replicas");
+        if (replicas != null) {
+            for (Object replica : replicas) {
+                if (replica instanceof Map) {
+                    Map<?, ?> map = (Map<?, ?>) replica;
+                    Object port = map.get("port");
+                    data.addReplica(new UserData(
+                            map.containsKey("user") ? String.valueOf(map.get("user")) : data.user,
+                            map.containsKey("password") ? String.valueOf(map.get("password")) : data.passWorld,
+                            String.valueOf(map.get("host")),
+                            port == null ? data.port : Integer.parseInt(String.valueOf(port)),
+                            data.database));
+                } else if (replica != null) {
+                    String address = String.valueOf(replica).trim();
+                    int colon = address.lastIndexOf(':');
+                    if (colon > 0) {
+                        data.addReplica(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+                    } else {
+                        data.addReplica(address, data.port);
+                    }
+                }
+            }
+        }
+        data.setReplicaConfig(ReplicaConfig.fromConfig(section.getSection("replica")));
+        return data;
+    }
+
+    public PoolConfig getPoolConfig() {
+        return poolConfig;
+    }
+
+    /**
+     * 设置连接池配置 需要在创建 BaseMySql 之前设置
+     *
+     * @param poolConfig 连接池配置
+     */
+    public UserData setPoolConfig(@NotNull PoolConfig poolConfig) {
+        this.poolConfig = poolConfig;
+        return this;
+    }
+
+    /**
+     * 添加只读从库 使用与主库相同的用户名 密码 数据库
+     * 需要在创建 BaseMySql 之前添加
+     *
+     * @param host 从库地址
+     * @param port 从库端口
+     */
+    public UserData addReplica(@NotNull String host, int port) {
+        return this.addReplica(new UserData(this.user, this.passWorld, host, port, this.database));
+    }
+
+    /**
+     * 添加只读从库 从库的连接池使用主库的连接池配置
+     * 需要在创建 BaseMySql 之前添加
+     *
+     * @param replica 从库用户信息
+     */
+    public UserData addReplica(@NotNull UserData replica) {
+        this.replicas.add(replica);
+        return this;
+    }
+
+    /**
+     * @return 只读从库
+     */
+    public List<UserData> getReplicas() {
+        return Collections.unmodifiableList(replicas);
+    }
+
+    public ReplicaConfig getReplicaConfig() {
+        return replicaConfig;
+    }
+
+    /**
+     * 设置读写分离配置 需要在创建 BaseMySql 之前设置
+     *
+     * @param replicaConfig 读写分离配置
+     */
+    public UserData setReplicaConfig(@NotNull ReplicaConfig replicaConfig) {
+        this.replicaConfig = replicaConfig;
+        return this;
+    }
+
     public String getPassWorld() {
         return passWorld;
     }